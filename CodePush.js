@@ -8,6 +8,32 @@ import hoistStatics from 'hoist-non-react-statics';
 let NativeCodePush = require("react-native").NativeModules.CodePush;
 const PackageMixins = require("./package-mixins")(NativeCodePush);
 
+// Under the new architecture, the cheap queries below are answered synchronously from
+// native memory over JSI, instead of awaiting a bridge round trip for each of them.
+function canCallSynchronously(methodName) {
+  return !!(global.RN$Bridgeless || global.__turboModuleProxy) && typeof NativeCodePush[methodName] === "function";
+}
+
+function isFailedUpdate(packageHash) {
+  return canCallSynchronously("isFailedUpdateSync") ? NativeCodePush.isFailedUpdateSync(packageHash) : NativeCodePush.isFailedUpdate(packageHash);
+}
+
+function isFirstRun(packageHash) {
+  if (canCallSynchronously("isFirstRunSync")) {
+    // null while the native state is still being loaded.
+    const isFirstRunResult = NativeCodePush.isFirstRunSync(packageHash);
+    if (isFirstRunResult !== null && isFirstRunResult !== undefined) {
+      return isFirstRunResult;
+    }
+  }
+
+  return NativeCodePush.isFirstRun(packageHash);
+}
+
+function getLatestRollbackInfo() {
+  return canCallSynchronously("getLatestRollbackInfoSync") ? NativeCodePush.getLatestRollbackInfoSync() : NativeCodePush.getLatestRollbackInfo();
+}
+
 async function checkForUpdate(deploymentKey = null, handleBinaryVersionMismatchCallback = null) {
   /*
    * Before we ask the server if an update exists, we
@@ -90,7 +116,7 @@ async function checkForUpdate(deploymentKey = null, handleBinaryVersionMismatchC
     return null;
   } else {
     const remotePackage = { ...update, ...PackageMixins.remote(sdk.reportStatusDownload) };
-    remotePackage.failedInstall = await NativeCodePush.isFailedUpdate(remotePackage.packageHash);
+    remotePackage.failedInstall = await isFailedUpdate(remotePackage.packageHash);
     remotePackage.deploymentKey = deploymentKey || nativeConfig.deploymentKey;
     return remotePackage;
   }
@@ -104,7 +130,7 @@ const getConfiguration = (() => {
     } else if (testConfig) {
       return testConfig;
     } else {
-      config = await NativeCodePush.getConfiguration();
+      config = canCallSynchronously("getConfigurationSync") ? NativeCodePush.getConfigurationSync() : await NativeCodePush.getConfiguration();
       return config;
     }
   }
@@ -115,13 +141,43 @@ async function getCurrentPackage() {
 }
 
 async function getUpdateMetadata(updateState) {
-  let updateMetadata = await NativeCodePush.getUpdateMetadata(updateState || CodePush.UpdateState.RUNNING);
+  const updateMetadata = await NativeCodePush.getUpdateMetadata(updateState || CodePush.UpdateState.RUNNING);
+  return await toLocalPackage(updateMetadata);
+}
+
+// Retrieves the running, pending and latest updates at once, from a single snapshot of the update state.
+async function getAllUpdateMetadata() {
+  if (!NativeCodePush.getAllUpdateMetadata) {
+    return {
+      running: await getUpdateMetadata(CodePush.UpdateState.RUNNING),
+      pending: await getUpdateMetadata(CodePush.UpdateState.PENDING),
+      latest: await getUpdateMetadata(CodePush.UpdateState.LATEST)
+    };
+  }
+
+  const { running, pending, latest } = await NativeCodePush.getAllUpdateMetadata();
+  return {
+    running: await toLocalPackage(running),
+    pending: await toLocalPackage(pending),
+    latest: await toLocalPackage(latest)
+  };
+}
+
+async function getMetrics() {
+  if (!NativeCodePush.getMetrics) {
+    return null;
+  }
+
+  return await NativeCodePush.getMetrics();
+}
+
+async function toLocalPackage(updateMetadata) {
   if (updateMetadata) {
     updateMetadata = {...PackageMixins.local, ...updateMetadata};
-    updateMetadata.failedInstall = await NativeCodePush.isFailedUpdate(updateMetadata.packageHash);
-    updateMetadata.isFirstRun = await NativeCodePush.isFirstRun(updateMetadata.packageHash);
+    updateMetadata.failedInstall = await isFailedUpdate(updateMetadata.packageHash);
+    updateMetadata.isFirstRun = await isFirstRun(updateMetadata.packageHash);
   }
-  return updateMetadata;
+  return updateMetadata || null;
 }
 
 function getPromisifiedSdk(requestFetchAdapter, config) {
@@ -182,41 +238,54 @@ const notifyApplicationReady = (() => {
 async function notifyApplicationReadyInternal() {
   await NativeCodePush.notifyApplicationReady();
   const statusReport = await NativeCodePush.getNewStatusReport();
-  statusReport && tryReportStatus(statusReport); // Don't wait for this to complete.
+  // Don't wait for these to complete.
+  if (statusReport) {
+    tryReportStatus(statusReport);
+  } else {
+    tryReportPendingStatusReports();
+  }
 
   return statusReport;
 }
 
-async function tryReportStatus(statusReport, retryOnAppResume) {
-  const config = await getConfiguration();
+// Sends the status report to the server, throwing if it could not be sent.
+async function sendStatusReport(statusReport, config) {
   const previousLabelOrAppVersion = statusReport.previousLabelOrAppVersion;
   const previousDeploymentKey = statusReport.previousDeploymentKey || config.deploymentKey;
-  try {
-    if (statusReport.appVersion) {
-      log(`Reporting binary update (${statusReport.appVersion})`);
+  if (statusReport.appVersion) {
+    log(`Reporting binary update (${statusReport.appVersion})`);
 
-      if (!config.deploymentKey) {
-        throw new Error("Deployment key is missed");
-      }
+    if (!config.deploymentKey) {
+      throw new Error("Deployment key is missed");
+    }
 
-      const sdk = getPromisifiedSdk(requestFetchAdapter, config);
-      await sdk.reportStatusDeploy(/* deployedPackage */ null, /* status */ null, previousLabelOrAppVersion, previousDeploymentKey);
+    const sdk = getPromisifiedSdk(requestFetchAdapter, config);
+    await sdk.reportStatusDeploy(/* deployedPackage */ null, /* status */ null, previousLabelOrAppVersion, previousDeploymentKey);
+  } else {
+    const label = statusReport.package.label;
+    if (statusReport.status === "DeploymentSucceeded") {
+      log(`Reporting CodePush update success (${label})`);
     } else {
-      const label = statusReport.package.label;
-      if (statusReport.status === "DeploymentSucceeded") {
-        log(`Reporting CodePush update success (${label})`);
-      } else {
-        log(`Reporting CodePush update rollback (${label})`);
+      log(`Reporting CodePush update rollback (${label})`);
+      // Native modules with a status report queue record the rollback when they create its report,
+      // so that sending a queued report again doesn't count the rollback twice.
+      if (!NativeCodePush.getPendingStatusReports) {
         await NativeCodePush.setLatestRollbackInfo(statusReport.package.packageHash);
       }
-
-      config.deploymentKey = statusReport.package.deploymentKey;
-      const sdk = getPromisifiedSdk(requestFetchAdapter, config);
-      await sdk.reportStatusDeploy(statusReport.package, statusReport.status, previousLabelOrAppVersion, previousDeploymentKey);
     }
 
+    const sdk = getPromisifiedSdk(requestFetchAdapter, { ...config, deploymentKey: statusReport.package.deploymentKey });
+    await sdk.reportStatusDeploy(statusReport.package, statusReport.status, previousLabelOrAppVersion, previousDeploymentKey);
+  }
+}
+
+async function tryReportStatus(statusReport, retryOnAppResume) {
+  const config = await getConfiguration();
+  try {
+    await sendStatusReport(statusReport, config);
     NativeCodePush.recordStatusReported(statusReport);
     retryOnAppResume && retryOnAppResume.remove();
+    tryReportPendingStatusReports();
   } catch (e) {
     log(`Report status failed: ${JSON.stringify(statusReport)}`);
     NativeCodePush.saveStatusReportForRetry(statusReport);
@@ -224,6 +293,11 @@ async function tryReportStatus(statusReport, retryOnAppResume) {
     if (!retryOnAppResume) {
       const resumeListener = AppState.addEventListener("change", async (newState) => {
         if (newState !== "active") return;
+        if (NativeCodePush.getPendingStatusReports) {
+          await tryReportPendingStatusReports(resumeListener);
+          return;
+        }
+
         const refreshedStatusReport = await NativeCodePush.getNewStatusReport();
         if (refreshedStatusReport) {
           tryReportStatus(refreshedStatusReport, resumeListener);
@@ -235,6 +309,59 @@ async function tryReportStatus(statusReport, retryOnAppResume) {
   }
 }
 
+const MAX_STATUS_REPORTS_PER_BATCH = 10;
+
+// The drain of the pending status reports that is in flight, if any.
+let pendingStatusReportsPromise;
+
+// Sends the reports that could not be sent before, oldest first, and acknowledges the sent ones
+// with a single native call. Stops at the first report that can't be sent, e.g. while offline.
+// A call made while a drain is in flight waits for that drain instead of sending its reports again.
+async function tryReportPendingStatusReports(retryOnAppResume) {
+  if (!NativeCodePush.getPendingStatusReports) {
+    return;
+  }
+
+  if (!pendingStatusReportsPromise) {
+    pendingStatusReportsPromise = reportPendingStatusReports().finally(() => {
+      pendingStatusReportsPromise = null;
+    });
+  }
+
+  const hasSentAllStatusReports = await pendingStatusReportsPromise;
+  if (hasSentAllStatusReports) {
+    retryOnAppResume && retryOnAppResume.remove();
+  }
+}
+
+// Returns whether every pending report of the batch was sent.
+async function reportPendingStatusReports() {
+  const config = await getConfiguration();
+  const statusReports = await NativeCodePush.getPendingStatusReports(MAX_STATUS_REPORTS_PER_BATCH);
+  const sentStatusReports = [];
+  for (const statusReport of statusReports) {
+    try {
+      await sendStatusReport(statusReport, config);
+      sentStatusReports.push(statusReport);
+    } catch (e) {
+      log(`Report status failed: ${JSON.stringify(statusReport)}`);
+      break;
+    }
+  }
+
+  if (sentStatusReports.length > 0) {
+    // Resolves once the reports are removed from the queue, so the next drain won't see them.
+    try {
+      await NativeCodePush.recordStatusReportsBatch(sentStatusReports);
+    } catch (e) {
+      log(`Recording sent status reports failed: ${e.message}`);
+      return false;
+    }
+  }
+
+  return sentStatusReports.length === statusReports.length;
+}
+
 async function shouldUpdateBeIgnored(remotePackage, syncOptions) {
   let { rollbackRetryOptions } = syncOptions;
 
@@ -257,7 +384,7 @@ async function shouldUpdateBeIgnored(remotePackage, syncOptions) {
     return true;
   }
 
-  const latestRollbackInfo = await NativeCodePush.getLatestRollbackInfo();
+  const latestRollbackInfo = await getLatestRollbackInfo();
   if (!validateLatestRollbackInfo(latestRollbackInfo, remotePackage.packageHash)) {
     log("The latest rollback info is not valid.");
     return true;
@@ -614,6 +741,8 @@ if (NativeCodePush) {
     getConfiguration,
     getCurrentPackage,
     getUpdateMetadata,
+    getAllUpdateMetadata,
+    getMetrics,
     log,
     notifyAppReady: notifyApplicationReady,
     notifyApplicationReady,
@@ -0,0 +1,139 @@
+package com.microsoft.codepush.react;
+
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSSigner;
+import com.nimbusds.jose.crypto.ECDSASigner;
+import com.nimbusds.jose.crypto.Ed25519Signer;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.gen.OctetKeyPairGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayOutputStream;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.interfaces.ECPrivateKey;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Compares how long parsing a public key and verifying a release signature take on the device for
+ * each supported key type, and checks that every key type verifies its own signatures and rejects
+ * those of another key. The median times are logged under the "CodePushBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class CodePushSignatureVerifierBenchmark {
+    private static final String TAG = "CodePushBenchmark";
+    private static final String CONTENT_HASH = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    private static final int WARMUP_ITERATIONS = 20;
+    private static final int ITERATIONS = 200;
+    // An X.509 Ed25519 public key is this fixed prefix followed by the 32 bytes of the key.
+    private static final byte[] ED25519_KEY_PREFIX = { 0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00 };
+
+    private static class SigningKey {
+        final String publicKey;
+        final JWSSigner signer;
+        final JWSAlgorithm algorithm;
+
+        SigningKey(String publicKey, JWSSigner signer, JWSAlgorithm algorithm) {
+            this.publicKey = publicKey;
+            this.signer = signer;
+            this.algorithm = algorithm;
+        }
+
+        String sign() throws Exception {
+            SignedJWT jwt = new SignedJWT(new JWSHeader(algorithm),
+                    new JWTClaimsSet.Builder().claim("contentHash", CONTENT_HASH).build());
+            jwt.sign(signer);
+            return jwt.serialize();
+        }
+    }
+
+    @Test
+    public void compareKeyTypes() throws Exception {
+        SigningKey rsaKey = createRsaKey();
+        SigningKey ecKey = createEcKey();
+        SigningKey ed25519Key = createEd25519Key();
+
+        benchmark(CodePushSignatureVerifier.KEY_TYPE_RSA, rsaKey, ecKey);
+        benchmark(CodePushSignatureVerifier.KEY_TYPE_EC, ecKey, ed25519Key);
+        benchmark(CodePushSignatureVerifier.KEY_TYPE_ED25519, ed25519Key, rsaKey);
+    }
+
+    private void benchmark(String keyType, SigningKey key, SigningKey otherKey) throws Exception {
+        String jwt = key.sign();
+        CodePushSignatureVerifier verifier = CodePushSignatureVerifier.forPublicKey(key.publicKey);
+        assertEquals(keyType, verifier.getKeyType());
+        assertSame(verifier, CodePushSignatureVerifier.forPublicKey(key.publicKey));
+        Map<String, Object> claims = verifier.verify(jwt);
+        assertNotNull(claims);
+        assertEquals(CONTENT_HASH, claims.get("contentHash"));
+        assertNull(verifier.verify(otherKey.sign()));
+
+        long[] parseNanos = new long[ITERATIONS];
+        long[] verifyNanos = new long[ITERATIONS];
+        for (int i = -WARMUP_ITERATIONS; i < ITERATIONS; i++) {
+            long startTime = System.nanoTime();
+            new CodePushSignatureVerifier(key.publicKey);
+            long parsedTime = System.nanoTime();
+            verifier.verify(jwt);
+            long verifiedTime = System.nanoTime();
+            if (i >= 0) {
+                parseNanos[i] = parsedTime - startTime;
+                verifyNanos[i] = verifiedTime - parsedTime;
+            }
+        }
+
+        Log.i(TAG, keyType + ": parse " + median(parseNanos) / 1000 + "us, verify " + median(verifyNanos) / 1000 + "us");
+    }
+
+    private static long median(long[] values) {
+        long[] sortedValues = values.clone();
+        Arrays.sort(sortedValues);
+        return sortedValues[sortedValues.length / 2];
+    }
+
+    private static SigningKey createRsaKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        KeyPair keyPair = generator.generateKeyPair();
+        return new SigningKey(toPem(keyPair.getPublic().getEncoded()), new RSASSASigner(keyPair.getPrivate()), JWSAlgorithm.RS256);
+    }
+
+    private static SigningKey createEcKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair keyPair = generator.generateKeyPair();
+        return new SigningKey(toPem(keyPair.getPublic().getEncoded()),
+                new ECDSASigner((ECPrivateKey) keyPair.getPrivate()), JWSAlgorithm.ES256);
+    }
+
+    private static SigningKey createEd25519Key() throws Exception {
+        OctetKeyPair keyPair = new OctetKeyPairGenerator(Curve.Ed25519).generate();
+        ByteArrayOutputStream encodedKey = new ByteArrayOutputStream();
+        encodedKey.write(ED25519_KEY_PREFIX);
+        encodedKey.write(keyPair.getDecodedX());
+        return new SigningKey(toPem(encodedKey.toByteArray()), new Ed25519Signer(keyPair), JWSAlgorithm.EdDSA);
+    }
+
+    private static String toPem(byte[] encodedKey) {
+        return "-----BEGIN PUBLIC KEY-----\n" + Base64.encodeToString(encodedKey, Base64.DEFAULT) + "-----END PUBLIC KEY-----";
+    }
+}
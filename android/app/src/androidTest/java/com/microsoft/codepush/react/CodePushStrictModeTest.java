@@ -0,0 +1,141 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.os.StrictMode;
+import android.os.strictmode.Violation;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.SdkSuppress;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.facebook.react.bridge.Callback;
+import com.facebook.react.bridge.JavaOnlyMap;
+import com.facebook.react.bridge.PromiseImpl;
+import com.facebook.react.bridge.ReactApplicationContext;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the CodePush entry points that are called on the main thread - the constructor,
+ * getJSBundleFile, the pending update check of a restart and the one of onHostPause after an
+ * update was installed for the next suspend - on a real CodePush instance and its native module,
+ * under a StrictMode policy that records every disk read and write.
+ */
+@RunWith(AndroidJUnit4.class)
+@SdkSuppress(minSdkVersion = 28) // StrictMode penalty listeners
+public class CodePushStrictModeTest {
+    private static final String PACKAGE_HASH = "0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef";
+    // Long enough for the restart scheduled by onHostPause to never run during the test.
+    private static final int MINIMUM_BACKGROUND_DURATION = 3600;
+
+    private final Context mContext = InstrumentationRegistry.getInstrumentation().getTargetContext();
+    private final List<Violation> mViolations = new CopyOnWriteArrayList<>();
+    private CodePush mCodePush;
+
+    @Before
+    public void setUp() {
+        CodePush.setUsingTestConfiguration(true);
+    }
+
+    @After
+    public void tearDown() {
+        if (mCodePush != null) {
+            mCodePush.clearUpdates();
+        }
+
+        CodePush.setUsingTestConfiguration(false);
+    }
+
+    @Test
+    public void entryPointsDoNoDiskIoOnMainThread() throws InterruptedException {
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                mCodePush = new CodePush("deployment-key", mContext);
+                CodePush.getJSBundleFile();
+                mCodePush.clearDebugCacheIfNeeded(false);
+                mCodePush.initializeUpdateAfterRestart();
+            }
+        });
+        mCodePush.awaitPendingStateTasks();
+
+        final ReactApplicationContext reactContext = new ReactApplicationContext(mContext);
+        final CodePushNativeModule codePushModule = (CodePushNativeModule) mCodePush.createNativeModules(reactContext).get(0);
+
+        // Without a pending update, this restart stops at the pending update check.
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                codePushModule.restartApp(true, createPromise(new CountDownLatch(1)));
+            }
+        });
+
+        CountDownLatch installed = new CountDownLatch(1);
+        JavaOnlyMap updatePackage = new JavaOnlyMap();
+        updatePackage.putString(CodePushConstants.PACKAGE_HASH_KEY, PACKAGE_HASH);
+        codePushModule.installUpdate(updatePackage, CodePushInstallMode.ON_NEXT_SUSPEND.getValue(),
+                MINIMUM_BACKGROUND_DURATION, createPromise(installed));
+        assertTrue("The update was not installed", installed.await(10, TimeUnit.SECONDS));
+
+        // onHostPause checks the pending update and schedules the restart, the resume cancels it again.
+        runOnMainThread(new Runnable() {
+            @Override
+            public void run() {
+                reactContext.onHostResume(null);
+                reactContext.onHostPause();
+                reactContext.onHostResume(null);
+            }
+        });
+
+        assertTrue("Disk I/O on the main thread: " + mViolations, mViolations.isEmpty());
+    }
+
+    private void runOnMainThread(final Runnable entryPoints) {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                StrictMode.ThreadPolicy previousPolicy = StrictMode.getThreadPolicy();
+                StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                        .detectDiskReads()
+                        .detectDiskWrites()
+                        .penaltyListener(new Executor() {
+                            @Override
+                            public void execute(Runnable command) {
+                                command.run();
+                            }
+                        }, new StrictMode.OnThreadViolationListener() {
+                            @Override
+                            public void onThreadViolation(Violation violation) {
+                                mViolations.add(violation);
+                            }
+                        })
+                        .build());
+                try {
+                    entryPoints.run();
+                } finally {
+                    StrictMode.setThreadPolicy(previousPolicy);
+                }
+            }
+        });
+    }
+
+    private static PromiseImpl createPromise(final CountDownLatch resolved) {
+        return new PromiseImpl(new Callback() {
+            @Override
+            public void invoke(Object... args) {
+                resolved.countDown();
+            }
+        }, null);
+    }
+}
@@ -1,6 +1,8 @@
 package com.microsoft.codepush.react;
 
 import java.io.*;
+import io.sigpipe.jbsdiff.Diff;
+import io.sigpipe.jbsdiff.InvalidAlgorithmException;
 import io.sigpipe.jbsdiff.Patch;
 import io.sigpipe.jbsdiff.InvalidHeaderException;
 import org.apache.commons.compress.compressors.CompressorException;
@@ -15,10 +17,13 @@ public class BsPatch {
     }
     
     public static void patch(File oldFile, File patchFile, File newFile) throws IOException {
+        // Read old file
+        patch(readFile(oldFile), patchFile, newFile);
+    }
+
+    public static void patch(byte[] oldBytes, File patchFile, File newFile) throws IOException {
+        long traceStart = CodePushTrace.begin();
         try {
-            // Read old file
-            byte[] oldBytes = readFile(oldFile);
-            
             // Read patch file  
             byte[] patchBytes = readFile(patchFile);
             
@@ -28,9 +33,19 @@ public class BsPatch {
             }
         } catch (CompressorException | InvalidHeaderException e) {
             throw new IOException("Failed to apply bsdiff patch", e);
+        } finally {
+            CodePushTrace.end("BsPatch.patch", traceStart, "file", newFile);
         }
     }
     
+    public static void diff(File oldFile, File newFile, File patchFile) throws IOException {
+        try (FileOutputStream patchStream = new FileOutputStream(patchFile)) {
+            Diff.diff(readFile(oldFile), readFile(newFile), patchStream);
+        } catch (CompressorException | InvalidAlgorithmException e) {
+            throw new IOException("Failed to create bsdiff patch", e);
+        }
+    }
+
     private static byte[] readFile(File file) throws IOException {
         try (FileInputStream fis = new FileInputStream(file)) {
             byte[] bytes = new byte[(int) file.length()];
@@ -19,6 +19,8 @@ import org.json.JSONObject;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 public class CodePush implements ReactPackage {
     private static final Object LOCK = new Object();
@@ -34,17 +36,27 @@ public class CodePush implements ReactPackage {
         return mCurrentInstance;
     }
 
-    private static boolean sIsRunningBinaryVersion = false;
-    private static boolean sNeedToReportRollback = false;
+    private static volatile boolean sIsRunningBinaryVersion = false;
+    private static volatile boolean sNeedToReportRollback = false;
     private static boolean sTestConfigurationFlag = false;
     private static String sAppVersion = null;
 
-    private boolean mDidUpdate = false;
+    private volatile boolean mDidUpdate = false;
+    private volatile boolean mIsUpdateAfterRestartInitialized = false;
 
     private String mAssetsBundleFileName;
+    private String mBinaryIdentity;
 
     // Helper classes.
     private CodePushUpdateManager mUpdateManager;
+    private final CodePushStateService mStateService = new CodePushStateService();
+    private final Future<Void> mBootRecordCheck;
+    private CodePushScheduler mScheduler;
+    private CodePushReloader mReloader;
+    private long mProgressMinBytes;
+    private long mProgressMinIntervalMs;
+    private boolean mIsBundleWarmupEnabled;
+    private boolean mIsStatusReportMetricsEnabled;
     private CodePushTelemetryManager mTelemetryManager;
     private SettingsManager mSettingsManager;
 
@@ -74,7 +86,9 @@ public class CodePush implements ReactPackage {
     private CodePush(String deploymentKey, Context context, boolean isDebugMode) {
         mContext = context.getApplicationContext();
 
-        mUpdateManager = new CodePushUpdateManager(context.getFilesDir().getAbsolutePath());
+        // Same folder as getFilesDir(), which would check that the folder exists on the calling thread.
+        String filesDirectory = new File(mContext.getApplicationInfo().dataDir, "files").getAbsolutePath();
+        mUpdateManager = new CodePushUpdateManager(filesDirectory, new CodePushBinaryAssetSource(mContext));
         mTelemetryManager = new CodePushTelemetryManager(mContext);
         mDeploymentKey = deploymentKey;
         mIsDebugMode = isDebugMode;
@@ -103,6 +117,41 @@ public class CodePush implements ReactPackage {
         String baseHashFromStrings = getCustomPropertyFromStringsIfExist("BaseHash");
         if (baseHashFromStrings != null) mBaseHash = baseHashFromStrings;
 
+        String reverseDeltaRollbackFromStrings = getCustomPropertyFromStringsIfExist("ReverseDeltaRollback");
+        mUpdateManager.setReverseDeltaRollbackEnabled(Boolean.parseBoolean(reverseDeltaRollbackFromStrings));
+
+        mScheduler = new CodePushScheduler((int) getLongPropertyFromStringsIfExist("IoThreadCount", CodePushScheduler.DEFAULT_IO_THREAD_COUNT));
+        mUpdateManager.setScheduler(mScheduler);
+        mScheduler.execute(CodePushScheduler.Lane.IO, new Runnable() {
+            @Override
+            public void run() {
+                // Packages an install or rollback left behind when the process died before deleting them.
+                mUpdateManager.removeUnreferencedPackages();
+            }
+        });
+        mReloader = new CodePushReloader(mContext);
+        mProgressMinBytes = getLongPropertyFromStringsIfExist("ProgressMinBytes", DownloadProgress.DEFAULT_MIN_BYTES);
+        mProgressMinIntervalMs = getLongPropertyFromStringsIfExist("ProgressMinIntervalMs", DownloadProgress.DEFAULT_MIN_INTERVAL_MS);
+        mIsBundleWarmupEnabled = !"false".equalsIgnoreCase(getCustomPropertyFromStringsIfExist("BundleWarmup"));
+        mIsStatusReportMetricsEnabled = Boolean.parseBoolean(getCustomPropertyFromStringsIfExist("StatusReportMetrics"));
+        CodePushTrace.setEnabled(Boolean.parseBoolean(getCustomPropertyFromStringsIfExist("Tracing")));
+        CodePushLog.setLevel(CodePushLog.parseLevel(getCustomPropertyFromStringsIfExist("LogLevel"), CodePushLog.INFO));
+
+        mBootRecordCheck = mStateService.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                checkBootRecord();
+                return null;
+            }
+        });
+        mStateService.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSettingsManager.preload();
+                // Caches the status file, so that isFirstRunSync can be answered from memory.
+                mUpdateManager.getCurrentPackageInfo();
+            }
+        });
         // ignore liveReload when CodePush is initializing so that unneccessary cache could be cleared
         clearDebugCacheIfNeeded(false);
         initializeUpdateAfterRestart();
@@ -147,6 +196,20 @@ public class CodePush implements ReactPackage {
         return publicKey;
     }
 
+    private long getLongPropertyFromStringsIfExist(String propertyName, long defaultValue) {
+        String property = getCustomPropertyFromStringsIfExist(propertyName);
+        if (property == null) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(property.trim());
+        } catch (NumberFormatException e) {
+            CodePushUtils.log("Ignoring invalid CodePush" + propertyName + " " + property);
+            return defaultValue;
+        }
+    }
+
     private String getCustomPropertyFromStringsIfExist(String propertyName) {
         String property;
       
@@ -166,16 +229,54 @@ public class CodePush implements ReactPackage {
         return null;
     }
 
-    public void clearDebugCacheIfNeeded(boolean isLiveReloadEnabled) {
+    public void clearDebugCacheIfNeeded(final boolean isLiveReloadEnabled) {
         // for checking if we use LiveReload mode. In this case we should not remove ReactNativeDevBundle.js file
         // because we get error with trying to get this after reloading. Issue: https://github.com/microsoft/react-native-code-push/issues/1272
-        if (mIsDebugMode && mSettingsManager.isPendingUpdate(null) && !isLiveReloadEnabled) {
-            // This needs to be kept in sync with https://github.com/facebook/react-native/blob/master/ReactAndroid/src/main/java/com/facebook/react/devsupport/DevSupportManager.java#L78
-            File cachedDevBundle = new File(mContext.getFilesDir(), "ReactNativeDevBundle.js");
-            if (cachedDevBundle.exists()) {
-                cachedDevBundle.delete();
-            }
+        if (!mIsDebugMode || isLiveReloadEnabled) {
+            return;
         }
+
+        mStateService.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mSettingsManager.isPendingUpdate(null)) {
+                    // This needs to be kept in sync with https://github.com/facebook/react-native/blob/master/ReactAndroid/src/main/java/com/facebook/react/devsupport/DevSupportManager.java#L78
+                    File cachedDevBundle = new File(mContext.getFilesDir(), "ReactNativeDevBundle.js");
+                    if (cachedDevBundle.exists()) {
+                        cachedDevBundle.delete();
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Waits for the state work queued by the constructor and the restart paths, e.g. the rollback
+     * check after a restart. Must not be called on the main thread.
+     */
+    void awaitPendingStateTasks() {
+        mStateService.awaitPendingTasks();
+    }
+
+    CodePushScheduler getScheduler() {
+        return mScheduler;
+    }
+
+    boolean isBundleWarmupEnabled() {
+        return mIsBundleWarmupEnabled;
+    }
+
+    boolean isStatusReportMetricsEnabled() {
+        return mIsStatusReportMetricsEnabled;
+    }
+
+    CodePushReloader getReloader() {
+        return mReloader;
+    }
+
+    // Creates the progress of a new download, reporting to callback at the configured rate.
+    DownloadProgress createDownloadProgress(DownloadProgressCallback callback) {
+        return new DownloadProgress(callback, mProgressMinBytes, mProgressMinIntervalMs);
     }
 
     public boolean didUpdate() {
@@ -245,10 +346,51 @@ public class CodePush implements ReactPackage {
         return mCurrentInstance.getJSBundleFileInternal(assetsBundleFileName);
     }
 
-    public String getJSBundleFileInternal(String assetsBundleFileName) {
+    public String getJSBundleFileInternal(final String assetsBundleFileName) {
         this.mAssetsBundleFileName = assetsBundleFileName;
+        // Fast path: a confirmed package can not be rolled back by the checks queued on the state
+        // thread, so its boot record is served on the calling thread. This only waits for the boot
+        // record check, which is the first task queued on the state thread.
+        mStateService.await(mBootRecordCheck);
+        CodePushBootRecord bootRecord = mUpdateManager.getBootRecordSnapshot();
+        if (bootRecord != null && bootRecord.isConfirmed && bootRecord.bundleFileName.equals(assetsBundleFileName)) {
+            CodePushUtils.logBundleUrl(bootRecord.bundlePath);
+            sIsRunningBinaryVersion = false;
+            return bootRecord.bundlePath;
+        }
+
+        // Otherwise resolved on the state thread, after any queued rollback check.
+        return mStateService.call(new Callable<String>() {
+            @Override
+            public String call() {
+                return resolveJSBundleFile(assetsBundleFileName);
+            }
+        });
+    }
+
+    // Reads the boot record into the update manager's snapshot, dropping it if it was not written for
+    // this binary or its bundle is gone, so that the snapshot can be used without touching the disk.
+    private void checkBootRecord() {
+        CodePushBootRecord bootRecord = mUpdateManager.readBootRecord();
+        if (bootRecord != null && !bootRecord.isValidFor(getBinaryIdentity(),
+                isUsingTestConfiguration() ? null : sAppVersion, bootRecord.bundleFileName)) {
+            mUpdateManager.deleteBootRecord();
+        }
+    }
+
+    private String resolveJSBundleFile(String assetsBundleFileName) {
         String binaryJsBundleUrl = CodePushConstants.ASSETS_BUNDLE_PREFIX + assetsBundleFileName;
 
+        // The boot record of a package that is not confirmed yet still applies once the rollback
+        // check has run, as long as the APK it was written for is installed.
+        CodePushBootRecord bootRecord = mUpdateManager.readBootRecord();
+        if (bootRecord != null && bootRecord.isValidFor(getBinaryIdentity(),
+                isUsingTestConfiguration() ? null : sAppVersion, assetsBundleFileName)) {
+            CodePushUtils.logBundleUrl(bootRecord.bundlePath);
+            sIsRunningBinaryVersion = false;
+            return bootRecord.bundlePath;
+        }
+
         String packageFilePath = null;
         try {
             packageFilePath = mUpdateManager.getCurrentPackageBundlePath(this.mAssetsBundleFileName);
@@ -267,6 +409,8 @@ public class CodePush implements ReactPackage {
 
         JSONObject packageMetadata = this.mUpdateManager.getCurrentPackage();
         if (isPackageBundleLatest(packageMetadata)) {
+            mUpdateManager.writeBootRecord(new CodePushBootRecord(getBinaryIdentity(), sAppVersion, assetsBundleFileName, packageFilePath,
+                    mSettingsManager.getPendingUpdate() == null));
             CodePushUtils.logBundleUrl(packageFilePath);
             sIsRunningBinaryVersion = false;
             return packageFilePath;
@@ -283,6 +427,34 @@ public class CodePush implements ReactPackage {
         }
     }
 
+    /**
+     * Writes the boot record for a newly installed package, so that the restart which loads it
+     * already takes the fast path in getJSBundleFileInternal, and again once it is confirmed.
+     */
+    void updateBootRecord() {
+        if (mAssetsBundleFileName == null) {
+            return;
+        }
+
+        String packageFilePath = mUpdateManager.getCurrentPackageBundlePath(mAssetsBundleFileName);
+        JSONObject packageMetadata = mUpdateManager.getCurrentPackage();
+        if (packageFilePath != null && packageMetadata != null && isPackageBundleLatest(packageMetadata)) {
+            mUpdateManager.writeBootRecord(new CodePushBootRecord(getBinaryIdentity(), sAppVersion, mAssetsBundleFileName, packageFilePath,
+                    mSettingsManager.getPendingUpdate() == null));
+        }
+    }
+
+    // Identifies the installed APK by its path and modification time, both of which change whenever
+    // the app is reinstalled or updated, without the resource lookup getBinaryResourcesModifiedTime needs.
+    private String getBinaryIdentity() {
+        if (mBinaryIdentity == null) {
+            String apkPath = mContext.getApplicationInfo().sourceDir;
+            mBinaryIdentity = apkPath + ":" + new File(apkPath).lastModified();
+        }
+
+        return mBinaryIdentity;
+    }
+
     public String getServerUrl() {
         return mServerUrl;
     }
@@ -296,6 +468,27 @@ public class CodePush implements ReactPackage {
     }
 
     void initializeUpdateAfterRestart() {
+        mIsUpdateAfterRestartInitialized = false;
+        mStateService.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    initializeUpdateAfterRestartInternal();
+                } finally {
+                    mIsUpdateAfterRestartInitialized = true;
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns whether the check after the restart has run, i.e. whether {@link #didUpdate()} is final.
+     */
+    boolean isUpdateAfterRestartInitialized() {
+        return mIsUpdateAfterRestartInitialized;
+    }
+
+    private void initializeUpdateAfterRestartInternal() {
         // Reset the state which indicates that
         // the app was just freshly updated.
         mDidUpdate = false;
@@ -409,9 +602,15 @@ public class CodePush implements ReactPackage {
     }
 
     public void clearUpdates() {
-        mUpdateManager.clearUpdates();
-        mSettingsManager.removePendingUpdate();
-        mSettingsManager.removeFailedUpdates();
+        mStateService.call(new Callable<Void>() {
+            @Override
+            public Void call() {
+                mUpdateManager.clearUpdates();
+                mSettingsManager.removePendingUpdate();
+                mSettingsManager.removeFailedUpdates();
+                return null;
+            }
+        });
     }
 
     public static void setReactInstanceHolder(ReactInstanceHolder reactInstanceHolder) {
@@ -0,0 +1,334 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.content.res.AssetManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Read-only view of the files embedded in the binary, addressed by the same relative paths that
+ * update packages use (e.g. "CodePush/index.android.bundle"). The JS bundle is an asset, while the
+ * images and raw files it references were compiled into the app's resources, so paths such as
+ * "CodePush/drawable-mdpi/logo.png" are opened as the resource of that type, name and density.
+ * Files are streamed straight from the APK.
+ *
+ * Resources are read after aapt2 processed them, e.g. crunched PNGs, and an app installed from an
+ * app bundle only has the drawables of the device's density. Every file is therefore checked against
+ * its hash in the build-time manifest while it is read, and a file that does not match throws
+ * {@link CodePushBinaryFileMismatchException} once it has been read to the end.
+ */
+class CodePushBinaryAssetSource {
+    private static final int READ_BUFFER_SIZE = 1024 * 64;
+
+    /**
+     * The resource that a package-relative path in a resource folder was compiled into.
+     */
+    static class ResourceEntry {
+        final String type;
+        final String name;
+        // Density the resource was bundled for, or 0 if its folder has no density qualifier.
+        final int densityDpi;
+
+        ResourceEntry(String type, String name, int densityDpi) {
+            this.type = type;
+            this.name = name;
+            this.densityDpi = densityDpi;
+        }
+    }
+
+    private final Context mContext;
+    private final AssetManager mAssetManager;
+    private final Map<Integer, Resources> mResourcesByDensity = new HashMap<>();
+    private Map<String, String> mFileHashes;
+    private volatile boolean mHasMismatchedFile;
+
+    /**
+     * Passes a file through while hashing it, and throws once the end is reached if the contents
+     * do not match the expected hash.
+     */
+    static class VerifyingInputStream extends FilterInputStream {
+        private final String mRelativeFilePath;
+        private final String mExpectedHash;
+        private final MessageDigest mMessageDigest;
+        private boolean mIsVerified;
+
+        VerifyingInputStream(InputStream inputStream, String relativeFilePath, String expectedHash) {
+            super(inputStream);
+            mRelativeFilePath = relativeFilePath;
+            mExpectedHash = expectedHash;
+            try {
+                mMessageDigest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Should not happen.
+                throw new CodePushUnknownException("Unable to compute hash of binary contents.", e);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int byteRead = super.read();
+            if (byteRead == -1) {
+                verify();
+            } else {
+                mMessageDigest.update((byte) byteRead);
+            }
+
+            return byteRead;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int bytesRead = super.read(buffer, offset, length);
+            if (bytesRead == -1) {
+                verify();
+            } else {
+                mMessageDigest.update(buffer, offset, bytesRead);
+            }
+
+            return bytesRead;
+        }
+
+        @Override
+        public long skip(long byteCount) throws IOException {
+            // Skipped bytes have to be hashed too.
+            byte[] buffer = new byte[(int) Math.min(byteCount, READ_BUFFER_SIZE)];
+            int bytesRead = read(buffer, 0, buffer.length);
+            return Math.max(bytesRead, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void verify() throws IOException {
+            if (mIsVerified) {
+                return;
+            }
+
+            String actualHash = String.format("%064x", new java.math.BigInteger(1, mMessageDigest.digest()));
+            if (!actualHash.equals(mExpectedHash)) {
+                throw onMismatch(new CodePushBinaryFileMismatchException("The binary's copy of " + mRelativeFilePath
+                        + " does not match its hash in the binary's hash manifest. Expected: " + mExpectedHash + ", Actual: " + actualHash));
+            }
+
+            mIsVerified = true;
+        }
+
+        // Called before the mismatch is thrown.
+        CodePushBinaryFileMismatchException onMismatch(CodePushBinaryFileMismatchException e) {
+            return e;
+        }
+    }
+
+    CodePushBinaryAssetSource(Context context) {
+        mContext = context;
+        mAssetManager = context.getAssets();
+    }
+
+    static String getAssetPath(String relativeFilePath) {
+        String packagePrefix = CodePushConstants.CODE_PUSH_FOLDER_PREFIX + "/";
+        return relativeFilePath.startsWith(packagePrefix)
+                ? relativeFilePath.substring(packagePrefix.length())
+                : relativeFilePath;
+    }
+
+    /**
+     * Returns the resource for a path in a "drawable" or "raw" folder, e.g. the mdpi drawable
+     * "logo" for "CodePush/drawable-mdpi/logo.png", or null if the path is an asset.
+     */
+    static ResourceEntry getResourceEntry(String relativeFilePath) {
+        String[] pathComponents = getAssetPath(relativeFilePath).split("/");
+        if (pathComponents.length != 2) {
+            return null;
+        }
+
+        String[] qualifiers = pathComponents[0].split("-");
+        String type = qualifiers[0];
+        if (!type.equals("drawable") && !type.equals("raw")) {
+            return null;
+        }
+
+        int densityDpi = 0;
+        for (int i = 1; i < qualifiers.length; i++) {
+            int qualifierDensityDpi = getDensityDpi(qualifiers[i]);
+            if (qualifierDensityDpi > 0) {
+                densityDpi = qualifierDensityDpi;
+            }
+        }
+
+        String fileName = pathComponents[1];
+        int extensionIndex = fileName.indexOf('.');
+        return new ResourceEntry(type, extensionIndex > 0 ? fileName.substring(0, extensionIndex) : fileName, densityDpi);
+    }
+
+    private static int getDensityDpi(String qualifier) {
+        switch (qualifier) {
+            case "ldpi":
+                return 120;
+            case "mdpi":
+                return 160;
+            case "hdpi":
+                return 240;
+            case "xhdpi":
+                return 320;
+            case "xxhdpi":
+                return 480;
+            case "xxxhdpi":
+                return 640;
+            default:
+                return 0;
+        }
+    }
+
+    // Per-file hashes generated at build time by "codepush.gradle", keyed by package-relative path.
+    // Loaded on first use; empty if the binary was built without them.
+    synchronized Map<String, String> getFileHashes() {
+        if (mFileHashes == null) {
+            try {
+                mFileHashes = Collections.unmodifiableMap(CodePushUpdateUtils.parseHashManifest(
+                        CodePushUtils.getStringFromInputStream(mAssetManager.open(CodePushConstants.CODE_PUSH_HASH_MANIFEST_FILE_NAME))));
+            } catch (IOException e) {
+                CodePushUtils.log("Unable to read the per-file hashes of the binary's bundled resources - \"codepush.gradle\" may have not been added to the build definition.");
+                mFileHashes = Collections.emptyMap();
+            }
+        }
+
+        return mFileHashes;
+    }
+
+    /**
+     * Returns whether every file read from the binary so far matched its hash, i.e. whether the
+     * binary can still be used as the base of a diff.
+     */
+    boolean isUsableAsBase() {
+        return !mHasMismatchedFile;
+    }
+
+    /**
+     * Opens the binary's copy of the file, which is verified against the hash manifest as it is read.
+     */
+    InputStream open(String relativeFilePath) throws IOException {
+        InputStream inputStream = openUnverified(relativeFilePath);
+        String expectedHash = getFileHashes().get(relativeFilePath);
+        if (expectedHash == null) {
+            inputStream.close();
+            throw recordMismatch(new CodePushBinaryFileMismatchException("The binary's hash manifest has no hash for " + relativeFilePath + "."));
+        }
+
+        return new VerifyingInputStream(inputStream, relativeFilePath, expectedHash) {
+            @Override
+            CodePushBinaryFileMismatchException onMismatch(CodePushBinaryFileMismatchException e) {
+                return recordMismatch(e);
+            }
+        };
+    }
+
+    private CodePushBinaryFileMismatchException recordMismatch(CodePushBinaryFileMismatchException e) {
+        if (!mHasMismatchedFile) {
+            mHasMismatchedFile = true;
+            CodePushUtils.log(e.getMessage() + " The binary is no longer used as the base of diff updates.");
+        }
+
+        return e;
+    }
+
+    private InputStream openUnverified(String relativeFilePath) throws IOException {
+        ResourceEntry resourceEntry = getResourceEntry(relativeFilePath);
+        if (resourceEntry == null) {
+            return mAssetManager.open(getAssetPath(relativeFilePath), AssetManager.ACCESS_STREAMING);
+        }
+
+        Resources resources = getResourcesForDensity(resourceEntry.densityDpi);
+        int resourceId = resources.getIdentifier(resourceEntry.name, resourceEntry.type, mContext.getPackageName());
+        if (resourceId == 0) {
+            throw new FileNotFoundException("No " + resourceEntry.type + " resource named " + resourceEntry.name + " for " + relativeFilePath);
+        }
+
+        try {
+            return resources.openRawResource(resourceId);
+        } catch (Resources.NotFoundException e) {
+            throw new FileNotFoundException("Unable to open the resource for " + relativeFilePath);
+        }
+    }
+
+    /**
+     * Copies the binary's files that are not in the package folder yet, except the excluded
+     * paths, so that a package built against the binary contains the files it did not change.
+     * Throws {@link CodePushBinaryFileMismatchException} if a file does not match its hash, and
+     * returns the hashes of the copied files otherwise.
+     */
+    Map<String, String> copyMissingFiles(String packageFolderPath, Set<String> excludedFilePaths) throws IOException {
+        Map<String, String> copiedFileHashes = new HashMap<>();
+        for (Map.Entry<String, String> fileHash : getFileHashes().entrySet()) {
+            String relativeFilePath = fileHash.getKey();
+            File packageFile = new File(packageFolderPath, relativeFilePath);
+            if (excludedFilePaths.contains(relativeFilePath) || packageFile.exists()) {
+                continue;
+            }
+
+            try {
+                FileUtils.copyStreamToFile(open(relativeFilePath), packageFile);
+            } catch (CodePushBinaryFileMismatchException e) {
+                packageFile.delete();
+                throw e;
+            }
+
+            copiedFileHashes.put(relativeFilePath, fileHash.getValue());
+        }
+
+        CodePushLog.debug("Copied {} unchanged files from the binary to {}", copiedFileHashes.size(), packageFolderPath);
+        return copiedFileHashes;
+    }
+
+    // Resources are looked up for the density of the folder they were bundled in rather than for the
+    // device's density, so that the bytes match the per-file hash of that path if that density is
+    // installed at all.
+    private synchronized Resources getResourcesForDensity(int densityDpi) {
+        Resources resources = mResourcesByDensity.get(densityDpi);
+        if (resources == null) {
+            if (densityDpi == 0) {
+                resources = mContext.getResources();
+            } else {
+                Configuration configuration = new Configuration(mContext.getResources().getConfiguration());
+                configuration.densityDpi = densityDpi;
+                resources = mContext.createConfigurationContext(configuration).getResources();
+            }
+
+            mResourcesByDensity.put(densityDpi, resources);
+        }
+
+        return resources;
+    }
+
+    // bspatch needs the whole base file in memory, so the asset is read in one sequential pass.
+    byte[] readFile(String relativeFilePath) throws IOException {
+        InputStream inputStream = null;
+        try {
+            inputStream = open(relativeFilePath);
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(Math.max(inputStream.available(), READ_BUFFER_SIZE));
+            byte[] buffer = new byte[READ_BUFFER_SIZE];
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+
+            return outputStream.toByteArray();
+        } finally {
+            if (inputStream != null) inputStream.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.microsoft.codepush.react;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a file read from the binary does not match its hash in the binary's per-file hash
+ * manifest, e.g. a PNG that aapt2 crunched or a drawable of another density than the one the
+ * manifest was generated from. The binary can then not serve as the base of a diff, which says
+ * nothing about the update itself, so it is not recorded as a failed update.
+ */
+class CodePushBinaryFileMismatchException extends IOException {
+    CodePushBinaryFileMismatchException(String message) {
+        super(message);
+    }
+}
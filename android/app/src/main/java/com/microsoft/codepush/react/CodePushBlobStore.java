@@ -0,0 +1,172 @@
+package com.microsoft.codepush.react;
+
+import android.os.Build;
+import android.system.ErrnoException;
+import android.system.Os;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Content-addressed store shared by all packages. Every distinct file is kept once, as
+ * "blobs/<sha256>", and package folders hold hard links to it, so a file that does not change
+ * between releases takes disk space once and is carried over to the next package without copying.
+ *
+ * The link count of a blob is its reference count: a blob that is only linked from the store
+ * belongs to no package anymore and is removed by {@link #collectGarbage()}. Files in package
+ * folders may therefore be shared and must be replaced rather than rewritten in place.
+ *
+ * Hard links require API 21, older devices keep plain copies of every file.
+ */
+class CodePushBlobStore {
+    private final String mBlobsFolderPath;
+
+    CodePushBlobStore(String blobsFolderPath) {
+        mBlobsFolderPath = blobsFolderPath;
+    }
+
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP;
+    }
+
+    /**
+     * Recreates the contents of sourceFolderPath in destinationFolderPath as links to the same files,
+     * falling back to copies where links are not possible. The package metadata file is always
+     * copied, since it is rewritten when the package is saved.
+     */
+    static void linkDirectoryContents(String sourceFolderPath, String destinationFolderPath) throws IOException {
+        File sourceFolder = new File(sourceFolderPath);
+        File destinationFolder = new File(destinationFolderPath);
+        if (!destinationFolder.exists()) {
+            destinationFolder.mkdirs();
+        }
+
+        for (File sourceFile : sourceFolder.listFiles()) {
+            File destinationFile = new File(destinationFolder, sourceFile.getName());
+            if (sourceFile.isDirectory()) {
+                linkDirectoryContents(sourceFile.getAbsolutePath(), destinationFile.getAbsolutePath());
+            } else {
+                destinationFile.delete();
+                if (sourceFile.getName().equals(CodePushConstants.PACKAGE_FILE_NAME) || !link(sourceFile, destinationFile)) {
+                    FileUtils.copyStreamToFile(new FileInputStream(sourceFile), destinationFile);
+                }
+            }
+        }
+    }
+
+    // Links newFile to existingFile, or copies it where links are not possible.
+    static void linkFile(File existingFile, File newFile) throws IOException {
+        newFile.delete();
+        if (!link(existingFile, newFile)) {
+            FileUtils.copyStreamToFile(new FileInputStream(existingFile), newFile);
+        }
+    }
+
+    /**
+     * Moves the files of a package into the store and replaces them with links to their blobs. Files
+     * that already share their contents with another link come from a stored package and are skipped,
+     * so only files that changed in this package are hashed.
+     */
+    void addPackage(String packageFolderPath) {
+        if (!isSupported()) {
+            return;
+        }
+
+        new File(mBlobsFolderPath).mkdirs();
+        int storedFileCount = addFolder(new File(packageFolderPath));
+        CodePushUtils.log("Added " + storedFileCount + " new files of " + packageFolderPath + " to the blob store.");
+    }
+
+    /**
+     * Deletes the blobs that are no longer linked from any package.
+     */
+    void collectGarbage() {
+        File[] blobFiles = new File(mBlobsFolderPath).listFiles();
+        if (!isSupported() || blobFiles == null) {
+            return;
+        }
+
+        int deletedBlobCount = 0;
+        long freedBytes = 0;
+        for (File blobFile : blobFiles) {
+            if (getLinkCount(blobFile) == 1) {
+                long blobSize = blobFile.length();
+                if (blobFile.delete()) {
+                    deletedBlobCount++;
+                    freedBytes += blobSize;
+                }
+            }
+        }
+
+        if (deletedBlobCount > 0) {
+            CodePushUtils.log("Deleted " + deletedBlobCount + " unreferenced blobs, freeing " + freedBytes + " bytes.");
+        }
+    }
+
+    private int addFolder(File folder) {
+        int storedFileCount = 0;
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return storedFileCount;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                storedFileCount += addFolder(file);
+            } else if (!file.getName().equals(CodePushConstants.PACKAGE_FILE_NAME) && getLinkCount(file) == 1) {
+                if (addFile(file)) {
+                    storedFileCount++;
+                }
+            }
+        }
+
+        return storedFileCount;
+    }
+
+    // Returns whether the file was stored as a new blob.
+    private boolean addFile(File file) {
+        String fileHash;
+        try {
+            fileHash = CodePushUpdateUtils.computeHash(new FileInputStream(file));
+        } catch (IOException e) {
+            CodePushUtils.log("Unable to add " + file.getAbsolutePath() + " to the blob store: " + e.getMessage());
+            return false;
+        }
+
+        File blobFile = new File(mBlobsFolderPath, fileHash);
+        if (!blobFile.exists()) {
+            return link(file, blobFile);
+        }
+
+        // Identical contents are already stored, swap the copy for a link to the blob.
+        File linkFile = new File(file.getAbsolutePath() + ".link");
+        if (link(blobFile, linkFile) && !linkFile.renameTo(file)) {
+            linkFile.delete();
+        }
+
+        return false;
+    }
+
+    private static boolean link(File existingFile, File newFile) {
+        if (!isSupported()) {
+            return false;
+        }
+
+        try {
+            Os.link(existingFile.getAbsolutePath(), newFile.getAbsolutePath());
+            return true;
+        } catch (ErrnoException e) {
+            CodePushUtils.log("Unable to link " + newFile.getAbsolutePath() + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static long getLinkCount(File file) {
+        try {
+            return Os.stat(file.getAbsolutePath()).st_nlink;
+        } catch (ErrnoException e) {
+            return -1;
+        }
+    }
+}
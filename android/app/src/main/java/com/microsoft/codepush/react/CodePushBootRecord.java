@@ -0,0 +1,136 @@
+package com.microsoft.codepush.react;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * The resolved JS bundle of the current package, written whenever the current package changes so
+ * that app startup can find the bundle with a single small read instead of parsing the status and
+ * package metadata files.
+ *
+ * A record is confirmed once its package has been confirmed with notifyApplicationReady. Only then
+ * can it be used without waiting for the rollback check after a restart, since an unconfirmed
+ * package may be rolled back by it.
+ *
+ * Layout: magic, binary identity, app version (empty if it was unknown), bundle file name, bundle path,
+ * confirmed flag, followed by a CRC32 of everything before it. Strings are modified UTF-8 as written by DataOutputStream.
+ */
+class CodePushBootRecord {
+    private static final int MAGIC = 0x43504232; // "CPB2"
+    // Anything larger is not a boot record.
+    private static final int MAX_SIZE = 8 * 1024;
+
+    final String binaryIdentity;
+    // Null if the app version was unknown when the record was written.
+    final String appVersion;
+    final String bundleFileName;
+    final String bundlePath;
+    final boolean isConfirmed;
+
+    CodePushBootRecord(String binaryIdentity, String appVersion, String bundleFileName, String bundlePath, boolean isConfirmed) {
+        this.binaryIdentity = binaryIdentity;
+        this.appVersion = appVersion;
+        this.bundleFileName = bundleFileName;
+        this.bundlePath = bundlePath;
+        this.isConfirmed = isConfirmed;
+    }
+
+    /**
+     * Returns whether the record was written for this binary and bundle name, and its bundle still exists.
+     * appVersion is null when the app version should not be checked, otherwise a record written
+     * without an app version is never valid.
+     */
+    boolean isValidFor(String binaryIdentity, String appVersion, String bundleFileName) {
+        return this.binaryIdentity.equals(binaryIdentity)
+                && (appVersion == null || appVersion.equals(this.appVersion))
+                && this.bundleFileName.equals(bundleFileName)
+                && new File(bundlePath).isFile();
+    }
+
+    // Returns null if there is no record or it is damaged.
+    static CodePushBootRecord read(String filePath) {
+        File file = new File(filePath);
+        long fileSize = file.length();
+        if (fileSize <= 8 || fileSize > MAX_SIZE) {
+            return null;
+        }
+
+        byte[] content = new byte[(int) fileSize];
+        FileInputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            int offset = 0;
+            int bytesRead;
+            while (offset < content.length && (bytesRead = inputStream.read(content, offset, content.length - offset)) > 0) {
+                offset += bytesRead;
+            }
+
+            if (offset != content.length) {
+                return null;
+            }
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                if (inputStream != null) inputStream.close();
+            } catch (IOException e) {
+                CodePushUtils.log("Unable to close boot record: " + e.getMessage());
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(content, 0, content.length - 8);
+        DataInputStream dataStream = new DataInputStream(new ByteArrayInputStream(content));
+        try {
+            if (dataStream.readInt() != MAGIC) {
+                return null;
+            }
+
+            String binaryIdentity = dataStream.readUTF();
+            String appVersion = dataStream.readUTF();
+            CodePushBootRecord record = new CodePushBootRecord(binaryIdentity, appVersion.isEmpty() ? null : appVersion,
+                    dataStream.readUTF(), dataStream.readUTF(), dataStream.readBoolean());
+            return dataStream.readLong() == crc.getValue() ? record : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    void write(String filePath) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        DataOutputStream dataStream = new DataOutputStream(content);
+        dataStream.writeInt(MAGIC);
+        dataStream.writeUTF(binaryIdentity);
+        dataStream.writeUTF(appVersion != null ? appVersion : "");
+        dataStream.writeUTF(bundleFileName);
+        dataStream.writeUTF(bundlePath);
+        dataStream.writeBoolean(isConfirmed);
+        dataStream.flush();
+        CRC32 crc = new CRC32();
+        crc.update(content.toByteArray());
+        dataStream.writeLong(crc.getValue());
+        dataStream.flush();
+
+        File targetFile = new File(filePath);
+        File tempFile = new File(filePath + ".tmp");
+        FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            content.writeTo(outputStream);
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if (!tempFile.renameTo(targetFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to move " + tempFile.getAbsolutePath() + " to " + filePath + ".");
+        }
+    }
+}
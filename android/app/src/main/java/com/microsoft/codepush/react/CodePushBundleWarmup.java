@@ -0,0 +1,162 @@
+package com.microsoft.codepush.react;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Reads a freshly installed bundle and the small files of its package once, on the I/O lane, so
+ * that they are in the page cache when the restart loads them instead of being read cold from
+ * flash. The bundle also gets a cheap sanity check of its size and header on the way, which is only
+ * logged since the package contents were verified when it was downloaded.
+ *
+ * A restart does not wait for the warmup unless it has nearly finished. A restart on the main
+ * thread, e.g. from onHostResume, never waits.
+ */
+class CodePushBundleWarmup implements Runnable {
+    // A restart waits for the warmup once this fraction of the bytes has been read.
+    private static final double NEARLY_DONE_FRACTION = 0.75;
+    private static final long MAX_RESTART_WAIT_MS = 250;
+    // Only files up to this size are read besides the bundle, and no more than the asset budget in total.
+    private static final long MAX_ASSET_FILE_BYTES = 256 * 1024;
+    private static final long MAX_ASSET_BYTES = 8 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 128 * 1024;
+    private static final byte[] HERMES_BYTECODE_MAGIC = {
+            (byte) 0xc6, (byte) 0x1f, (byte) 0xbc, (byte) 0x03, (byte) 0xc1, (byte) 0x03, (byte) 0x19, (byte) 0x1f };
+
+    private final String mBundlePath;
+    private final String mPackageFolderPath;
+    private final CountDownLatch mDone = new CountDownLatch(1);
+    private final AtomicLong mTotalBytes = new AtomicLong();
+    private final AtomicLong mReadBytes = new AtomicLong();
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private volatile boolean mIsCancelled = false;
+
+    CodePushBundleWarmup(String bundlePath, String packageFolderPath) {
+        mBundlePath = bundlePath;
+        mPackageFolderPath = packageFolderPath;
+    }
+
+    @Override
+    public void run() {
+        try {
+            File bundleFile = new File(mBundlePath);
+            List<File> assets = getAssets();
+            long totalBytes = bundleFile.length();
+            for (File asset : assets) {
+                totalBytes += asset.length();
+            }
+            mTotalBytes.set(totalBytes);
+
+            checkBundleHeader(bundleFile);
+            readFile(bundleFile);
+            for (File asset : assets) {
+                readFile(asset);
+            }
+        } catch (IOException e) {
+            CodePushUtils.log("Bundle warmup failed: " + e.getMessage());
+        } finally {
+            mDone.countDown();
+        }
+    }
+
+    void cancel() {
+        mIsCancelled = true;
+    }
+
+    /**
+     * Waits a short while for the warmup to finish if most of it is already done. Must not be
+     * called on the main thread.
+     */
+    void awaitIfNearlyDone() {
+        long totalBytes = mTotalBytes.get();
+        if (mDone.getCount() == 0 || totalBytes == 0 || mReadBytes.get() < totalBytes * NEARLY_DONE_FRACTION) {
+            return;
+        }
+
+        try {
+            mDone.await(MAX_RESTART_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // The files of the package besides the bundle that are small enough to be read, up to the asset budget.
+    private List<File> getAssets() {
+        List<File> assets = new ArrayList<>();
+        if (mPackageFolderPath == null) {
+            return assets;
+        }
+
+        long assetBytes = 0;
+        ArrayDeque<File> folders = new ArrayDeque<>();
+        folders.add(new File(mPackageFolderPath));
+        while (!folders.isEmpty()) {
+            File[] files = folders.poll().listFiles();
+            if (files == null) {
+                continue;
+            }
+
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    folders.add(file);
+                } else if (!file.getPath().equals(mBundlePath) && file.length() <= MAX_ASSET_FILE_BYTES
+                        && assetBytes + file.length() <= MAX_ASSET_BYTES) {
+                    assetBytes += file.length();
+                    assets.add(file);
+                }
+            }
+        }
+
+        return assets;
+    }
+
+    private void checkBundleHeader(File bundleFile) throws IOException {
+        if (bundleFile.length() < HERMES_BYTECODE_MAGIC.length) {
+            CodePushUtils.log("Bundle warmup: " + mBundlePath + " is missing or too small (" + bundleFile.length() + " bytes)");
+            return;
+        }
+
+        byte[] header = new byte[HERMES_BYTECODE_MAGIC.length];
+        try (FileInputStream inputStream = new FileInputStream(bundleFile)) {
+            int offset = 0;
+            while (offset < header.length) {
+                int read = inputStream.read(header, offset, header.length - offset);
+                if (read < 0) {
+                    break;
+                }
+                offset += read;
+            }
+        }
+
+        boolean isHermesBytecode = true;
+        for (int i = 0; i < header.length; i++) {
+            isHermesBytecode &= header[i] == HERMES_BYTECODE_MAGIC[i];
+        }
+
+        // A plain JS bundle starts with text, so a zero byte means neither kind of bundle.
+        boolean isText = true;
+        for (byte b : header) {
+            isText &= b != 0;
+        }
+
+        if (!isHermesBytecode && !isText) {
+            CodePushUtils.log("Bundle warmup: " + mBundlePath + " is neither Hermes bytecode nor a JS bundle");
+        }
+    }
+
+    private void readFile(File file) throws IOException {
+        try (FileInputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while (!mIsCancelled && (read = inputStream.read(mBuffer)) >= 0) {
+                mReadBytes.addAndGet(read);
+            }
+        }
+    }
+}
@@ -3,8 +3,11 @@ package com.microsoft.codepush.react;
 public class CodePushConstants {
     public static final String ASSETS_BUNDLE_PREFIX = "assets://";
     public static final String BINARY_MODIFIED_TIME_KEY = "binaryModifiedTime";
+    public static final String BLOBS_FOLDER_NAME = "blobs";
+    public static final String BOOT_RECORD_FILE_NAME = "bootrecord";
     public static final String CODE_PUSH_FOLDER_PREFIX = "CodePush";
     public static final String CODE_PUSH_HASH_FILE_NAME = "CodePushHash";
+    public static final String CODE_PUSH_HASH_MANIFEST_FILE_NAME = "CodePushHashManifest";
     public static final String CODE_PUSH_OLD_HASH_FILE_NAME = "CodePushHash.json";
     public static final String CODE_PUSH_PREFERENCES = "CodePush";
     public static final String CURRENT_PACKAGE_KEY = "currentPackage";
@@ -17,16 +20,27 @@ public class CodePushConstants {
     public static final String FAILED_UPDATES_KEY = "CODE_PUSH_FAILED_UPDATES";
     public static final String PACKAGE_FILE_NAME = "app.json";
     public static final String PACKAGE_HASH_KEY = "packageHash";
+    public static final String PACKAGE_SIZE_KEY = "packageSize";
     public static final String PENDING_UPDATE_HASH_KEY = "hash";
     public static final String PENDING_UPDATE_IS_LOADING_KEY = "isLoading";
     public static final String PENDING_UPDATE_KEY = "CODE_PUSH_PENDING_UPDATE";
+    public static final String PENDING_UPDATE_METRICS_KEY = "CODE_PUSH_PENDING_UPDATE_METRICS";
+    public static final String PENDING_UPDATE_METRICS_SUMMARY_KEY = "summary";
     public static final String PREVIOUS_PACKAGE_KEY = "previousPackage";
     public static final String REACT_NATIVE_LOG_TAG = "ReactNative";
     public static final String RELATIVE_BUNDLE_PATH_KEY = "bundlePath";
+    public static final String REVERSE_DELTA_FOLDER_NAME = "temp_reverse_delta";
+    public static final String STALE_PACKAGES_FOLDER_NAME = "stale_packages";
     public static final String STATUS_FILE = "codepush.json";
+    public static final String STATUS_REPORT_QUEUE_FILE_NAME = "CodePushStatusReports";
+    public static final String TRACES_FOLDER_NAME = "traces";
+    public static final int MAX_TRACE_FILES = 5;
     public static final String UNZIPPED_FOLDER_NAME = "unzipped";
+    public static final String UPDATE_COST_MODEL_FILE_NAME = "costmodel.json";
     public static final String CODE_PUSH_APK_BUILD_TIME_KEY = "CODE_PUSH_APK_BUILD_TIME";
     public static final String BUNDLE_JWT_FILE = ".codepushrelease";
+    public static final String MULTI_PATCH_CHECKPOINT_FILE_NAME = "checkpoint.json";
+    public static final String MULTI_PATCH_FOLDER_NAME = "temp_multi_patch";
     public static final String LATEST_ROLLBACK_INFO_KEY = "LATEST_ROLLBACK_INFO";
     public static final String LATEST_ROLLBACK_PACKAGE_HASH_KEY = "packageHash";
     public static final String LATEST_ROLLBACK_TIME_KEY = "time";
@@ -0,0 +1,48 @@
+package com.microsoft.codepush.react;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Content-hash index of the package a diff update is applied against - either the current package
+ * folder or, when there is none, the files embedded in the binary. Lets the diff manifest refer to
+ * existing files by hash, so renamed or duplicated files are reused instead of downloaded.
+ */
+class CodePushContentIndex {
+    private final String mPackageFolderPath;
+    private final CodePushBinaryAssetSource mBinaryAssetSource;
+    private Map<String, String> mPathsByHash;
+
+    CodePushContentIndex(String packageFolderPath, CodePushBinaryAssetSource binaryAssetSource) {
+        mPackageFolderPath = packageFolderPath;
+        mBinaryAssetSource = binaryAssetSource;
+    }
+
+    // The index is only built when a manifest entry refers to a hash, since it requires
+    // hashing every file of the current package.
+    String getPathForHash(String hash) {
+        if (mPathsByHash == null) {
+            Map<String, String> hashesByPath = mPackageFolderPath != null
+                    ? CodePushUpdateUtils.getFolderFileHashes(mPackageFolderPath)
+                    : mBinaryAssetSource.getFileHashes();
+            mPathsByHash = new HashMap<>();
+            for (Map.Entry<String, String> fileHash : hashesByPath.entrySet()) {
+                mPathsByHash.put(fileHash.getValue(), fileHash.getKey());
+            }
+        }
+
+        return mPathsByHash.get(hash);
+    }
+
+    InputStream open(String relativeFilePath) throws IOException {
+        if (mPackageFolderPath != null) {
+            return new FileInputStream(new File(mPackageFolderPath, relativeFilePath));
+        }
+
+        return mBinaryAssetSource.open(relativeFilePath);
+    }
+}
@@ -0,0 +1,8 @@
+package com.microsoft.codepush.react;
+
+class CodePushDownloadCancelledException extends RuntimeException {
+
+    public CodePushDownloadCancelledException(String packageHash) {
+        super("Download of package " + packageHash + " was cancelled.");
+    }
+}
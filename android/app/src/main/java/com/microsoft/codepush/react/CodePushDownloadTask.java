@@ -0,0 +1,33 @@
+package com.microsoft.codepush.react;
+
+/**
+ * Handle of a running package download. Cancelling it makes the download stop at the next chunk,
+ * patch or patched file, remove everything it has staged so far except the checkpoint of a patch
+ * chain and fail with a {@link CodePushDownloadCancelledException}.
+ */
+class CodePushDownloadTask {
+    private final String mPackageHash;
+    private volatile boolean mIsCancelled = false;
+
+    CodePushDownloadTask(String packageHash) {
+        mPackageHash = packageHash;
+    }
+
+    String getPackageHash() {
+        return mPackageHash;
+    }
+
+    void cancel() {
+        mIsCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mIsCancelled;
+    }
+
+    void throwIfCancelled() {
+        if (mIsCancelled) {
+            throw new CodePushDownloadCancelledException(mPackageHash);
+        }
+    }
+}
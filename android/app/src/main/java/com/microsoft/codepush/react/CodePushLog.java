@@ -0,0 +1,159 @@
+package com.microsoft.codepush.react;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Level-gated logging. {@link CodePushUtils#log(String)} logs at {@link #INFO}, which is the default
+ * runtime level, while per-file details and debug dumps go through {@link #debug} or
+ * {@link #verbose} and are dropped unless the "CodePushLogLevel" string resource lowers the level.
+ *
+ * Messages that are expensive to build are passed as a {@link Message}, or as a template with
+ * "{}" placeholders and arguments the caller already has, so that a dropped message does not build
+ * its string. {@link #MIN_LEVEL} is a compile-time constant, so raising it lets the compiler remove
+ * the guarded blocks of lower levels from the build altogether.
+ */
+class CodePushLog {
+    static final int VERBOSE = Log.VERBOSE;
+    static final int DEBUG = Log.DEBUG;
+    static final int INFO = Log.INFO;
+    static final int WARN = Log.WARN;
+    static final int ERROR = Log.ERROR;
+    static final int NONE = ERROR + 1;
+
+    // Levels below this one are never logged, whatever the runtime level.
+    static final int MIN_LEVEL = VERBOSE;
+
+    private static volatile int sLevel = INFO;
+
+    interface Message {
+        String get();
+    }
+
+    /**
+     * Lets through at most a number of messages per interval, e.g. for a warning that may be logged
+     * for every file of a package, and reports how many were dropped with the next message it lets through.
+     */
+    static class RateLimiter {
+        private final int mMaxMessages;
+        private final long mIntervalMs;
+        private long mIntervalStartTime;
+        private int mMessageCount;
+        private int mSuppressedCount;
+
+        RateLimiter(int maxMessages, long intervalMs) {
+            mMaxMessages = maxMessages;
+            mIntervalMs = intervalMs;
+        }
+
+        void log(int level, String message) {
+            if (!isLoggable(level)) {
+                return;
+            }
+
+            int suppressedCount;
+            synchronized (this) {
+                long now = SystemClock.elapsedRealtime();
+                if (mMessageCount == 0 || now - mIntervalStartTime >= mIntervalMs) {
+                    mIntervalStartTime = now;
+                    mMessageCount = 0;
+                }
+
+                if (mMessageCount >= mMaxMessages) {
+                    mSuppressedCount++;
+                    return;
+                }
+
+                mMessageCount++;
+                suppressedCount = mSuppressedCount;
+                mSuppressedCount = 0;
+            }
+
+            CodePushLog.log(level, suppressedCount == 0 ? message
+                    : message + " (" + suppressedCount + " similar messages suppressed)");
+        }
+    }
+
+    static void setLevel(int level) {
+        sLevel = level;
+    }
+
+    /**
+     * Parses a level name such as "debug", returning the default level for a missing or unknown name.
+     */
+    static int parseLevel(String levelName, int defaultLevel) {
+        if (levelName == null) {
+            return defaultLevel;
+        }
+
+        switch (levelName.trim().toLowerCase()) {
+            case "verbose":
+                return VERBOSE;
+            case "debug":
+                return DEBUG;
+            case "info":
+                return INFO;
+            case "warn":
+                return WARN;
+            case "error":
+                return ERROR;
+            case "none":
+                return NONE;
+            default:
+                return defaultLevel;
+        }
+    }
+
+    static boolean isLoggable(int level) {
+        return level >= MIN_LEVEL && level >= sLevel;
+    }
+
+    static void log(int level, String message) {
+        if (isLoggable(level)) {
+            Log.println(level, CodePushConstants.REACT_NATIVE_LOG_TAG, "[CodePush] " + message);
+        }
+    }
+
+    static void debug(String message) {
+        log(DEBUG, message);
+    }
+
+    static void debug(String template, Object arg) {
+        if (isLoggable(DEBUG)) {
+            log(DEBUG, format(template, arg, null));
+        }
+    }
+
+    static void debug(String template, Object firstArg, Object secondArg) {
+        if (isLoggable(DEBUG)) {
+            log(DEBUG, format(template, firstArg, secondArg));
+        }
+    }
+
+    static void debug(Message message) {
+        if (isLoggable(DEBUG)) {
+            log(DEBUG, message.get());
+        }
+    }
+
+    static void verbose(Message message) {
+        if (isLoggable(VERBOSE)) {
+            log(VERBOSE, message.get());
+        }
+    }
+
+    // Replaces the first two "{}" placeholders of the template with the arguments.
+    private static String format(String template, Object firstArg, Object secondArg) {
+        StringBuilder message = new StringBuilder(template.length() + 32);
+        Object[] args = { firstArg, secondArg };
+        int argIndex = 0;
+        int start = 0;
+        int placeholder;
+        while (argIndex < args.length && (placeholder = template.indexOf("{}", start)) >= 0) {
+            message.append(template, start, placeholder).append(args[argIndex++]);
+            start = placeholder + 2;
+        }
+
+        return message.append(template, start, template.length()).toString();
+    }
+}
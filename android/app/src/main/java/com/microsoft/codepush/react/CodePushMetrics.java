@@ -0,0 +1,148 @@
+package com.microsoft.codepush.react;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the update pipeline for this process. Recording only updates atomics,
+ * so it can be done from the download, patch and verify paths without taking any lock; reading a
+ * snapshot while updates are recorded may see a histogram count that is ahead of its buckets.
+ */
+class CodePushMetrics {
+    // Upper bounds of the histogram buckets, a last bucket counts everything above the last bound.
+    private static final long[] DURATION_BOUNDS_MS = { 10, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000 };
+    private static final long[] THROUGHPUT_BOUNDS_KBPS = { 64, 128, 256, 512, 1024, 2048, 4096, 8192 };
+
+    static class Histogram {
+        private final long[] mBounds;
+        private final AtomicLongArray mBucketCounts;
+        private final AtomicLong mCount = new AtomicLong();
+        private final AtomicLong mSum = new AtomicLong();
+
+        Histogram(long[] bounds) {
+            mBounds = bounds;
+            mBucketCounts = new AtomicLongArray(bounds.length + 1);
+        }
+
+        void record(long value) {
+            int bucket = 0;
+            while (bucket < mBounds.length && value > mBounds[bucket]) {
+                bucket++;
+            }
+
+            mBucketCounts.incrementAndGet(bucket);
+            mCount.incrementAndGet();
+            mSum.addAndGet(value);
+        }
+
+        long getCount() {
+            return mCount.get();
+        }
+
+        long getSum() {
+            return mSum.get();
+        }
+
+        WritableMap toWritableMap() {
+            WritableMap map = Arguments.createMap();
+            map.putDouble("count", mCount.get());
+            map.putDouble("sum", mSum.get());
+            WritableArray bounds = Arguments.createArray();
+            for (long bound : mBounds) {
+                bounds.pushDouble(bound);
+            }
+            map.putArray("bounds", bounds);
+            WritableArray bucketCounts = Arguments.createArray();
+            for (int i = 0; i < mBucketCounts.length(); i++) {
+                bucketCounts.pushDouble(mBucketCounts.get(i));
+            }
+            map.putArray("bucketCounts", bucketCounts);
+            return map;
+        }
+    }
+
+    private final AtomicLong mDownloadCount = new AtomicLong();
+    private final AtomicLong mBytesDownloaded = new AtomicLong();
+    private final AtomicLong mPatchBytesSaved = new AtomicLong();
+    private final AtomicLong mInstallCount = new AtomicLong();
+    private final Histogram mDownloadDuration = new Histogram(DURATION_BOUNDS_MS);
+    private final Histogram mDownloadThroughput = new Histogram(THROUGHPUT_BOUNDS_KBPS);
+    private final Histogram mUnzipDuration = new Histogram(DURATION_BOUNDS_MS);
+    private final Histogram mApplyDuration = new Histogram(DURATION_BOUNDS_MS);
+    private final Histogram mVerifyDuration = new Histogram(DURATION_BOUNDS_MS);
+    private final Histogram mInstallDuration = new Histogram(DURATION_BOUNDS_MS);
+
+    void recordDownload(long bytes, long durationMs) {
+        mDownloadCount.incrementAndGet();
+        mBytesDownloaded.addAndGet(bytes);
+        mDownloadDuration.record(durationMs);
+        if (durationMs > 0) {
+            // Bytes per millisecond is roughly kilobytes per second.
+            mDownloadThroughput.record(bytes / durationMs);
+        }
+    }
+
+    /**
+     * Records the bytes a patch chain saved compared to downloading the full package.
+     */
+    void recordPatchBytesSaved(long bytes) {
+        if (bytes > 0) {
+            mPatchBytesSaved.addAndGet(bytes);
+        }
+    }
+
+    void recordUnzip(long durationMs) {
+        mUnzipDuration.record(durationMs);
+    }
+
+    void recordApply(long durationMs) {
+        mApplyDuration.record(durationMs);
+    }
+
+    void recordVerify(long durationMs) {
+        mVerifyDuration.record(durationMs);
+    }
+
+    void recordInstall(long durationMs) {
+        mInstallCount.incrementAndGet();
+        mInstallDuration.record(durationMs);
+    }
+
+    WritableMap toWritableMap() {
+        WritableMap map = Arguments.createMap();
+        map.putDouble("downloadCount", mDownloadCount.get());
+        map.putDouble("bytesDownloaded", mBytesDownloaded.get());
+        map.putDouble("patchBytesSaved", mPatchBytesSaved.get());
+        map.putDouble("installCount", mInstallCount.get());
+        map.putMap("downloadMs", mDownloadDuration.toWritableMap());
+        map.putMap("downloadThroughputKBps", mDownloadThroughput.toWritableMap());
+        map.putMap("unzipMs", mUnzipDuration.toWritableMap());
+        map.putMap("applyMs", mApplyDuration.toWritableMap());
+        map.putMap("verifyMs", mVerifyDuration.toWritableMap());
+        map.putMap("installMs", mInstallDuration.toWritableMap());
+        return map;
+    }
+
+    /**
+     * Returns the totals and the summed durations without the buckets, small enough to be attached
+     * to a status report.
+     */
+    JSONObject getSummary() {
+        JSONObject summary = new JSONObject();
+        CodePushUtils.setJSONValueForKey(summary, "downloadCount", mDownloadCount.get());
+        CodePushUtils.setJSONValueForKey(summary, "bytesDownloaded", mBytesDownloaded.get());
+        CodePushUtils.setJSONValueForKey(summary, "patchBytesSaved", mPatchBytesSaved.get());
+        CodePushUtils.setJSONValueForKey(summary, "downloadMs", mDownloadDuration.getSum());
+        CodePushUtils.setJSONValueForKey(summary, "unzipMs", mUnzipDuration.getSum());
+        CodePushUtils.setJSONValueForKey(summary, "applyMs", mApplyDuration.getSum());
+        CodePushUtils.setJSONValueForKey(summary, "verifyMs", mVerifyDuration.getSum());
+        CodePushUtils.setJSONValueForKey(summary, "installMs", mInstallDuration.getSum());
+        return summary;
+    }
+}
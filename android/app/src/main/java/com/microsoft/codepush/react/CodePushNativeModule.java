@@ -1,8 +1,6 @@
 package com.microsoft.codepush.react;
 
 import android.app.Activity;
-import android.content.SharedPreferences;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.Looper;
 import android.view.View;
@@ -20,6 +18,7 @@ import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactMethod;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.common.annotations.UnstableReactNativeAPI;
@@ -38,17 +37,16 @@ import org.json.JSONObject;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @OptIn(markerClass = UnstableReactNativeAPI.class)
 public class CodePushNativeModule extends BaseJavaModule {
     private String mBinaryContentsHash = null;
-    private String mClientUniqueId = null;
     private LifecycleEventListener mLifecycleEventListener = null;
     private int mMinimumBackgroundDuration = 0;
 
@@ -56,10 +54,24 @@ public class CodePushNativeModule extends BaseJavaModule {
     private SettingsManager mSettingsManager;
     private CodePushTelemetryManager mTelemetryManager;
     private CodePushUpdateManager mUpdateManager;
-
-    private  boolean _allowed = true;
-    private  boolean _restartInProgress = false;
-    private  ArrayList<Boolean> _restartQueue = new ArrayList<>();
+    private CodePushScheduler mScheduler;
+    private CodePushPackageMetadataCache mPackageMetadataCache;
+    // Everything getConfiguration returns except the deployment key, which can be changed at runtime.
+    private WritableMap mConfiguration;
+    // Reads the last installed bundle into the page cache ahead of the restart that loads it.
+    private volatile CodePushBundleWarmup mBundleWarmup;
+    // Held while a package is installed, so that metadata queries never see the new status file without the pending flag
+    // and the boot record is always written from a status file and pending flag that belong together.
+    private final Object mInstallLock = new Object();
+    // Downloads that have been requested and not finished yet, by package hash.
+    private final Map<String, CodePushDownloadTask> mDownloadTasks = new ConcurrentHashMap<>();
+
+    private final CodePushRestartCoordinator mRestartCoordinator = new CodePushRestartCoordinator(new CodePushRestartCoordinator.RestartHandler() {
+        @Override
+        public boolean restart(boolean onlyIfUpdateIsPending) {
+            return restartIfNeeded(onlyIfUpdateIsPending);
+        }
+    });
 
     public CodePushNativeModule(ReactApplicationContext reactContext, CodePush codePush, CodePushUpdateManager codePushUpdateManager, CodePushTelemetryManager codePushTelemetryManager, SettingsManager settingsManager) {
         super(reactContext);
@@ -68,16 +80,11 @@ public class CodePushNativeModule extends BaseJavaModule {
         mSettingsManager = settingsManager;
         mTelemetryManager = codePushTelemetryManager;
         mUpdateManager = codePushUpdateManager;
+        mScheduler = codePush.getScheduler();
+        mPackageMetadataCache = new CodePushPackageMetadataCache(codePushUpdateManager);
 
         // Initialize module state while we have a reference to the current context.
         mBinaryContentsHash = CodePushUpdateUtils.getHashForBinaryContents(reactContext, mCodePush.isDebugMode());
-
-        SharedPreferences preferences = codePush.getContext().getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
-        mClientUniqueId = preferences.getString(CodePushConstants.CLIENT_UNIQUE_ID_KEY, null);
-        if (mClientUniqueId == null) {
-            mClientUniqueId = UUID.randomUUID().toString();
-            preferences.edit().putString(CodePushConstants.CLIENT_UNIQUE_ID_KEY, mClientUniqueId).apply();
-        }
     }
 
     @Override
@@ -101,12 +108,14 @@ public class CodePushNativeModule extends BaseJavaModule {
         return "CodePush";
     }
 
-    private void loadBundleLegacy() {
+    // Returns whether the activity is being recreated. The native module survives the recreation, so
+    // the restart coordinator is told once it has run.
+    private boolean loadBundleLegacy() {
         final Activity currentActivity = getReactApplicationContext().getCurrentActivity();
         if (currentActivity == null) {
             // The currentActivity can be null if it is backgrounded / destroyed, so we simply
             // no-op to prevent any null pointer exceptions.
-            return;
+            return false;
         }
         mCodePush.invalidateCurrentInstance();
 
@@ -114,150 +123,104 @@ public class CodePushNativeModule extends BaseJavaModule {
             @Override
             public void run() {
                 currentActivity.recreate();
+                mRestartCoordinator.onReloadCompleted();
             }
         });
+        return true;
     }
 
     // Use reflection to find and set the appropriate fields on ReactInstanceManager. See #556 for a proposal for a less brittle way
     // to approach this.
-    private void setJSBundle(ReactInstanceManager instanceManager, String latestJSBundleFile) throws IllegalAccessException {
-        try {
-            JSBundleLoader latestJSBundleLoader;
-            if (latestJSBundleFile.toLowerCase().startsWith("assets://")) {
-                latestJSBundleLoader = JSBundleLoader.createAssetLoader(getReactApplicationContext(), latestJSBundleFile, false);
-            } else {
-                latestJSBundleLoader = JSBundleLoader.createFileLoader(latestJSBundleFile);
-            }
-
-            Field bundleLoaderField = instanceManager.getClass().getDeclaredField("mBundleLoader");
-            bundleLoaderField.setAccessible(true);
-            bundleLoaderField.set(instanceManager, latestJSBundleLoader);
-        } catch (Exception e) {
+    private void setJSBundle(ReactInstanceManager instanceManager, JSBundleLoader latestJSBundleLoader) throws IllegalAccessException {
+        Field bundleLoaderField = CodePushReloader.getDeclaredField(instanceManager.getClass(), "mBundleLoader");
+        if (bundleLoaderField == null) {
             CodePushUtils.log("Unable to set JSBundle of ReactInstanceManager - CodePush may not support this version of React Native");
             throw new IllegalAccessException("Could not setJSBundle");
         }
+
+        bundleLoaderField.set(instanceManager, latestJSBundleLoader);
     }
 
     // Use reflection to find and set the appropriate fields on ReactHostDelegate. See #556 for a proposal for a less brittle way
     // to approach this.
-    private void setJSBundle(ReactHostDelegate reactHostDelegate, String latestJSBundleFile) throws IllegalAccessException {
-        
-        try {
-            JSBundleLoader latestJSBundleLoader;
-            if (latestJSBundleFile.toLowerCase().startsWith("assets://")) {
-                latestJSBundleLoader = JSBundleLoader.createAssetLoader(getReactApplicationContext(), latestJSBundleFile, false);
-            } else {
-                latestJSBundleLoader = JSBundleLoader.createFileLoader(latestJSBundleFile);
-            }
-
-            Field bundleLoaderField = reactHostDelegate.getClass().getDeclaredField("jsBundleLoader");
-            bundleLoaderField.setAccessible(true);
-            bundleLoaderField.set(reactHostDelegate, latestJSBundleLoader);
-
-        } catch (NoSuchFieldException nsfe) {
-            CodePushUtils.log("Field 'jsBundleLoader' NOT FOUND on " + (reactHostDelegate != null ? reactHostDelegate.getClass().getName() : "null") + ". This is an EXPECTED and IGNORED failure with ExpoReactHostDelegate. Will rely on reactHost.reload(). Original log: Unable to set JSBundle of ReactHostDelegate - CodePush may not support this version of React Native");
-            // DO NOT THROW for NoSuchFieldException.
-        }catch (Exception e) {
-            CodePushUtils.log("Unable to set JSBundle of ReactHostDelegate - CodePush may not support this version of React Native");
-            throw new IllegalAccessException("Could not setJSBundle");
+    private void setJSBundle(ReactHostDelegate reactHostDelegate, JSBundleLoader latestJSBundleLoader) throws IllegalAccessException {
+        Field bundleLoaderField = CodePushReloader.getDeclaredField(reactHostDelegate.getClass(), "jsBundleLoader");
+        if (bundleLoaderField == null) {
+            // Expected with ExpoReactHostDelegate, which reads the bundle location on reload by itself.
+            CodePushUtils.log("Field 'jsBundleLoader' not found on " + reactHostDelegate.getClass().getName() + ", relying on reactHost.reload()");
+            return;
         }
+
+        bundleLoaderField.set(reactHostDelegate, latestJSBundleLoader);
     }
 
-    private void loadBundle() {
+    // Returns whether a reload was triggered.
+    private boolean loadBundle() {
         clearLifecycleEventListener();
+        final CodePushReloader reloader = mCodePush.getReloader();
+        reloader.startReload();
 
         // ReactNative core components are changed on new architecture.
         if (BuildConfig.IS_NEW_ARCHITECTURE_ENABLED) {
-            try {
-                DevSupportManager devSupportManager = null;
-                    ReactHost reactHost = resolveReactHost();
-                    if (reactHost != null) {
-                        devSupportManager = reactHost.getDevSupportManager();
-                    }
-                boolean isLiveReloadEnabled = isLiveReloadEnabled(devSupportManager);
-
-                mCodePush.clearDebugCacheIfNeeded(isLiveReloadEnabled);
-            } catch(Exception e) {
-                // If we got error in out reflection we should clear debug cache anyway.
-                mCodePush.clearDebugCacheIfNeeded(false);
-            }
-
-
             try {
                 // #1) Get the ReactHost instance, which is what includes the
                 //     logic to reload the current React context.
                 final ReactHost reactHost = resolveReactHost();
                 if (reactHost == null) {
-                    loadBundleLegacy(); // Fallback if reactHost can't be resolved
-                    return;
+                    mCodePush.clearDebugCacheIfNeeded(false);
+                    return loadBundleLegacy(); // Fallback if reactHost can't be resolved
                 }
 
+                clearDebugCacheIfNeeded(reactHost.getDevSupportManager());
                 String latestJSBundleFile = mCodePush.getJSBundleFileInternal(mCodePush.getAssetsBundleFileName());
-                CodePushUtils.log("[MyDebug] Latest JS bundle for New Arch: " + latestJSBundleFile);
+                reloader.endPhase(CodePushReloader.PHASE_RESOLVE);
 
-     
+                // #2) Update the locally stored JS bundle file path
                 try {
-                    if (reactHost instanceof ReactHostImpl) { 
-                        ReactHostDelegate delegate = getReactHostDelegate((ReactHostImpl) reactHost); 
+                    if (reactHost instanceof ReactHostImpl) {
+                        ReactHostDelegate delegate = getReactHostDelegate((ReactHostImpl) reactHost);
                         if (delegate != null) {
-                            // #2) Update the locally stored JS bundle file path
-                            setJSBundle(delegate, latestJSBundleFile); 
+                            setJSBundle(delegate, reloader.getBundleLoader(latestJSBundleFile));
                         } else {
                             CodePushUtils.log("Could not get ReactHostDelegate from ReactHostImpl.");
                         }
                     } else {
                         CodePushUtils.log("ReactHost is not a direct ReactHostImpl instance (" + reactHost.getClass().getName() + "), skipping direct setJSBundle reflection attempt. This is expected with Expo.");
                     }
-                } catch (ClassCastException cce) {
-                    CodePushUtils.log(new Exception("ClassCastException trying to get/use ReactHostDelegate. Skipping reflection call to setJSBundle. This is expected for Expo.", cce));
-                }catch (Exception e) {
-                    // Catch any unexpected errors from the attempt to call setJSBundle, e.g., if getReactHostDelegate itself fails
-                    CodePushUtils.log("Exception during the reflective setJSBundle block: " + e.getMessage());
-                }
-
-                // #3) Get the context creation method
-                try {
-                    reactHost.reload("CodePush triggers reload");
-                    mCodePush.initializeUpdateAfterRestart();
                 } catch (Exception e) {
-                    // The recreation method threw an unknown exception
-                    // so just simply fallback to restarting the Activity (if it exists)
-                    loadBundleLegacy();
+                    // The host may still pick up the new bundle by itself on reload, so only log this.
+                    CodePushUtils.log("Exception during the reflective setJSBundle block: " + e.getMessage());
                 }
+                reloader.endPhase(CodePushReloader.PHASE_SET_LOADER);
 
+                // #3) Reload the React context with the new bundle
+                reactHost.reload("CodePush triggers reload");
+                reloader.endPhase(CodePushReloader.PHASE_RELOAD);
+                mCodePush.initializeUpdateAfterRestart();
+                return true;
             } catch (Exception e) {
                 // reflection logic failed somewhere so fall back to restarting the Activity (if it exists)
                 CodePushUtils.log("Failed to load the bundle, falling back to restarting the Activity (if it exists). " + e.getMessage());
-                loadBundleLegacy();
+                return loadBundleLegacy();
             }
 
         } else {
-            try {
-                DevSupportManager devSupportManager = null;
-                ReactInstanceManager reactInstanceManager = resolveInstanceManager();
-                if (reactInstanceManager != null) {
-                    devSupportManager = reactInstanceManager.getDevSupportManager();
-                }
-                boolean isLiveReloadEnabled = isLiveReloadEnabled(devSupportManager);
-
-                mCodePush.clearDebugCacheIfNeeded(isLiveReloadEnabled);
-            } catch(Exception e) {
-                // If we got error in out reflection we should clear debug cache anyway.
-                mCodePush.clearDebugCacheIfNeeded(false);
-            }
-
             try {
                 // #1) Get the ReactInstanceManager instance, which is what includes the
                 //     logic to reload the current React context.
                 final ReactInstanceManager instanceManager = resolveInstanceManager();
                 if (instanceManager == null) {
-                    return;
+                    mCodePush.clearDebugCacheIfNeeded(false);
+                    return false;
                 }
 
+                clearDebugCacheIfNeeded(instanceManager.getDevSupportManager());
                 String latestJSBundleFile = mCodePush.getJSBundleFileInternal(mCodePush.getAssetsBundleFileName());
+                reloader.endPhase(CodePushReloader.PHASE_RESOLVE);
 
                 // #2) Update the locally stored JS bundle file path
-                setJSBundle(instanceManager, latestJSBundleFile);
+                setJSBundle(instanceManager, reloader.getBundleLoader(latestJSBundleFile));
+                reloader.endPhase(CodePushReloader.PHASE_SET_LOADER);
 
                 // #3) Get the context creation method and fire it on the UI thread (which RN enforces)
                 new Handler(Looper.getMainLooper()).post(new Runnable() {
@@ -270,25 +233,40 @@ public class CodePushNativeModule extends BaseJavaModule {
                             //resetReactRootViews(instanceManager);
 
                             instanceManager.recreateReactContextInBackground();
+                            reloader.endPhase(CodePushReloader.PHASE_RELOAD);
                             mCodePush.initializeUpdateAfterRestart();
                         } catch (Exception e) {
                             // The recreation method threw an unknown exception
                             // so just simply fallback to restarting the Activity (if it exists)
-                            loadBundleLegacy();
+                            if (!loadBundleLegacy()) {
+                                mRestartCoordinator.onReloadFailed();
+                            }
                         }
                     }
                 });
-
+                return true;
             } catch (Exception e) {
                 // Our reflection logic failed somewhere
                 // so fall back to restarting the Activity (if it exists)
                 CodePushUtils.log("Failed to load the bundle, falling back to restarting the Activity (if it exists). " + e.getMessage());
-                loadBundleLegacy();
+                return loadBundleLegacy();
             }
 
         }
     }
 
+    private void clearDebugCacheIfNeeded(DevSupportManager devSupportManager) {
+        boolean isLiveReloadEnabled;
+        try {
+            isLiveReloadEnabled = isLiveReloadEnabled(devSupportManager);
+        } catch (Exception e) {
+            // If we got error in out reflection we should clear debug cache anyway.
+            isLiveReloadEnabled = false;
+        }
+
+        mCodePush.clearDebugCacheIfNeeded(isLiveReloadEnabled);
+    }
+
     private boolean isLiveReloadEnabled(DevSupportManager devSupportManager) {
         if (devSupportManager != null) {
             DeveloperSettings devSettings = devSupportManager.getDevSettings();
@@ -363,58 +341,67 @@ public class CodePushNativeModule extends BaseJavaModule {
     }
 
     private void restartAppInternal(boolean onlyIfUpdateIsPending) {
-        if (this._restartInProgress) {
-            CodePushUtils.log("Restart request queued until the current restart is completed");
-            this._restartQueue.add(onlyIfUpdateIsPending);
-            return;
-        } else if (!this._allowed) {
-            CodePushUtils.log("Restart request queued until restarts are re-allowed");
-            this._restartQueue.add(onlyIfUpdateIsPending);
-            return;
+        mRestartCoordinator.requestRestart(onlyIfUpdateIsPending);
+    }
+
+    private boolean restartIfNeeded(boolean onlyIfUpdateIsPending) {
+        if (onlyIfUpdateIsPending && !mSettingsManager.hasPendingUpdate()) {
+            return false;
         }
 
-        this._restartInProgress = true;
-        if (!onlyIfUpdateIsPending || mSettingsManager.isPendingUpdate(null)) {
-            loadBundle();
-            CodePushUtils.log("Restarting app");
-            return;
+        CodePushBundleWarmup bundleWarmup = mBundleWarmup;
+        if (bundleWarmup != null) {
+            // Restarts from onHostResume run on the main thread, which must not wait for the disk.
+            if (Looper.myLooper() != Looper.getMainLooper()) {
+                bundleWarmup.awaitIfNearlyDone();
+            }
+
+            bundleWarmup.cancel();
+            mBundleWarmup = null;
         }
 
-        this._restartInProgress = false;
-        if (this._restartQueue.size() > 0) {
-            boolean buf = this._restartQueue.get(0);
-            this._restartQueue.remove(0);
-            this.restartAppInternal(buf);
+        if (!loadBundle()) {
+            CodePushUtils.log("Unable to restart app, there is nothing to reload");
+            return false;
         }
+
+        CodePushUtils.log("Restarting app");
+        return true;
     }
 
-    @ReactMethod
-    public void allow(Promise promise) {
-        CodePushUtils.log("Re-allowing restarts");
-        this._allowed = true;
+    private void startBundleWarmup(String bundlePath) {
+        // Bundles shipped in the binary are already read from the APK, only downloaded ones need warming up.
+        if (bundlePath == null || bundlePath.toLowerCase().startsWith("assets://")) {
+            return;
+        }
 
-        if (_restartQueue.size() > 0) {
-            CodePushUtils.log("Executing pending restart");
-            boolean buf = this._restartQueue.get(0);
-            this._restartQueue.remove(0);
-            this.restartAppInternal(buf);
+        CodePushBundleWarmup previousBundleWarmup = mBundleWarmup;
+        if (previousBundleWarmup != null) {
+            previousBundleWarmup.cancel();
         }
 
+        CodePushBundleWarmup bundleWarmup = new CodePushBundleWarmup(bundlePath, mUpdateManager.getCurrentPackageFolderPath());
+        mBundleWarmup = bundleWarmup;
+        mScheduler.execute(CodePushScheduler.Lane.IO, bundleWarmup);
+    }
+
+    @ReactMethod
+    public void allow(Promise promise) {
+        mRestartCoordinator.allow();
         promise.resolve(null);
         return;
     }
 
     @ReactMethod
     public void clearPendingRestart(Promise promise) {
-        this._restartQueue.clear();
+        mRestartCoordinator.clearPendingRequest();
         promise.resolve(null);
         return;
     }
 
     @ReactMethod
     public void disallow(Promise promise) {
-        CodePushUtils.log("Disallowing restarts");
-        this._allowed = false;
+        mRestartCoordinator.disallow();
         promise.resolve(null);
         return;
     }
@@ -430,59 +417,72 @@ public class CodePushNativeModule extends BaseJavaModule {
         }
     }
 
+    /**
+     * Sends download progress events to JS. Reports within a stage are coalesced into at most one
+     * event per frame with a single reusable frame callback, the last report of a stage is sent
+     * right away so that it is never dropped.
+     */
+    private class DownloadProgressEmitter implements DownloadProgressCallback, Runnable, Choreographer.FrameCallback {
+        private final AtomicBoolean mHasScheduledNextFrame = new AtomicBoolean(false);
+        private volatile DownloadProgress mLatestDownloadProgress;
+
+        @Override
+        public void call(DownloadProgress downloadProgress) {
+            mLatestDownloadProgress = downloadProgress;
+            if (downloadProgress.isStageCompleted()) {
+                dispatchDownloadProgressEvent();
+                return;
+            }
+
+            if (mHasScheduledNextFrame.compareAndSet(false, true)) {
+                getReactApplicationContext().runOnUiQueueThread(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            ReactChoreographer.getInstance().postFrameCallback(ReactChoreographer.CallbackType.TIMERS_EVENTS, this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mHasScheduledNextFrame.set(false);
+            if (!mLatestDownloadProgress.isStageCompleted()) {
+                dispatchDownloadProgressEvent();
+            }
+        }
+
+        private void dispatchDownloadProgressEvent() {
+            getReactApplicationContext()
+                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                    .emit(CodePushConstants.DOWNLOAD_PROGRESS_EVENT_NAME, mLatestDownloadProgress.createWritableMap());
+        }
+    }
+
     @ReactMethod
     public void downloadUpdate(final ReadableMap updatePackage, final boolean notifyProgress, final Promise promise) {
-        AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
+        final String packageHash = CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY);
+        final CodePushDownloadTask downloadTask = new CodePushDownloadTask(packageHash);
+        // Only the newest release can be installed, so downloads of other packages are superseded.
+        for (CodePushDownloadTask otherDownloadTask : mDownloadTasks.values()) {
+            if (packageHash == null || !packageHash.equals(otherDownloadTask.getPackageHash())) {
+                CodePushUtils.log("Cancelling the download of " + otherDownloadTask.getPackageHash() + ", superseded by " + packageHash);
+                otherDownloadTask.cancel();
+            }
+        }
+        if (packageHash != null) {
+            mDownloadTasks.put(packageHash, downloadTask);
+        }
+
+        mScheduler.execute(CodePushScheduler.Lane.IO, new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 try {
+                    downloadTask.throwIfCancelled();
                     JSONObject mutableUpdatePackage = CodePushUtils.convertReadableToJsonObject(updatePackage);
                     CodePushUtils.setJSONValueForKey(mutableUpdatePackage, CodePushConstants.BINARY_MODIFIED_TIME_KEY, "" + mCodePush.getBinaryResourcesModifiedTime());
-                    mUpdateManager.downloadPackage(mutableUpdatePackage, mCodePush.getAssetsBundleFileName(), new DownloadProgressCallback() {
-                        private boolean hasScheduledNextFrame = false;
-                        private DownloadProgress latestDownloadProgress = null;
-
-                        @Override
-                        public void call(DownloadProgress downloadProgress) {
-                            if (!notifyProgress) {
-                                return;
-                            }
-
-                            latestDownloadProgress = downloadProgress;
-                            // If the download is completed, synchronously send the last event.
-                            if (latestDownloadProgress.isCompleted()) {
-                                dispatchDownloadProgressEvent();
-                                return;
-                            }
-
-                            if (hasScheduledNextFrame) {
-                                return;
-                            }
-
-                            hasScheduledNextFrame = true;
-                            getReactApplicationContext().runOnUiQueueThread(new Runnable() {
-                                @Override
-                                public void run() {
-                                    ReactChoreographer.getInstance().postFrameCallback(ReactChoreographer.CallbackType.TIMERS_EVENTS, new Choreographer.FrameCallback() {
-                                        @Override
-                                        public void doFrame(long frameTimeNanos) {
-                                            if (!latestDownloadProgress.isCompleted()) {
-                                                dispatchDownloadProgressEvent();
-                                            }
-
-                                            hasScheduledNextFrame = false;
-                                        }
-                                    });
-                                }
-                            });
-                        }
-
-                        public void dispatchDownloadProgressEvent() {
-                            getReactApplicationContext()
-                                    .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
-                                    .emit(CodePushConstants.DOWNLOAD_PROGRESS_EVENT_NAME, latestDownloadProgress.createWritableMap());
-                        }
-                    }, mCodePush.getPublicKey());
+                    DownloadProgress downloadProgress = mCodePush.createDownloadProgress(notifyProgress ? new DownloadProgressEmitter() : null);
+                    mUpdateManager.downloadPackage(mutableUpdatePackage, mCodePush.getAssetsBundleFileName(), downloadProgress, mCodePush.getPublicKey(), downloadTask);
 
                     JSONObject newPackage = mUpdateManager.getPackage(CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY));
                     promise.resolve(CodePushUtils.convertJsonObjectToWritable(newPackage));
@@ -490,25 +490,40 @@ public class CodePushNativeModule extends BaseJavaModule {
                     CodePushUtils.log(e);
                     mSettingsManager.saveFailedUpdate(CodePushUtils.convertReadableToJsonObject(updatePackage));
                     promise.reject(e);
-                } catch (IOException | CodePushUnknownException e) {
+                } catch (IOException | CodePushUnknownException | CodePushDownloadCancelledException e) {
                     CodePushUtils.log(e);
                     promise.reject(e);
+                } finally {
+                    if (packageHash != null) {
+                        mDownloadTasks.remove(packageHash, downloadTask);
+                    }
                 }
-
-                return null;
             }
-        };
-
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        });
     }
 
+    /**
+     * Cancels the download of the given package, resolving with whether there was one to cancel.
+     * The promise of the cancelled downloadUpdate call is rejected once the download has stopped.
+     */
     @ReactMethod
-    public void getConfiguration(Promise promise) {
-        try {
+    public void cancelDownload(String packageHash, Promise promise) {
+        CodePushDownloadTask downloadTask = packageHash == null ? null : mDownloadTasks.get(packageHash);
+        if (downloadTask == null) {
+            promise.resolve(false);
+            return;
+        }
+
+        CodePushUtils.log("Cancelling the download of " + packageHash);
+        downloadTask.cancel();
+        promise.resolve(true);
+    }
+
+    private synchronized WritableMap getConfigurationMap() {
+        if (mConfiguration == null) {
             WritableMap configMap =  Arguments.createMap();
             configMap.putString("appVersion", mCodePush.getAppVersion());
-            configMap.putString("clientUniqueId", mClientUniqueId);
-            configMap.putString("deploymentKey", mCodePush.getDeploymentKey());
+            configMap.putString("clientUniqueId", mSettingsManager.getClientUniqueId());
             configMap.putString("serverUrl", mCodePush.getServerUrl());
 
             // Add appId if configured
@@ -528,64 +543,97 @@ public class CodePushNativeModule extends BaseJavaModule {
                 configMap.putString(CodePushConstants.PACKAGE_HASH_KEY, mBinaryContentsHash);
             }
 
-            promise.resolve(configMap);
+            mConfiguration = configMap;
+        }
+
+        // The bridge consumes the map it is handed, so the cached one is never passed on.
+        WritableMap configMap = mConfiguration.copy();
+        configMap.putString("deploymentKey", mCodePush.getDeploymentKey());
+        return configMap;
+    }
+
+    @ReactMethod
+    public void getConfiguration(Promise promise) {
+        try {
+            promise.resolve(getConfigurationMap());
         } catch(CodePushUnknownException e) {
             CodePushUtils.log(e);
             promise.reject(e);
         }
     }
 
-    @ReactMethod
-    public void getUpdateMetadata(final int updateState, final Promise promise) {
-        AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
-            @Override
-            protected Void doInBackground(Void... params) {
-                try {
-                    JSONObject currentPackage = mUpdateManager.getCurrentPackage();
+    // The synchronous variants of the cheap queries below are answered from state that is already in
+    // memory, so that JS can call them directly over JSI instead of awaiting a bridge round trip.
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getConfigurationSync() {
+        return getConfigurationMap();
+    }
 
-                    if (currentPackage == null) {
-                        promise.resolve(null);
-                        return null;
-                    }
+    /**
+     * The hashes of the current and previous packages and the pending flag, read together.
+     */
+    private static class UpdateStateSnapshot {
+        final String currentPackageHash;
+        final String previousPackageHash;
+        final boolean currentUpdateIsPending;
+
+        UpdateStateSnapshot(String currentPackageHash, String previousPackageHash, boolean currentUpdateIsPending) {
+            this.currentPackageHash = currentPackageHash;
+            this.previousPackageHash = previousPackageHash;
+            this.currentUpdateIsPending = currentUpdateIsPending;
+        }
+    }
 
-                    Boolean currentUpdateIsPending = false;
+    private UpdateStateSnapshot getUpdateStateSnapshot() {
+        synchronized (mInstallLock) {
+            JSONObject info = mUpdateManager.getCurrentPackageInfo();
+            String currentHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
+            String previousHash = info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
+            boolean currentUpdateIsPending = currentHash != null && mSettingsManager.isPendingUpdate(currentHash);
+            return new UpdateStateSnapshot(currentHash, previousHash, currentUpdateIsPending);
+        }
+    }
 
-                    if (currentPackage.has(CodePushConstants.PACKAGE_HASH_KEY)) {
-                        String currentHash = currentPackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
-                        currentUpdateIsPending = mSettingsManager.isPendingUpdate(currentHash);
-                    }
+    private WritableMap getUpdateMetadata(int updateState, UpdateStateSnapshot snapshot) {
+        WritableMap currentPackage = mPackageMetadataCache.getPackage(snapshot.currentPackageHash);
+        if (currentPackage == null) {
+            return null;
+        }
 
-                    if (updateState == CodePushUpdateState.PENDING.getValue() && !currentUpdateIsPending) {
-                        // The caller wanted a pending update
-                        // but there isn't currently one.
-                        promise.resolve(null);
-                    } else if (updateState == CodePushUpdateState.RUNNING.getValue() && currentUpdateIsPending) {
-                        // The caller wants the running update, but the current
-                        // one is pending, so we need to grab the previous.
-                        JSONObject previousPackage = mUpdateManager.getPreviousPackage();
-
-                        if (previousPackage == null) {
-                            promise.resolve(null);
-                            return null;
-                        }
+        if (updateState == CodePushUpdateState.PENDING.getValue() && !snapshot.currentUpdateIsPending) {
+            // The caller wanted a pending update
+            // but there isn't currently one.
+            return null;
+        } else if (updateState == CodePushUpdateState.RUNNING.getValue() && snapshot.currentUpdateIsPending) {
+            // The caller wants the running update, but the current
+            // one is pending, so we need to grab the previous.
+            return mPackageMetadataCache.getPackage(snapshot.previousPackageHash);
+        } else {
+            // The current package satisfies the request:
+            // 1) Caller wanted a pending, and there is a pending update
+            // 2) Caller wanted the running update, and there isn't a pending
+            // 3) Caller wants the latest update, regardless if it's pending or not
+            if (mCodePush.isRunningBinaryVersion()) {
+                // This only matters in Debug builds. Since we do not clear "outdated" updates,
+                // we need to indicate to the JS side that somehow we have a current update on
+                // disk that is not actually running.
+                currentPackage.putBoolean("_isDebugOnly", true);
+            }
 
-                        promise.resolve(CodePushUtils.convertJsonObjectToWritable(previousPackage));
-                    } else {
-                        // The current package satisfies the request:
-                        // 1) Caller wanted a pending, and there is a pending update
-                        // 2) Caller wanted the running update, and there isn't a pending
-                        // 3) Caller wants the latest update, regardless if it's pending or not
-                        if (mCodePush.isRunningBinaryVersion()) {
-                            // This only matters in Debug builds. Since we do not clear "outdated" updates,
-                            // we need to indicate to the JS side that somehow we have a current update on
-                            // disk that is not actually running.
-                            CodePushUtils.setJSONValueForKey(currentPackage, "_isDebugOnly", true);
-                        }
+            // Enable differentiating pending vs. non-pending updates
+            currentPackage.putBoolean("isPending", snapshot.currentUpdateIsPending);
+            return currentPackage;
+        }
+    }
 
-                        // Enable differentiating pending vs. non-pending updates
-                        CodePushUtils.setJSONValueForKey(currentPackage, "isPending", currentUpdateIsPending);
-                        promise.resolve(CodePushUtils.convertJsonObjectToWritable(currentPackage));
-                    }
+    @ReactMethod
+    public void getUpdateMetadata(final int updateState, final Promise promise) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCodePush.awaitPendingStateTasks();
+                    promise.resolve(getUpdateMetadata(updateState, getUpdateStateSnapshot()));
                 } catch (CodePushMalformedDataException e) {
                     // We need to recover the app in case 'codepush.json' is corrupted
                     CodePushUtils.log(e.getMessage());
@@ -595,20 +643,52 @@ public class CodePushNativeModule extends BaseJavaModule {
                     CodePushUtils.log(e);
                     promise.reject(e);
                 }
+            }
+        });
+    }
 
-                return null;
+    // Resolves the running, pending and latest update metadata from a single snapshot of the update state.
+    @ReactMethod
+    public void getAllUpdateMetadata(final Promise promise) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mCodePush.awaitPendingStateTasks();
+                    UpdateStateSnapshot snapshot = getUpdateStateSnapshot();
+                    WritableMap allUpdateMetadata = Arguments.createMap();
+                    putUpdateMetadata(allUpdateMetadata, "running", getUpdateMetadata(CodePushUpdateState.RUNNING.getValue(), snapshot));
+                    putUpdateMetadata(allUpdateMetadata, "pending", getUpdateMetadata(CodePushUpdateState.PENDING.getValue(), snapshot));
+                    putUpdateMetadata(allUpdateMetadata, "latest", getUpdateMetadata(CodePushUpdateState.LATEST.getValue(), snapshot));
+                    promise.resolve(allUpdateMetadata);
+                } catch (CodePushMalformedDataException e) {
+                    // We need to recover the app in case 'codepush.json' is corrupted
+                    CodePushUtils.log(e.getMessage());
+                    clearUpdates();
+                    promise.resolve(Arguments.createMap());
+                } catch(CodePushUnknownException e) {
+                    CodePushUtils.log(e);
+                    promise.reject(e);
+                }
             }
-        };
+        });
+    }
 
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    private static void putUpdateMetadata(WritableMap map, String key, WritableMap updateMetadata) {
+        if (updateMetadata == null) {
+            map.putNull(key);
+        } else {
+            map.putMap(key, updateMetadata);
+        }
     }
 
     @ReactMethod
     public void getNewStatusReport(final Promise promise) {
-        AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 try {
+                    mCodePush.awaitPendingStateTasks();
                     if (mCodePush.needToReportRollback()) {
                         mCodePush.setNeedToReportRollback(false);
                         JSONArray failedUpdates = mSettingsManager.getFailedUpdates();
@@ -618,8 +698,11 @@ public class CodePushNativeModule extends BaseJavaModule {
                                 WritableMap lastFailedPackage = CodePushUtils.convertJsonObjectToWritable(lastFailedPackageJSON);
                                 WritableMap failedStatusReport = mTelemetryManager.getRollbackReport(lastFailedPackage);
                                 if (failedStatusReport != null) {
-                                    promise.resolve(failedStatusReport);
-                                    return null;
+                                    // Recorded once here rather than on every attempt to send the report.
+                                    mSettingsManager.setLatestRollbackInfo(lastFailedPackageJSON.getString(CodePushConstants.PACKAGE_HASH_KEY));
+                                    promise.resolve(withMetricsSummary(failedStatusReport,
+                                            lastFailedPackageJSON.optString(CodePushConstants.PACKAGE_HASH_KEY, null)));
+                                    return;
                                 }
                             } catch (JSONException e) {
                                 throw new CodePushUnknownException("Unable to read failed updates information stored in SharedPreferences.", e);
@@ -630,49 +713,106 @@ public class CodePushNativeModule extends BaseJavaModule {
                         if (currentPackage != null) {
                             WritableMap newPackageStatusReport = mTelemetryManager.getUpdateReport(CodePushUtils.convertJsonObjectToWritable(currentPackage));
                             if (newPackageStatusReport != null) {
-                                promise.resolve(newPackageStatusReport);
-                                return null;
+                                promise.resolve(withMetricsSummary(newPackageStatusReport,
+                                        currentPackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null)));
+                                return;
                             }
                         }
                     } else if (mCodePush.isRunningBinaryVersion()) {
                         WritableMap newAppVersionStatusReport = mTelemetryManager.getBinaryUpdateReport(mCodePush.getAppVersion());
                         if (newAppVersionStatusReport != null) {
-                            promise.resolve(newAppVersionStatusReport);
-                            return null;
-                        }
-                    } else {
-                        WritableMap retryStatusReport = mTelemetryManager.getRetryStatusReport();
-                        if (retryStatusReport != null) {
-                            promise.resolve(retryStatusReport);
-                            return null;
+                            promise.resolve(withMetricsSummary(newAppVersionStatusReport, null));
+                            return;
                         }
                     }
-                    
+
+                    // Reports that could not be sent before are drained by getPendingStatusReports.
                     promise.resolve("");
                 } catch(CodePushUnknownException e) {
                     CodePushUtils.log(e);
                     promise.reject(e);
                 }
-                return null;
             }
-        };
+        });
+    }
+
+    // Attaches the pipeline metrics to the status report, if the app opted in. These are the ones saved
+    // when the reported package was installed, or the ones of this process if none were saved for it.
+    private WritableMap withMetricsSummary(WritableMap statusReport, String packageHash) {
+        if (mCodePush.isStatusReportMetricsEnabled()) {
+            JSONObject summary = mSettingsManager.takePendingUpdateMetrics(packageHash);
+            if (summary == null) {
+                summary = mUpdateManager.getMetrics().getSummary();
+            }
+
+            statusReport.putMap("metrics", CodePushUtils.convertJsonObjectToWritable(summary));
+        }
 
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return statusReport;
+    }
+
+    @ReactMethod
+    public void getMetrics(final Promise promise) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                WritableMap metrics = mUpdateManager.getMetrics().toWritableMap();
+                WritableMap queueWaits = Arguments.createMap();
+                for (CodePushScheduler.Lane lane : CodePushScheduler.Lane.values()) {
+                    CodePushScheduler.QueueWaitMetrics queueWaitMetrics = mScheduler.getQueueWaitMetrics(lane);
+                    WritableMap laneMetrics = Arguments.createMap();
+                    laneMetrics.putDouble("taskCount", queueWaitMetrics.getTaskCount());
+                    laneMetrics.putDouble("totalWaitMs", queueWaitMetrics.getTotalWaitMs());
+                    laneMetrics.putDouble("maxWaitMs", queueWaitMetrics.getMaxWaitMs());
+                    queueWaits.putMap(lane.name().toLowerCase(), laneMetrics);
+                }
+                metrics.putMap("queueWaits", queueWaits);
+
+                Map<String, Long> reloadTimings = mCodePush.getReloader().getLastReloadTimings();
+                if (reloadTimings != null) {
+                    WritableMap reloadMs = Arguments.createMap();
+                    for (Map.Entry<String, Long> timing : reloadTimings.entrySet()) {
+                        reloadMs.putDouble(timing.getKey(), timing.getValue());
+                    }
+                    metrics.putMap("reloadMs", reloadMs);
+                }
+
+                promise.resolve(metrics);
+            }
+        });
     }
 
     @ReactMethod
     public void installUpdate(final ReadableMap updatePackage, final int installMode, final int minimumBackgroundDuration, final Promise promise) {
-        AsyncTask<Void, Void, Void> asyncTask = new AsyncTask<Void, Void, Void>() {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
             @Override
-            protected Void doInBackground(Void... params) {
+            public void run() {
                 try {
-                    mUpdateManager.installPackage(CodePushUtils.convertReadableToJsonObject(updatePackage), mSettingsManager.isPendingUpdate(null));
+                    mCodePush.awaitPendingStateTasks();
+                    synchronized (mInstallLock) {
+                        mUpdateManager.installPackage(CodePushUtils.convertReadableToJsonObject(updatePackage), mSettingsManager.isPendingUpdate(null));
 
-                    String pendingHash = CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY);
-                    if (pendingHash == null) {
-                        throw new CodePushUnknownException("Update package to be installed has no hash.");
-                    } else {
-                        mSettingsManager.savePendingUpdate(pendingHash, /* isLoading */false);
+                        String pendingHash = CodePushUtils.tryGetString(updatePackage, CodePushConstants.PACKAGE_HASH_KEY);
+                        if (pendingHash == null) {
+                            throw new CodePushUnknownException("Update package to be installed has no hash.");
+                        } else {
+                            mSettingsManager.savePendingUpdate(pendingHash, /* isLoading */false);
+                            if (mCodePush.isStatusReportMetricsEnabled()) {
+                                mSettingsManager.savePendingUpdateMetrics(pendingHash, mUpdateManager.getMetrics().getSummary());
+                            }
+                        }
+
+                        mCodePush.updateBootRecord();
+                    }
+
+                    // The next restart only has to swap in the loader for the installed bundle. The path is
+                    // read from the package itself, since resolving the bundle to run also marks the binary
+                    // as no longer running and rewrites the boot record.
+                    String bundlePath = mUpdateManager.getCurrentPackageBundlePath(mCodePush.getAssetsBundleFileName());
+                    mCodePush.getReloader().prepareBundleLoader(bundlePath);
+                    if (mCodePush.isBundleWarmupEnabled() && (installMode == CodePushInstallMode.IMMEDIATE.getValue()
+                            || installMode == CodePushInstallMode.ON_NEXT_RESUME.getValue())) {
+                        startBundleWarmup(bundlePath);
                     }
 
                     if (installMode == CodePushInstallMode.ON_NEXT_RESUME.getValue() ||
@@ -721,7 +861,7 @@ public class CodePushNativeModule extends BaseJavaModule {
                                     // resumed, we can detect how long it was in the background.
                                     lastPausedDate = new Date();
 
-                                    if (installMode == CodePushInstallMode.ON_NEXT_SUSPEND.getValue() && mSettingsManager.isPendingUpdate(null)) {
+                                    if (installMode == CodePushInstallMode.ON_NEXT_SUSPEND.getValue() && mSettingsManager.hasPendingUpdate()) {
                                         appSuspendHandler.postDelayed(loadBundleRunnable, minimumBackgroundDuration * 1000);
                                     }
                                 }
@@ -740,12 +880,8 @@ public class CodePushNativeModule extends BaseJavaModule {
                     CodePushUtils.log(e);
                     promise.reject(e);
                 }
-
-                return null;
             }
-        };
-
-        asyncTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        });
     }
 
     @ReactMethod
@@ -758,21 +894,31 @@ public class CodePushNativeModule extends BaseJavaModule {
         }
     }
 
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public boolean isFailedUpdateSync(String packageHash) {
+        return mSettingsManager.isFailedHash(packageHash);
+    }
+
+    private WritableMap getLatestRollbackInfoMap() {
+        JSONObject latestRollbackInfo = mSettingsManager.getLatestRollbackInfo();
+        return latestRollbackInfo == null ? null : CodePushUtils.convertJsonObjectToWritable(latestRollbackInfo);
+    }
+
     @ReactMethod
     public void getLatestRollbackInfo(Promise promise) {
         try {
-            JSONObject latestRollbackInfo = mSettingsManager.getLatestRollbackInfo();
-            if (latestRollbackInfo != null) {
-                promise.resolve(CodePushUtils.convertJsonObjectToWritable(latestRollbackInfo));
-            } else {
-                promise.resolve(null);
-            }
+            promise.resolve(getLatestRollbackInfoMap());
         } catch (CodePushUnknownException e) {
             CodePushUtils.log(e);
             promise.reject(e);
         }
     }
 
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public WritableMap getLatestRollbackInfoSync() {
+        return getLatestRollbackInfoMap();
+    }
+
     @ReactMethod
     public void setLatestRollbackInfo(String packageHash, Promise promise) {
         try {
@@ -784,25 +930,62 @@ public class CodePushNativeModule extends BaseJavaModule {
         }
     }
 
+    private boolean isFirstRunInternal(String packageHash) {
+        mCodePush.awaitPendingStateTasks();
+        return mCodePush.didUpdate()
+                && packageHash != null
+                && packageHash.length() > 0
+                && packageHash.equals(mUpdateManager.getCurrentPackageHash());
+    }
+
     @ReactMethod
     public void isFirstRun(String packageHash, Promise promise) {
         try {
-            boolean isFirstRun = mCodePush.didUpdate()
-                    && packageHash != null
-                    && packageHash.length() > 0
-                    && packageHash.equals(mUpdateManager.getCurrentPackageHash());
-            promise.resolve(isFirstRun);
+            promise.resolve(isFirstRunInternal(packageHash));
         } catch(CodePushUnknownException e) {
             CodePushUtils.log(e);
             promise.reject(e);
         }
     }
 
+    // Answered from memory, so that the JS thread never waits for the state thread. Returns null while the
+    // check after the restart is still running or the status file has not been read yet, JS then calls isFirstRun.
+    @ReactMethod(isBlockingSynchronousMethod = true)
+    public Boolean isFirstRunSync(String packageHash) {
+        String currentPackageHash = mUpdateManager.peekCurrentPackageHash();
+        if (!mCodePush.isUpdateAfterRestartInitialized() || currentPackageHash == null) {
+            return null;
+        }
+
+        return mCodePush.didUpdate()
+                && packageHash != null
+                && packageHash.length() > 0
+                && packageHash.equals(currentPackageHash);
+    }
+
     @ReactMethod
     public void notifyApplicationReady(Promise promise) {
         try {
+            // The pending update must not be removed before the check after the restart has marked it as loading.
+            mCodePush.awaitPendingStateTasks();
+            final boolean hadPendingUpdate = mSettingsManager.getPendingUpdate() != null;
             mSettingsManager.removePendingUpdate();
+            mCodePush.getReloader().onApplicationReady();
             promise.resolve("");
+            // The running package is confirmed, so the previous one is only needed for a later rollback.
+            mScheduler.execute(CodePushScheduler.Lane.IO, new Runnable() {
+                @Override
+                public void run() {
+                    if (hadPendingUpdate) {
+                        // An update installed in the meantime is current now, and must not be marked as confirmed.
+                        synchronized (mInstallLock) {
+                            mCodePush.updateBootRecord();
+                        }
+                    }
+
+                    mUpdateManager.compactPreviousPackage();
+                }
+            });
         } catch(CodePushUnknownException e) {
             CodePushUtils.log(e);
             promise.reject(e);
@@ -810,21 +993,62 @@ public class CodePushNativeModule extends BaseJavaModule {
     }
 
     @ReactMethod
-    public void recordStatusReported(ReadableMap statusReport) {
-        try {
-            mTelemetryManager.recordStatusReported(statusReport);
-        } catch(CodePushUnknownException e) {
-            CodePushUtils.log(e);
-        }
+    public void recordStatusReported(final ReadableMap statusReport) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTelemetryManager.recordStatusReported(statusReport);
+                } catch(CodePushUnknownException e) {
+                    CodePushUtils.log(e);
+                }
+            }
+        });
     }
 
     @ReactMethod
-    public void saveStatusReportForRetry(ReadableMap statusReport) {
-        try {
-            mTelemetryManager.saveStatusReportForRetry(statusReport);
-        } catch(CodePushUnknownException e) {
-            CodePushUtils.log(e);
-        }
+    public void saveStatusReportForRetry(final ReadableMap statusReport) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTelemetryManager.saveStatusReportForRetry(statusReport);
+                } catch(CodePushUnknownException e) {
+                    CodePushUtils.log(e);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void getPendingStatusReports(final int maxCount, final Promise promise) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    promise.resolve(mTelemetryManager.getPendingStatusReports(maxCount));
+                } catch(CodePushUnknownException e) {
+                    CodePushUtils.log(e);
+                    promise.reject(e);
+                }
+            }
+        });
+    }
+
+    @ReactMethod
+    public void recordStatusReportsBatch(final ReadableArray statusReports, final Promise promise) {
+        mScheduler.execute(CodePushScheduler.Lane.METADATA, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mTelemetryManager.recordStatusReportsBatch(statusReports);
+                    promise.resolve(null);
+                } catch(CodePushUnknownException e) {
+                    CodePushUtils.log(e);
+                    promise.reject(e);
+                }
+            }
+        });
     }
 
     @ReactMethod
@@ -873,7 +1097,7 @@ public class CodePushNativeModule extends BaseJavaModule {
             JSONObject currentPackage = mUpdateManager.getCurrentPackage();
             if (currentPackage != null) {
                 currentPackage.put("label", newLabel);
-                mUpdateManager.updateCurrentPackageInfo(currentPackage);
+                mUpdateManager.updateCurrentPackage(currentPackage);
                 CodePushUtils.log("Label updated to: " + newLabel);
                 promise.resolve(null);
             } else {
@@ -885,15 +1109,16 @@ public class CodePushNativeModule extends BaseJavaModule {
     }
 
     public ReactHostDelegate getReactHostDelegate(ReactHostImpl reactHostImpl) {
-        try {
-            Class<?> clazz = reactHostImpl.getClass();
-            Field field = clazz.getDeclaredField("mReactHostDelegate");
-            field.setAccessible(true);
+        Field field = CodePushReloader.getDeclaredField(reactHostImpl.getClass(), "mReactHostDelegate");
+        if (field == null) {
+            return null;
+        }
 
+        try {
             // Get the value of the field for the provided instance
             return (ReactHostDelegate) field.get(reactHostImpl);
-        } catch (NoSuchFieldException | IllegalAccessException e) {
-            e.printStackTrace();
+        } catch (IllegalAccessException e) {
+            CodePushUtils.log(e);
             return null;
         }
     }
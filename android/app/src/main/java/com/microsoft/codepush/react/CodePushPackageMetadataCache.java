@@ -0,0 +1,58 @@
+package com.microsoft.codepush.react;
+
+import com.facebook.react.bridge.WritableMap;
+
+import org.json.JSONObject;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The metadata of installed packages, already converted for the bridge, so that metadata queries do
+ * not convert the same JSON again on every call. The cache is dropped as a whole whenever the
+ * version of the package state store changes.
+ *
+ * A map handed to the bridge is consumed by it, so callers always receive a copy.
+ */
+class CodePushPackageMetadataCache {
+    private final CodePushUpdateManager mUpdateManager;
+    private final Map<String, WritableMap> mPackages = new HashMap<>();
+    private long mStateVersion = -1;
+
+    CodePushPackageMetadataCache(CodePushUpdateManager updateManager) {
+        mUpdateManager = updateManager;
+    }
+
+    /**
+     * Returns a copy of the converted metadata of the package, or null if it is not installed.
+     */
+    synchronized WritableMap getPackage(String packageHash) {
+        if (packageHash == null) {
+            return null;
+        }
+
+        long stateVersion = mUpdateManager.getPackageStateVersion();
+        if (stateVersion != mStateVersion) {
+            mPackages.clear();
+            mStateVersion = stateVersion;
+        }
+
+        WritableMap packageMetadata = mPackages.get(packageHash);
+        if (packageMetadata == null) {
+            JSONObject packageJson = mUpdateManager.getPackage(packageHash);
+            if (packageJson == null) {
+                return null;
+            }
+
+            packageMetadata = CodePushUtils.convertJsonObjectToWritable(packageJson);
+            // Reading the package may have picked up a change made outside the store, which moves the version on.
+            if (mUpdateManager.getPackageStateVersion() != mStateVersion) {
+                return packageMetadata;
+            }
+
+            mPackages.put(packageHash, packageMetadata);
+        }
+
+        return packageMetadata.copy();
+    }
+}
@@ -0,0 +1,145 @@
+package com.microsoft.codepush.react;
+
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.facebook.react.bridge.JSBundleLoader;
+
+import java.lang.reflect.Field;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Supports reloading the JS bundle in place. The private React Native fields that hold the bundle
+ * loader are looked up once per process, and the loader for the next reload is created when the
+ * update is installed, so that a restart only has to swap it in.
+ *
+ * Each reload records how long its phases took: resolving the React host, setting the bundle
+ * loader, triggering the reload, and the time until the new bundle calls notifyApplicationReady.
+ * Lives on {@link CodePush}, since the native module is recreated by the reload it measures.
+ */
+class CodePushReloader {
+    static final String PHASE_RESOLVE = "resolve";
+    static final String PHASE_SET_LOADER = "setLoader";
+    static final String PHASE_RELOAD = "reload";
+    static final String PHASE_APPLICATION_READY = "notifyApplicationReady";
+
+    // Holds the result of a field lookup, including a failed one, which ConcurrentHashMap cannot store as null.
+    private static class CachedField {
+        final Field field;
+
+        CachedField(Field field) {
+            this.field = field;
+        }
+    }
+
+    private static final Map<String, CachedField> sFields = new ConcurrentHashMap<>();
+
+    private final Context mContext;
+    private String mPreparedBundleFile;
+    private JSBundleLoader mPreparedBundleLoader;
+
+    private boolean mIsAwaitingApplicationReady = false;
+    private long mPhaseStartTime;
+    private final Map<String, Long> mPhaseDurations = new LinkedHashMap<>();
+    private Map<String, Long> mLastReloadTimings;
+
+    CodePushReloader(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Returns the accessible field declared by the class, or null if it has no such field. The
+     * lookup is only done once per class and field name.
+     */
+    static Field getDeclaredField(Class<?> clazz, String fieldName) {
+        String key = clazz.getName() + "#" + fieldName;
+        CachedField cachedField = sFields.get(key);
+        if (cachedField == null) {
+            Field field = null;
+            try {
+                field = clazz.getDeclaredField(fieldName);
+                field.setAccessible(true);
+            } catch (NoSuchFieldException | SecurityException e) {
+                CodePushUtils.log("Field '" + fieldName + "' not found on " + clazz.getName());
+            }
+
+            cachedField = new CachedField(field);
+            sFields.put(key, cachedField);
+        }
+
+        return cachedField.field;
+    }
+
+    /**
+     * Creates the loader for the bundle ahead of the reload that will need it.
+     */
+    synchronized void prepareBundleLoader(String bundleFile) {
+        if (bundleFile == null || bundleFile.equals(mPreparedBundleFile)) {
+            return;
+        }
+
+        mPreparedBundleLoader = createBundleLoader(bundleFile);
+        mPreparedBundleFile = bundleFile;
+    }
+
+    /**
+     * Returns the prepared loader if it is for the bundle, or creates a new one otherwise.
+     */
+    synchronized JSBundleLoader getBundleLoader(String bundleFile) {
+        if (bundleFile.equals(mPreparedBundleFile)) {
+            return mPreparedBundleLoader;
+        }
+
+        return createBundleLoader(bundleFile);
+    }
+
+    private JSBundleLoader createBundleLoader(String bundleFile) {
+        if (bundleFile.toLowerCase().startsWith("assets://")) {
+            return JSBundleLoader.createAssetLoader(mContext, bundleFile, false);
+        } else {
+            return JSBundleLoader.createFileLoader(bundleFile);
+        }
+    }
+
+    synchronized void startReload() {
+        mPhaseDurations.clear();
+        mPhaseStartTime = SystemClock.elapsedRealtime();
+        mIsAwaitingApplicationReady = false;
+    }
+
+    /**
+     * Records the time since the previous phase ended, or since the reload started.
+     */
+    synchronized void endPhase(String phase) {
+        long now = SystemClock.elapsedRealtime();
+        mPhaseDurations.put(phase, now - mPhaseStartTime);
+        mPhaseStartTime = now;
+        if (PHASE_RELOAD.equals(phase)) {
+            mIsAwaitingApplicationReady = true;
+        }
+    }
+
+    /**
+     * Completes the timings of the last reload with its first notifyApplicationReady call.
+     */
+    synchronized void onApplicationReady() {
+        if (!mIsAwaitingApplicationReady) {
+            return;
+        }
+
+        endPhase(PHASE_APPLICATION_READY);
+        mIsAwaitingApplicationReady = false;
+        mLastReloadTimings = new LinkedHashMap<>(mPhaseDurations);
+        CodePushUtils.log("Reload phase timings in ms: " + mLastReloadTimings);
+    }
+
+    /**
+     * Returns the phase durations in milliseconds of the last reload that reached
+     * notifyApplicationReady, or null if there was none in this process.
+     */
+    synchronized Map<String, Long> getLastReloadTimings() {
+        return mLastReloadTimings == null ? null : new LinkedHashMap<>(mLastReloadTimings);
+    }
+}
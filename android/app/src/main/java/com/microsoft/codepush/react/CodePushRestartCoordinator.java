@@ -0,0 +1,183 @@
+package com.microsoft.codepush.react;
+
+/**
+ * Decides when a requested restart runs. Requests come from the bridge, lifecycle listeners and
+ * Handler callbacks, so every transition is made under the coordinator's lock, while the restart
+ * itself runs outside of it.
+ *
+ * Any number of requests made while restarts are disallowed, or while a restart is being decided,
+ * collapse into a single pending request. A request that is only for a pending update is merged
+ * with an unconditional one into an unconditional restart. Requests made after a reload has been
+ * triggered are dropped, since the reload already loads the latest update. A restart that did not
+ * trigger a reload, e.g. because there was no React host or activity to reload, leaves the
+ * coordinator as if it had not been requested. So does a reload that keeps the native module, and
+ * with it this coordinator, in place.
+ */
+class CodePushRestartCoordinator {
+    enum State {
+        // Restarts run as soon as they are requested.
+        ALLOWED,
+        // Restarts are disallowed and none has been requested.
+        DISALLOWED,
+        // Restarts are disallowed and one has been requested.
+        PENDING,
+        // A restart is running, or has triggered a reload.
+        IN_PROGRESS
+    }
+
+    interface RestartHandler {
+        /**
+         * Restarts the app, and returns whether a reload was triggered. Returns false if there is no
+         * pending update, or nothing that could be reloaded.
+         */
+        boolean restart(boolean onlyIfUpdateIsPending);
+    }
+
+    private final RestartHandler mRestartHandler;
+    private State mState = State.ALLOWED;
+    // Whether restarts are allowed once the restart in progress finishes without a reload.
+    private boolean mIsAllowedAfterRestart = true;
+    private boolean mHasPendingRequest = false;
+    private boolean mPendingRequestOnlyIfUpdateIsPending;
+
+    CodePushRestartCoordinator(RestartHandler restartHandler) {
+        mRestartHandler = restartHandler;
+    }
+
+    synchronized State getState() {
+        return mState;
+    }
+
+    void requestRestart(boolean onlyIfUpdateIsPending) {
+        synchronized (this) {
+            switch (mState) {
+                case ALLOWED:
+                    mState = State.IN_PROGRESS;
+                    mIsAllowedAfterRestart = true;
+                    break;
+                case DISALLOWED:
+                    mState = State.PENDING;
+                    // Fall through
+                case PENDING:
+                    addPendingRequest(onlyIfUpdateIsPending);
+                    CodePushUtils.log("Restart request queued until restarts are re-allowed");
+                    return;
+                case IN_PROGRESS:
+                    addPendingRequest(onlyIfUpdateIsPending);
+                    CodePushUtils.log("Restart request coalesced with the restart in progress");
+                    return;
+            }
+        }
+
+        runRestart(onlyIfUpdateIsPending);
+    }
+
+    void allow() {
+        boolean onlyIfUpdateIsPending;
+        synchronized (this) {
+            CodePushUtils.log("Re-allowing restarts");
+            if (mState == State.IN_PROGRESS) {
+                mIsAllowedAfterRestart = true;
+                return;
+            } else if (mState != State.PENDING) {
+                mState = State.ALLOWED;
+                return;
+            }
+
+            CodePushUtils.log("Executing pending restart");
+            onlyIfUpdateIsPending = takePendingRequest();
+            mState = State.IN_PROGRESS;
+            mIsAllowedAfterRestart = true;
+        }
+
+        runRestart(onlyIfUpdateIsPending);
+    }
+
+    synchronized void disallow() {
+        CodePushUtils.log("Disallowing restarts");
+        if (mState == State.IN_PROGRESS) {
+            mIsAllowedAfterRestart = false;
+        } else if (mState == State.ALLOWED) {
+            mState = State.DISALLOWED;
+        }
+    }
+
+    synchronized void clearPendingRequest() {
+        mHasPendingRequest = false;
+        if (mState == State.PENDING) {
+            mState = State.DISALLOWED;
+        }
+    }
+
+    /**
+     * Called when a restart that had triggered a reload failed to complete it later on, e.g. on the
+     * UI thread, so that the coordinator does not stay in progress.
+     */
+    void onReloadFailed() {
+        boolean onlyIfUpdateIsPending;
+        synchronized (this) {
+            if (mState != State.IN_PROGRESS || !finishRestartWithoutReload()) {
+                return;
+            }
+
+            onlyIfUpdateIsPending = takePendingRequest();
+        }
+
+        runRestart(onlyIfUpdateIsPending);
+    }
+
+    /**
+     * Called once a reload that does not recreate the native module, i.e. recreating the activity,
+     * has run. Requests made in the meantime are dropped, since the reload loaded the latest update.
+     */
+    synchronized void onReloadCompleted() {
+        if (mState != State.IN_PROGRESS) {
+            return;
+        }
+
+        mHasPendingRequest = false;
+        mState = mIsAllowedAfterRestart ? State.ALLOWED : State.DISALLOWED;
+    }
+
+    private void runRestart(boolean onlyIfUpdateIsPending) {
+        while (!mRestartHandler.restart(onlyIfUpdateIsPending)) {
+            synchronized (this) {
+                if (!finishRestartWithoutReload()) {
+                    return;
+                }
+
+                // Requests made while this one was being decided, run them as one.
+                onlyIfUpdateIsPending = takePendingRequest();
+            }
+        }
+
+        // A reload that recreates the native module recreates this coordinator too, so it stays in progress
+        // until then, or until onReloadCompleted or onReloadFailed is called.
+    }
+
+    // Leaves the in progress state after a restart without a reload, and returns true if a request made
+    // in the meantime should run right away instead.
+    private boolean finishRestartWithoutReload() {
+        if (!mIsAllowedAfterRestart) {
+            mState = mHasPendingRequest ? State.PENDING : State.DISALLOWED;
+            return false;
+        } else if (!mHasPendingRequest) {
+            mState = State.ALLOWED;
+            return false;
+        }
+
+        return true;
+    }
+
+    private void addPendingRequest(boolean onlyIfUpdateIsPending) {
+        mPendingRequestOnlyIfUpdateIsPending = mHasPendingRequest
+                ? mPendingRequestOnlyIfUpdateIsPending && onlyIfUpdateIsPending
+                : onlyIfUpdateIsPending;
+        mHasPendingRequest = true;
+    }
+
+    private boolean takePendingRequest() {
+        mHasPendingRequest = false;
+        return mPendingRequestOnlyIfUpdateIsPending;
+    }
+}
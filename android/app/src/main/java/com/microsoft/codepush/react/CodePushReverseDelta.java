@@ -0,0 +1,218 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores a package as reverse patches against the package that replaced it, so that keeping the
+ * previous package around for a rollback only costs the size of what changed between the two.
+ *
+ * A compacted package folder keeps its metadata file and a "reverse_delta" folder holding a manifest
+ * and, under "files", a bsdiff patch from the newer file for every changed file, or the file itself
+ * for files the newer package does not have. Unchanged files are taken from the newer package again
+ * when the package is restored.
+ */
+class CodePushReverseDelta {
+    private static final String FILES_FOLDER_NAME = "files";
+    private static final String FOLDER_NAME = "reverse_delta";
+    private static final String MANIFEST_FILE_NAME = "manifest.json";
+    // bsdiff holds both files in memory, plus two int arrays the size of the older file for its suffix
+    // sort and buffers the size of the newer file. Files are only diffed if that fits in a quarter of
+    // the heap, and never above this size, larger files are kept as they are.
+    private static final long MAX_DIFF_FILE_SIZE = 4 * 1024 * 1024;
+    private static final int DIFF_MEMORY_PER_BASE_BYTE = 9;
+    private static final int DIFF_MEMORY_PER_FILE_BYTE = 3;
+    private static final String PATCH_FILE_EXTENSION = ".patch";
+
+    private static final String BASE_PACKAGE_HASH_KEY = "basePackageHash";
+    private static final String PATCHED_FILES_KEY = "patchedFiles";
+    private static final String STORED_FILES_KEY = "storedFiles";
+    private static final String UNCHANGED_FILES_KEY = "unchangedFiles";
+
+    static boolean isCompacted(String packageFolderPath) {
+        return FileUtils.fileAtPathExists(getManifestPath(packageFolderPath));
+    }
+
+    /**
+     * Writes reverse patches of packageFolderPath against baseFolderPath to deltaFolderPath, which
+     * must not be inside the package folder. Only reads the two packages, see {@link #applyDelta}.
+     */
+    static void createDelta(String packageFolderPath, String baseFolderPath, String basePackageHash, String deltaFolderPath) throws IOException {
+        FileUtils.deleteDirectoryAtPath(deltaFolderPath);
+        List<String> relativeFilePaths = new ArrayList<>();
+        addFilesInFolder(new File(packageFolderPath), "", relativeFilePaths);
+        String filesFolderPath = CodePushUtils.appendPathComponent(deltaFolderPath, FILES_FOLDER_NAME);
+        new File(filesFolderPath).mkdirs();
+
+        long maxDiffMemory = Runtime.getRuntime().maxMemory() / 4;
+        JSONObject patchedFiles = new JSONObject();
+        JSONArray storedFiles = new JSONArray();
+        JSONArray unchangedFiles = new JSONArray();
+        long deltaSize = 0;
+        for (String relativeFilePath : relativeFilePaths) {
+            File file = new File(packageFolderPath, relativeFilePath);
+            File baseFile = new File(baseFolderPath, relativeFilePath);
+            String fileHash = null;
+            if (baseFile.isFile() && baseFile.length() == file.length()) {
+                fileHash = CodePushUpdateUtils.computeHash(new FileInputStream(file));
+                if (fileHash.equals(CodePushUpdateUtils.computeHash(new FileInputStream(baseFile)))) {
+                    unchangedFiles.put(relativeFilePath);
+                    continue;
+                }
+            }
+
+            if (baseFile.isFile() && canDiff(baseFile.length(), file.length(), maxDiffMemory)) {
+                File patchFile = new File(filesFolderPath, relativeFilePath + PATCH_FILE_EXTENSION);
+                patchFile.getParentFile().mkdirs();
+                boolean isDiffed;
+                try {
+                    BsPatch.diff(baseFile, file, patchFile);
+                    isDiffed = true;
+                } catch (OutOfMemoryError e) {
+                    // The file is stored as it is below, like files that are too large to diff.
+                    CodePushUtils.log("Not enough memory to diff " + relativeFilePath + ", keeping it as it is.");
+                    isDiffed = false;
+                }
+
+                if (isDiffed && patchFile.length() < file.length()) {
+                    if (fileHash == null) {
+                        fileHash = CodePushUpdateUtils.computeHash(new FileInputStream(file));
+                    }
+
+                    CodePushUtils.setJSONValueForKey(patchedFiles, relativeFilePath, fileHash);
+                    deltaSize += patchFile.length();
+                    continue;
+                }
+
+                patchFile.delete();
+            }
+
+            File storedFile = new File(filesFolderPath, relativeFilePath);
+            storedFile.getParentFile().mkdirs();
+            CodePushBlobStore.linkFile(file, storedFile);
+
+            storedFiles.put(relativeFilePath);
+            deltaSize += storedFile.length();
+        }
+
+        JSONObject manifest = new JSONObject();
+        CodePushUtils.setJSONValueForKey(manifest, BASE_PACKAGE_HASH_KEY, basePackageHash);
+        CodePushUtils.setJSONValueForKey(manifest, PATCHED_FILES_KEY, patchedFiles);
+        CodePushUtils.setJSONValueForKey(manifest, STORED_FILES_KEY, storedFiles);
+        CodePushUtils.setJSONValueForKey(manifest, UNCHANGED_FILES_KEY, unchangedFiles);
+        FileUtils.writeStringToFileAtomically(manifest.toString(), CodePushUtils.appendPathComponent(deltaFolderPath, MANIFEST_FILE_NAME));
+        CodePushUtils.log("Created a " + deltaSize + " bytes reverse delta of " + packageFolderPath + ".");
+    }
+
+    /**
+     * Replaces the contents of packageFolderPath with the reverse delta that {@link #createDelta}
+     * wrote to deltaFolderPath.
+     */
+    static void applyDelta(String packageFolderPath, String deltaFolderPath) throws IOException {
+        // The package is compacted as soon as the delta folder is in place, the files it replaces
+        // are removed afterwards and again by restore if that gets interrupted.
+        String packageDeltaFolderPath = CodePushUtils.appendPathComponent(packageFolderPath, FOLDER_NAME);
+        FileUtils.deleteDirectoryAtPath(packageDeltaFolderPath);
+        if (!new File(deltaFolderPath).renameTo(new File(packageDeltaFolderPath))) {
+            throw new IOException("Unable to move the reverse delta to " + packageDeltaFolderPath + ".");
+        }
+
+        deleteReplacedFiles(packageFolderPath);
+        CodePushUtils.log("Compacted " + packageFolderPath + " into its reverse delta.");
+    }
+
+    static boolean canDiff(long baseFileSize, long fileSize, long maxDiffMemory) {
+        return baseFileSize <= MAX_DIFF_FILE_SIZE && fileSize <= MAX_DIFF_FILE_SIZE
+                && baseFileSize * DIFF_MEMORY_PER_BASE_BYTE + fileSize * DIFF_MEMORY_PER_FILE_BYTE <= maxDiffMemory;
+    }
+
+    /**
+     * Rebuilds the files of a compacted package from its reverse delta and baseFolderPath.
+     */
+    static void restore(String packageFolderPath, String baseFolderPath) throws IOException {
+        String deltaFolderPath = CodePushUtils.appendPathComponent(packageFolderPath, FOLDER_NAME);
+        String filesFolderPath = CodePushUtils.appendPathComponent(deltaFolderPath, FILES_FOLDER_NAME);
+        JSONObject manifest = CodePushUtils.getJsonObjectFromFile(getManifestPath(packageFolderPath));
+        if (!FileUtils.fileAtPathExists(baseFolderPath)) {
+            throw new CodePushUnknownException("Unable to restore " + packageFolderPath + ", its base package "
+                    + manifest.optString(BASE_PACKAGE_HASH_KEY) + " is missing.");
+        }
+
+        deleteReplacedFiles(packageFolderPath);
+        try {
+            JSONArray unchangedFiles = manifest.getJSONArray(UNCHANGED_FILES_KEY);
+            for (int i = 0; i < unchangedFiles.length(); i++) {
+                String relativeFilePath = unchangedFiles.getString(i);
+                new File(packageFolderPath, relativeFilePath).getParentFile().mkdirs();
+                CodePushBlobStore.linkFile(new File(baseFolderPath, relativeFilePath), new File(packageFolderPath, relativeFilePath));
+            }
+
+            JSONObject patchedFiles = manifest.getJSONObject(PATCHED_FILES_KEY);
+            JSONArray patchedFilePaths = patchedFiles.names();
+            for (int i = 0; patchedFilePaths != null && i < patchedFilePaths.length(); i++) {
+                String relativeFilePath = patchedFilePaths.getString(i);
+                File restoredFile = new File(packageFolderPath, relativeFilePath);
+                restoredFile.getParentFile().mkdirs();
+                BsPatch.patch(new File(baseFolderPath, relativeFilePath), new File(filesFolderPath, relativeFilePath + PATCH_FILE_EXTENSION), restoredFile);
+                if (!patchedFiles.getString(relativeFilePath).equals(CodePushUpdateUtils.computeHash(new FileInputStream(restoredFile)))) {
+                    throw new CodePushUnknownException("Restored " + relativeFilePath + " does not match its original contents.");
+                }
+            }
+
+            JSONArray storedFiles = manifest.getJSONArray(STORED_FILES_KEY);
+            for (int i = 0; i < storedFiles.length(); i++) {
+                String relativeFilePath = storedFiles.getString(i);
+                File restoredFile = new File(packageFolderPath, relativeFilePath);
+                restoredFile.getParentFile().mkdirs();
+                CodePushBlobStore.linkFile(new File(filesFolderPath, relativeFilePath), restoredFile);
+            }
+        } catch (JSONException e) {
+            throw new CodePushMalformedDataException(getManifestPath(packageFolderPath), e);
+        }
+
+        FileUtils.deleteDirectoryAtPath(deltaFolderPath);
+        CodePushUtils.log("Restored " + packageFolderPath + " from its reverse delta.");
+    }
+
+    // Lists every file of the package except the metadata file, including files that are excluded from the package hash.
+    private static void addFilesInFolder(File folder, String pathPrefix, List<String> relativeFilePaths) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String relativeFilePath = pathPrefix + file.getName();
+            if (file.isDirectory()) {
+                addFilesInFolder(file, relativeFilePath + "/", relativeFilePaths);
+            } else if (!relativeFilePath.equals(CodePushConstants.PACKAGE_FILE_NAME)) {
+                relativeFilePaths.add(relativeFilePath);
+            }
+        }
+    }
+
+    private static String getManifestPath(String packageFolderPath) {
+        return CodePushUtils.appendPathComponent(CodePushUtils.appendPathComponent(packageFolderPath, FOLDER_NAME), MANIFEST_FILE_NAME);
+    }
+
+    // Removes everything but the metadata file and the delta itself.
+    private static void deleteReplacedFiles(String packageFolderPath) {
+        File[] files = new File(packageFolderPath).listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (!file.getName().equals(CodePushConstants.PACKAGE_FILE_NAME) && !file.getName().equals(FOLDER_NAME)) {
+                FileUtils.deleteFileOrFolderSilently(file);
+            }
+        }
+    }
+}
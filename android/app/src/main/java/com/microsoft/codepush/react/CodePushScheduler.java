@@ -0,0 +1,118 @@
+package com.microsoft.codepush.react;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background threads owned by CodePush, so that its work does not compete with the app for
+ * AsyncTask.THREAD_POOL_EXECUTOR. Quick metadata and status queries run on their own lane and are
+ * never queued behind a download, which runs on the I/O lane at background thread priority.
+ */
+class CodePushScheduler {
+    static final int DEFAULT_IO_THREAD_COUNT = 1;
+    private static final int METADATA_THREAD_COUNT = 2;
+    // Idle lane threads are stopped after this long.
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    enum Lane {
+        // getUpdateMetadata, getNewStatusReport, installUpdate and other short state queries.
+        METADATA("CodePushMetadata", Process.THREAD_PRIORITY_DEFAULT),
+        // Downloads, patching and package compaction.
+        IO("CodePushIO", Process.THREAD_PRIORITY_BACKGROUND);
+
+        private final String mThreadName;
+        private final int mThreadPriority;
+
+        Lane(String threadName, int threadPriority) {
+            mThreadName = threadName;
+            mThreadPriority = threadPriority;
+        }
+    }
+
+    /**
+     * How long tasks of a lane waited for a thread, measured from submission to the start of the task.
+     */
+    static class QueueWaitMetrics {
+        private final AtomicLong mTaskCount = new AtomicLong();
+        private final AtomicLong mTotalWaitMs = new AtomicLong();
+        private final AtomicLong mMaxWaitMs = new AtomicLong();
+
+        private void record(long waitMs) {
+            mTaskCount.incrementAndGet();
+            mTotalWaitMs.addAndGet(waitMs);
+            long maxWaitMs;
+            while (waitMs > (maxWaitMs = mMaxWaitMs.get()) && !mMaxWaitMs.compareAndSet(maxWaitMs, waitMs)) {
+                // Retry until the maximum is updated or another task recorded a longer wait.
+            }
+        }
+
+        long getTaskCount() {
+            return mTaskCount.get();
+        }
+
+        long getTotalWaitMs() {
+            return mTotalWaitMs.get();
+        }
+
+        long getMaxWaitMs() {
+            return mMaxWaitMs.get();
+        }
+    }
+
+    private final ThreadPoolExecutor mMetadataExecutor;
+    private final ThreadPoolExecutor mIoExecutor;
+    private final QueueWaitMetrics mMetadataQueueWaitMetrics = new QueueWaitMetrics();
+    private final QueueWaitMetrics mIoQueueWaitMetrics = new QueueWaitMetrics();
+
+    CodePushScheduler(int ioThreadCount) {
+        mMetadataExecutor = createExecutor(Lane.METADATA, METADATA_THREAD_COUNT);
+        mIoExecutor = createExecutor(Lane.IO, Math.max(1, ioThreadCount));
+    }
+
+    void execute(Lane lane, final Runnable task) {
+        final QueueWaitMetrics queueWaitMetrics = getQueueWaitMetrics(lane);
+        final long submitTime = SystemClock.elapsedRealtime();
+        getExecutor(lane).execute(new Runnable() {
+            @Override
+            public void run() {
+                queueWaitMetrics.record(SystemClock.elapsedRealtime() - submitTime);
+                task.run();
+            }
+        });
+    }
+
+    QueueWaitMetrics getQueueWaitMetrics(Lane lane) {
+        return lane == Lane.IO ? mIoQueueWaitMetrics : mMetadataQueueWaitMetrics;
+    }
+
+    private ThreadPoolExecutor getExecutor(Lane lane) {
+        return lane == Lane.IO ? mIoExecutor : mMetadataExecutor;
+    }
+
+    private static ThreadPoolExecutor createExecutor(final Lane lane, int threadCount) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threadCount, threadCount, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            private final AtomicInteger mThreadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(lane.mThreadPriority);
+                        runnable.run();
+                    }
+                }, lane.mThreadName + "-" + mThreadCount.incrementAndGet());
+            }
+        });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
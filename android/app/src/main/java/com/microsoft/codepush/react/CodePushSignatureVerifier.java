@@ -0,0 +1,151 @@
+package com.microsoft.codepush.react;
+
+import android.util.Base64;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.Ed25519Verifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jwt.SignedJWT;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.text.ParseException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Verifies the JWT signature of a signed release against the configured public key, which can be
+ * an RSA, an ECDSA P-256 or an Ed25519 key. The PEM is parsed and the verifier is created once per
+ * key in the process, and then reused for every update and every package of a patch chain.
+ *
+ * Ed25519 signatures are verified by Tink, which nimbus-jose-jwt only uses if the app depends on it.
+ */
+class CodePushSignatureVerifier {
+    static final String KEY_TYPE_RSA = "RSA";
+    static final String KEY_TYPE_EC = "EC";
+    static final String KEY_TYPE_ED25519 = "Ed25519";
+
+    // Object identifiers of the key algorithms and of the P-256 curve, as DER-encoded in an X.509 public key.
+    private static final byte[] EC_KEY_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x02, 0x01 };
+    private static final byte[] P256_CURVE_OID = { 0x2a, (byte) 0x86, 0x48, (byte) 0xce, 0x3d, 0x03, 0x01, 0x07 };
+    // An X.509 Ed25519 public key is this fixed prefix followed by the 32 bytes of the key.
+    private static final byte[] ED25519_KEY_PREFIX = { 0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00 };
+    private static final int ED25519_KEY_LENGTH = 32;
+    private static final String TINK_ED25519_VERIFY_CLASS_NAME = "com.google.crypto.tink.subtle.Ed25519Verify";
+
+    private static final Map<String, CodePushSignatureVerifier> sVerifiers = new ConcurrentHashMap<>();
+
+    private final String mKeyType;
+    private final JWSVerifier mVerifier;
+
+    /**
+     * Returns the verifier for the PEM-encoded public key, which is only created the first time.
+     */
+    static CodePushSignatureVerifier forPublicKey(String stringPublicKey) {
+        CodePushSignatureVerifier verifier = sVerifiers.get(stringPublicKey);
+        if (verifier == null) {
+            verifier = new CodePushSignatureVerifier(stringPublicKey);
+            sVerifiers.put(stringPublicKey, verifier);
+        }
+
+        return verifier;
+    }
+
+    CodePushSignatureVerifier(String stringPublicKey) {
+        byte[] encodedKey;
+        try {
+            encodedKey = Base64.decode(stringPublicKey
+                    .replace("-----BEGIN PUBLIC KEY-----", "")
+                    .replace("-----END PUBLIC KEY-----", "")
+                    .replaceAll("\\s", ""), Base64.DEFAULT);
+        } catch (IllegalArgumentException e) {
+            throw new CodePushInvalidPublicKeyException("The public key is not valid Base64", e);
+        }
+
+        try {
+            if (isEd25519Key(encodedKey)) {
+                mKeyType = KEY_TYPE_ED25519;
+                mVerifier = createEd25519Verifier(Arrays.copyOfRange(encodedKey, ED25519_KEY_PREFIX.length, encodedKey.length));
+            } else if (indexOf(encodedKey, EC_KEY_OID) >= 0) {
+                if (indexOf(encodedKey, P256_CURVE_OID) < 0) {
+                    throw new CodePushInvalidPublicKeyException("Only ECDSA public keys on the P-256 curve are supported");
+                }
+
+                mKeyType = KEY_TYPE_EC;
+                mVerifier = new ECDSAVerifier((ECPublicKey) KeyFactory.getInstance(KEY_TYPE_EC)
+                        .generatePublic(new X509EncodedKeySpec(encodedKey)));
+            } else {
+                mKeyType = KEY_TYPE_RSA;
+                mVerifier = new RSASSAVerifier((RSAPublicKey) KeyFactory.getInstance(KEY_TYPE_RSA)
+                        .generatePublic(new X509EncodedKeySpec(encodedKey)));
+            }
+        } catch (GeneralSecurityException | JOSEException | ClassCastException e) {
+            throw new CodePushInvalidPublicKeyException("Unable to parse the public key", e);
+        }
+    }
+
+    String getKeyType() {
+        return mKeyType;
+    }
+
+    /**
+     * Returns the claims of the JWT if it was signed with the private key of this verifier's key, or
+     * null otherwise.
+     */
+    Map<String, Object> verify(String jwt) {
+        try {
+            SignedJWT signedJWT = SignedJWT.parse(jwt);
+            if (!signedJWT.verify(mVerifier)) {
+                return null;
+            }
+
+            Map<String, Object> claims = signedJWT.getJWTClaimsSet().getClaims();
+            CodePushLog.debug("JWT verification succeeded, payload content: {}", claims);
+            return claims;
+        } catch (ParseException | JOSEException e) {
+            // E.g. a JWT signed with an algorithm that does not match the key.
+            CodePushUtils.log("Unable to verify the JWT signature: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static JWSVerifier createEd25519Verifier(byte[] key) throws JOSEException {
+        try {
+            Class.forName(TINK_ED25519_VERIFY_CLASS_NAME);
+        } catch (ClassNotFoundException e) {
+            throw new CodePushInvalidPublicKeyException(
+                    "Ed25519 public keys require the \"com.google.crypto.tink:tink-android\" dependency", e);
+        }
+
+        return new Ed25519Verifier(new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(key)).build());
+    }
+
+    private static boolean isEd25519Key(byte[] encodedKey) {
+        return encodedKey.length == ED25519_KEY_PREFIX.length + ED25519_KEY_LENGTH
+                && indexOf(encodedKey, ED25519_KEY_PREFIX) == 0;
+    }
+
+    private static int indexOf(byte[] bytes, byte[] pattern) {
+        for (int i = 0; i + pattern.length <= bytes.length; i++) {
+            int j = 0;
+            while (j < pattern.length && bytes[i + j] == pattern[j]) {
+                j++;
+            }
+
+            if (j == pattern.length) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+}
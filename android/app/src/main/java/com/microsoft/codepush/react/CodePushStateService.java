@@ -0,0 +1,111 @@
+package com.microsoft.codepush.react;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Runs the work that reads or changes the persisted update state - the status file, the package
+ * metadata and the CodePush SharedPreferences - on a single background thread, so that the
+ * constructor, getJSBundleFile and the lifecycle and restart paths never touch the disk on the
+ * main thread. Tasks run one at a time in submission order, so a task always sees the state left
+ * by every task submitted before it.
+ */
+class CodePushStateService {
+    private static final String THREAD_NAME = "CodePushState";
+
+    private volatile Thread mThread;
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            mThread = new Thread(runnable, THREAD_NAME);
+            return mThread;
+        }
+    });
+
+    /**
+     * Queues the task, or runs it directly if called from the state thread.
+     */
+    void execute(Runnable task) {
+        if (isStateThread()) {
+            task.run();
+        } else {
+            mExecutor.execute(task);
+        }
+    }
+
+    /**
+     * Runs the task after every previously submitted task and returns its result, blocking the
+     * calling thread without doing any I/O on it. Runs the task directly if called from the state thread.
+     */
+    <T> T call(Callable<T> task) {
+        if (isStateThread()) {
+            try {
+                return task.call();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new CodePushUnknownException("Unable to run CodePush state task.", e);
+            }
+        }
+
+        return await(mExecutor.submit(task));
+    }
+
+    /**
+     * Queues the task and returns its future, so that a caller can later wait for this task alone
+     * with {@link #await} rather than for every task queued after it.
+     */
+    <T> Future<T> submit(Callable<T> task) {
+        return mExecutor.submit(task);
+    }
+
+    /**
+     * Waits for a task returned by {@link #submit} and returns its result. Must not be called from
+     * the state thread before the task has run.
+     */
+    <T> T await(Future<T> future) {
+        try {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    T result = future.get();
+                    if (interrupted) {
+                        Thread.currentThread().interrupt();
+                    }
+
+                    return result;
+                } catch (InterruptedException e) {
+                    // The state change must not be abandoned halfway, wait for it and restore the flag afterwards.
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+
+            throw new CodePushUnknownException("Unable to run CodePush state task.", cause);
+        }
+    }
+
+    /**
+     * Waits until every previously submitted task has finished.
+     */
+    void awaitPendingTasks() {
+        call(new Callable<Void>() {
+            @Override
+            public Void call() {
+                return null;
+            }
+        });
+    }
+
+    boolean isStateThread() {
+        return Thread.currentThread() == mThread;
+    }
+}
@@ -0,0 +1,167 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Status reports that could not be sent yet, kept in a file with one JSON entry per line so that
+ * saving a report only appends to it. The file is rewritten when reports are removed, and when it
+ * grows past {@link #MAX_REPORTS} entries or {@link #MAX_FILE_BYTES}, in which case the oldest
+ * reports are dropped. A partially written last line, e.g. after the process was killed, is skipped.
+ *
+ * Each report is identified by an id that is unique within the queue, which is used to remove it
+ * once it has been sent.
+ */
+class CodePushStatusReportQueue {
+    static final int MAX_REPORTS = 50;
+    static final long MAX_FILE_BYTES = 128 * 1024;
+    private static final String ID_KEY = "id";
+    private static final String REPORT_KEY = "report";
+
+    static class Entry {
+        final long id;
+        final JSONObject report;
+
+        Entry(long id, JSONObject report) {
+            this.id = id;
+            this.report = report;
+        }
+    }
+
+    private final String mFilePath;
+    // Loaded on first use, ordered from the oldest to the most recent report.
+    private List<Entry> mEntries;
+    private long mNextId;
+
+    CodePushStatusReportQueue(String filePath) {
+        mFilePath = filePath;
+    }
+
+    synchronized void append(JSONObject report) {
+        List<Entry> entries = getEntries();
+        String reportString = report.toString();
+        for (Entry entry : entries) {
+            if (entry.report.toString().equals(reportString)) {
+                // The report is already waiting to be sent.
+                return;
+            }
+        }
+
+        Entry entry = new Entry(mNextId++, report);
+        entries.add(entry);
+        String line = toLine(entry) + "\n";
+        if (entries.size() > MAX_REPORTS || new File(mFilePath).length() + line.length() > MAX_FILE_BYTES) {
+            // Dropping down to half the size leaves room for further appends before the next rewrite.
+            long totalBytes = 0;
+            for (Entry queuedEntry : entries) {
+                totalBytes += toLine(queuedEntry).length() + 1;
+            }
+
+            while (entries.size() > 1 && (entries.size() > MAX_REPORTS || totalBytes > MAX_FILE_BYTES / 2)) {
+                totalBytes -= toLine(entries.remove(0)).length() + 1;
+            }
+
+            write(entries);
+            return;
+        }
+
+        new File(mFilePath).getParentFile().mkdirs();
+        try (FileOutputStream outputStream = new FileOutputStream(mFilePath, true)) {
+            outputStream.write(line.getBytes(StandardCharsets.UTF_8));
+            outputStream.getFD().sync();
+        } catch (IOException e) {
+            CodePushUtils.log("Unable to save status report: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns up to the given number of the oldest reports.
+     */
+    synchronized List<Entry> peek(int maxCount) {
+        List<Entry> entries = getEntries();
+        return new ArrayList<>(entries.subList(0, Math.min(maxCount, entries.size())));
+    }
+
+    synchronized void remove(Collection<Long> ids) {
+        List<Entry> entries = getEntries();
+        boolean isChanged = false;
+        Iterator<Entry> iterator = entries.iterator();
+        while (iterator.hasNext()) {
+            if (ids.contains(iterator.next().id)) {
+                iterator.remove();
+                isChanged = true;
+            }
+        }
+
+        if (isChanged) {
+            write(entries);
+        }
+    }
+
+    private List<Entry> getEntries() {
+        if (mEntries != null) {
+            return mEntries;
+        }
+
+        mEntries = new ArrayList<>();
+        boolean hasMalformedEntries = false;
+        File file = new File(mFilePath);
+        if (file.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        JSONObject json = new JSONObject(line);
+                        Entry entry = new Entry(json.getLong(ID_KEY), json.getJSONObject(REPORT_KEY));
+                        mEntries.add(entry);
+                        mNextId = Math.max(mNextId, entry.id + 1);
+                    } catch (JSONException e) {
+                        CodePushUtils.log("Skipping malformed status report entry");
+                        hasMalformedEntries = true;
+                    }
+                }
+            } catch (IOException e) {
+                CodePushUtils.log("Unable to read status reports: " + e.getMessage());
+            }
+        }
+
+        // Rewritten so that the next append does not continue a partially written line.
+        if (hasMalformedEntries) {
+            write(mEntries);
+        }
+
+        return mEntries;
+    }
+
+    private void write(List<Entry> entries) {
+        StringBuilder contents = new StringBuilder();
+        for (Entry entry : entries) {
+            contents.append(toLine(entry)).append('\n');
+        }
+
+        try {
+            new File(mFilePath).getParentFile().mkdirs();
+            FileUtils.writeStringToFileAtomically(contents.toString(), mFilePath);
+        } catch (IOException e) {
+            CodePushUtils.log("Unable to save status reports: " + e.getMessage());
+        }
+    }
+
+    private static String toLine(Entry entry) {
+        JSONObject json = new JSONObject();
+        CodePushUtils.setJSONValueForKey(json, ID_KEY, entry.id);
+        CodePushUtils.setJSONValueForKey(json, REPORT_KEY, entry.report);
+        return json.toString();
+    }
+}
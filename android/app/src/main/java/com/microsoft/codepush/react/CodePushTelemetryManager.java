@@ -4,14 +4,23 @@ import android.content.Context;
 import android.content.SharedPreferences;
 
 import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReadableArray;
 import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
 public class CodePushTelemetryManager {
+    private final Context mContext;
     private SharedPreferences mSettings;
+    private final CodePushStatusReportQueue mReportQueue;
+    private boolean mIsRetryReportMigrated = false;
     private final String APP_VERSION_KEY = "appVersion";
     private final String DEPLOYMENT_FAILED_STATUS = "DeploymentFailed";
     private final String DEPLOYMENT_KEY_KEY = "deploymentKey";
@@ -21,11 +30,15 @@ public class CodePushTelemetryManager {
     private final String PACKAGE_KEY = "package";
     private final String PREVIOUS_DEPLOYMENT_KEY_KEY = "previousDeploymentKey";
     private final String PREVIOUS_LABEL_OR_APP_VERSION_KEY = "previousLabelOrAppVersion";
+    private final String REPORT_ID_KEY = "reportId";
+    // Only read to move a report saved by a previous version into the report queue.
     private final String RETRY_DEPLOYMENT_REPORT_KEY = "CODE_PUSH_RETRY_DEPLOYMENT_REPORT";
     private final String STATUS_KEY = "status";
 
     public CodePushTelemetryManager(Context applicationContext) {
-        mSettings = applicationContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+        mContext = applicationContext;
+        String filesDirectory = new File(applicationContext.getApplicationInfo().dataDir, "files").getAbsolutePath();
+        mReportQueue = new CodePushStatusReportQueue(CodePushUtils.appendPathComponent(filesDirectory, CodePushConstants.STATUS_REPORT_QUEUE_FILE_NAME));
     }
 
     public WritableMap getBinaryUpdateReport(String appVersion) {
@@ -54,19 +67,19 @@ public class CodePushTelemetryManager {
         return reportMap;
     }
 
-    public WritableMap getRetryStatusReport() {
-        String retryStatusReportString = mSettings.getString(RETRY_DEPLOYMENT_REPORT_KEY, null);
-        if (retryStatusReportString != null) {
-            clearRetryStatusReport();
-            try {
-                JSONObject retryStatusReport = new JSONObject(retryStatusReportString);
-                return CodePushUtils.convertJsonObjectToWritable(retryStatusReport);
-            } catch (JSONException e) {
-                e.printStackTrace();
-            }
+    /**
+     * Returns up to the given number of the oldest reports waiting to be sent, each with its
+     * "reportId" for {@link #recordStatusReportsBatch}.
+     */
+    public WritableArray getPendingStatusReports(int maxCount) {
+        WritableArray reports = Arguments.createArray();
+        for (CodePushStatusReportQueue.Entry entry : getReportQueue().peek(maxCount)) {
+            WritableMap report = CodePushUtils.convertJsonObjectToWritable(entry.report);
+            report.putDouble(REPORT_ID_KEY, entry.id);
+            reports.pushMap(report);
         }
 
-        return null;
+        return reports;
     }
 
     public WritableMap getRollbackReport(WritableMap lastFailedPackage) {
@@ -122,13 +135,69 @@ public class CodePushTelemetryManager {
         }
     }
 
+    /**
+     * Records every sent report like {@link #recordStatusReported} and removes them from the report queue.
+     */
+    public void recordStatusReportsBatch(ReadableArray statusReports) {
+        List<Long> reportIds = new ArrayList<>();
+        for (int i = 0; i < statusReports.size(); i++) {
+            ReadableMap statusReport = statusReports.getMap(i);
+            recordStatusReported(statusReport);
+            if (statusReport.hasKey(REPORT_ID_KEY)) {
+                reportIds.add((long) statusReport.getDouble(REPORT_ID_KEY));
+            }
+        }
+
+        getReportQueue().remove(reportIds);
+    }
+
     public void saveStatusReportForRetry(ReadableMap statusReport) {
         JSONObject statusReportJSON = CodePushUtils.convertReadableToJsonObject(statusReport);
-        mSettings.edit().putString(RETRY_DEPLOYMENT_REPORT_KEY, statusReportJSON.toString()).commit();
+        statusReportJSON.remove(REPORT_ID_KEY);
+        if (!isRollbackReport(statusReportJSON)) {
+            // Like the report generated next, a new deployment report supersedes the one waiting to be sent.
+            clearRetryStatusReport();
+        }
+
+        getReportQueue().append(statusReportJSON);
     }
 
+    // Removes the deployment reports waiting to be sent, which are outdated once a newer one is created.
+    // Rollback reports are kept, they do not depend on the previously reported deployment.
     private void clearRetryStatusReport() {
-        mSettings.edit().remove(RETRY_DEPLOYMENT_REPORT_KEY).commit();
+        List<Long> reportIds = new ArrayList<>();
+        for (CodePushStatusReportQueue.Entry entry : getReportQueue().peek(CodePushStatusReportQueue.MAX_REPORTS)) {
+            if (!isRollbackReport(entry.report)) {
+                reportIds.add(entry.id);
+            }
+        }
+
+        getReportQueue().remove(reportIds);
+    }
+
+    private boolean isRollbackReport(JSONObject statusReport) {
+        return DEPLOYMENT_FAILED_STATUS.equals(statusReport.optString(STATUS_KEY, null));
+    }
+
+    // Moves the single retry report kept in SharedPreferences by previous versions into the queue.
+    private synchronized CodePushStatusReportQueue getReportQueue() {
+        if (mIsRetryReportMigrated) {
+            return mReportQueue;
+        }
+
+        String retryStatusReportString = getSettings().getString(RETRY_DEPLOYMENT_REPORT_KEY, null);
+        if (retryStatusReportString != null) {
+            try {
+                mReportQueue.append(new JSONObject(retryStatusReportString));
+            } catch (JSONException e) {
+                CodePushUtils.log("Unable to parse retry status report " + retryStatusReportString);
+            }
+
+            getSettings().edit().remove(RETRY_DEPLOYMENT_REPORT_KEY).apply();
+        }
+
+        mIsRetryReportMigrated = true;
+        return mReportQueue;
     }
 
     private String getDeploymentKeyFromStatusReportIdentifier(String statusReportIdentifier) {
@@ -153,7 +222,7 @@ public class CodePushTelemetryManager {
     }
 
     private String getPreviousStatusReportIdentifier() {
-        return mSettings.getString(LAST_DEPLOYMENT_REPORT_KEY, null);
+        return getSettings().getString(LAST_DEPLOYMENT_REPORT_KEY, null);
     }
 
     private String getVersionLabelFromStatusReportIdentifier(String statusReportIdentifier) {
@@ -170,6 +239,15 @@ public class CodePushTelemetryManager {
     }
 
     private void saveStatusReportedForIdentifier(String appVersionOrPackageIdentifier) {
-        mSettings.edit().putString(LAST_DEPLOYMENT_REPORT_KEY, appVersionOrPackageIdentifier).commit();
+        getSettings().edit().putString(LAST_DEPLOYMENT_REPORT_KEY, appVersionOrPackageIdentifier).commit();
+    }
+
+    // Opened on first use, so that creating the manager on the main thread does not touch the disk.
+    private synchronized SharedPreferences getSettings() {
+        if (mSettings == null) {
+            mSettings = mContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+        }
+
+        return mSettings;
     }
 }
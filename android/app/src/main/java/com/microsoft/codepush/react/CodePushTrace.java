@@ -0,0 +1,165 @@
+package com.microsoft.codepush.react;
+
+import android.os.Process;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Optional timeline of the stages of an update download, written per update in the Chrome
+ * trace-event format so that it can be opened in Perfetto or chrome://tracing.
+ *
+ * Spans are recorded as complete events with the thread they ran on into a ring buffer of the most
+ * recent {@link #CAPACITY} spans, which is shared by the whole process since spans come from static
+ * helpers such as {@link BsPatch}. When tracing is disabled, {@link #begin()} returns 0 and
+ * {@link #end} returns right away, so a span costs a volatile read and nothing is allocated.
+ */
+class CodePushTrace {
+    static final int CAPACITY = 4096;
+
+    private static class Span {
+        final String name;
+        final long startNanos;
+        final long durationNanos;
+        final int threadId;
+        final String threadName;
+        final String argName;
+        final Object argValue;
+
+        Span(String name, long startNanos, long durationNanos, String argName, Object argValue) {
+            this.name = name;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.threadId = Process.myTid();
+            this.threadName = Thread.currentThread().getName();
+            this.argName = argName;
+            this.argValue = argValue;
+        }
+    }
+
+    private static volatile boolean sIsEnabled = false;
+    private static Span[] sSpans;
+    // The number of spans recorded so far, the span with index i is at sSpans[i % CAPACITY].
+    private static long sSpanCount;
+
+    static synchronized void setEnabled(boolean isEnabled) {
+        if (isEnabled && sSpans == null) {
+            sSpans = new Span[CAPACITY];
+        }
+
+        sIsEnabled = isEnabled;
+    }
+
+    static boolean isEnabled() {
+        return sIsEnabled;
+    }
+
+    /**
+     * Returns the start time to pass to {@link #end}, or 0 if tracing is disabled.
+     */
+    static long begin() {
+        return sIsEnabled ? System.nanoTime() : 0;
+    }
+
+    static void end(String name, long startNanos) {
+        end(name, startNanos, null, null);
+    }
+
+    /**
+     * Records the span that started at startNanos. The argument is only converted to a string when
+     * the trace is written, so callers can pass the objects they already have.
+     */
+    static void end(String name, long startNanos, String argName, Object argValue) {
+        if (startNanos == 0 || !sIsEnabled) {
+            return;
+        }
+
+        Span span = new Span(name, startNanos, System.nanoTime() - startNanos, argName, argValue);
+        synchronized (CodePushTrace.class) {
+            sSpans[(int) (sSpanCount % CAPACITY)] = span;
+            sSpanCount++;
+        }
+    }
+
+    /**
+     * Returns the position to pass to {@link #write} for a trace of the spans recorded from now on.
+     */
+    static synchronized long mark() {
+        return sSpanCount;
+    }
+
+    /**
+     * Writes the spans recorded since the mark to a trace-event file. Spans that were already
+     * overwritten in the ring buffer are left out and counted in the trace metadata.
+     */
+    static void write(long mark, String filePath) {
+        Span[] spans;
+        long droppedSpanCount;
+        synchronized (CodePushTrace.class) {
+            long firstSpan = Math.max(mark, sSpanCount - CAPACITY);
+            droppedSpanCount = firstSpan - mark;
+            spans = new Span[(int) (sSpanCount - firstSpan)];
+            for (int i = 0; i < spans.length; i++) {
+                spans[i] = sSpans[(int) ((firstSpan + i) % CAPACITY)];
+            }
+        }
+
+        if (spans.length == 0) {
+            return;
+        }
+
+        long originNanos = Long.MAX_VALUE;
+        for (Span span : spans) {
+            originNanos = Math.min(originNanos, span.startNanos);
+        }
+
+        int processId = Process.myPid();
+        JSONArray events = new JSONArray();
+        Set<Integer> namedThreadIds = new HashSet<>();
+        for (Span span : spans) {
+            if (namedThreadIds.add(span.threadId)) {
+                JSONObject threadName = new JSONObject();
+                CodePushUtils.setJSONValueForKey(threadName, "name", span.threadName);
+                JSONObject metadataEvent = new JSONObject();
+                CodePushUtils.setJSONValueForKey(metadataEvent, "name", "thread_name");
+                CodePushUtils.setJSONValueForKey(metadataEvent, "ph", "M");
+                CodePushUtils.setJSONValueForKey(metadataEvent, "pid", processId);
+                CodePushUtils.setJSONValueForKey(metadataEvent, "tid", span.threadId);
+                CodePushUtils.setJSONValueForKey(metadataEvent, "args", threadName);
+                events.put(metadataEvent);
+            }
+
+            JSONObject event = new JSONObject();
+            CodePushUtils.setJSONValueForKey(event, "name", span.name);
+            CodePushUtils.setJSONValueForKey(event, "cat", "codepush");
+            CodePushUtils.setJSONValueForKey(event, "ph", "X");
+            CodePushUtils.setJSONValueForKey(event, "ts", (span.startNanos - originNanos) / 1000);
+            CodePushUtils.setJSONValueForKey(event, "dur", span.durationNanos / 1000);
+            CodePushUtils.setJSONValueForKey(event, "pid", processId);
+            CodePushUtils.setJSONValueForKey(event, "tid", span.threadId);
+            if (span.argName != null) {
+                JSONObject args = new JSONObject();
+                CodePushUtils.setJSONValueForKey(args, span.argName, String.valueOf(span.argValue));
+                CodePushUtils.setJSONValueForKey(event, "args", args);
+            }
+            events.put(event);
+        }
+
+        JSONObject otherData = new JSONObject();
+        CodePushUtils.setJSONValueForKey(otherData, "droppedSpans", droppedSpanCount);
+        JSONObject trace = new JSONObject();
+        CodePushUtils.setJSONValueForKey(trace, "traceEvents", events);
+        CodePushUtils.setJSONValueForKey(trace, "displayTimeUnit", "ms");
+        CodePushUtils.setJSONValueForKey(trace, "otherData", otherData);
+        try {
+            FileUtils.writeStringToFileAtomically(trace.toString(), filePath);
+            CodePushUtils.log("Wrote update trace to " + filePath);
+        } catch (IOException e) {
+            CodePushUtils.log("Unable to write update trace: " + e.getMessage());
+        }
+    }
+}
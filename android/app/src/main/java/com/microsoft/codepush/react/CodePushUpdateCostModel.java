@@ -0,0 +1,114 @@
+package com.microsoft.codepush.react;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+
+/**
+ * Throughput figures measured on this device, used to estimate how long an update plan takes.
+ * The figures start from conservative defaults and are refined with an exponential moving average
+ * after every download, patch application and hash verification.
+ */
+class CodePushUpdateCostModel {
+    private static final double DEFAULT_DOWNLOAD_BYTES_PER_SECOND = 256 * 1024;
+    private static final double DEFAULT_APPLY_BYTES_PER_SECOND = 16 * 1024 * 1024;
+    private static final double DEFAULT_HASH_FILES_PER_SECOND = 200;
+    // Fixed cost of opening a connection, paid once per downloaded file.
+    private static final double REQUEST_OVERHEAD_SECONDS = 0.25;
+    private static final double SMOOTHING_FACTOR = 0.3;
+    // Shorter samples are dominated by fixed overhead and would skew the averages.
+    private static final long MIN_SAMPLE_DURATION_MS = 50;
+
+    private static final String APPLY_BYTES_PER_SECOND_KEY = "applyBytesPerSecond";
+    private static final String DOWNLOAD_BYTES_PER_SECOND_KEY = "downloadBytesPerSecond";
+    private static final String HASH_FILES_PER_SECOND_KEY = "hashFilesPerSecond";
+
+    private final String mFilePath;
+    private double mApplyBytesPerSecond = DEFAULT_APPLY_BYTES_PER_SECOND;
+    private double mDownloadBytesPerSecond = DEFAULT_DOWNLOAD_BYTES_PER_SECOND;
+    private double mHashFilesPerSecond = DEFAULT_HASH_FILES_PER_SECOND;
+    private boolean mIsDirty = false;
+
+    CodePushUpdateCostModel(String filePath) {
+        mFilePath = filePath;
+        load();
+    }
+
+    synchronized void recordDownload(long bytes, long durationMs) {
+        if (bytes > 0 && durationMs >= MIN_SAMPLE_DURATION_MS) {
+            mDownloadBytesPerSecond = smooth(mDownloadBytesPerSecond, bytes * 1000.0 / durationMs);
+        }
+    }
+
+    synchronized void recordApply(long bytes, long durationMs) {
+        if (bytes > 0 && durationMs >= MIN_SAMPLE_DURATION_MS) {
+            mApplyBytesPerSecond = smooth(mApplyBytesPerSecond, bytes * 1000.0 / durationMs);
+        }
+    }
+
+    synchronized void recordHash(long files, long durationMs) {
+        if (files > 0 && durationMs >= MIN_SAMPLE_DURATION_MS) {
+            mHashFilesPerSecond = smooth(mHashFilesPerSecond, files * 1000.0 / durationMs);
+        }
+    }
+
+    synchronized double estimateDownloadSeconds(long bytes, int requestCount) {
+        return requestCount * REQUEST_OVERHEAD_SECONDS + bytes / mDownloadBytesPerSecond;
+    }
+
+    synchronized double estimateApplySeconds(long bytes) {
+        return bytes / mApplyBytesPerSecond;
+    }
+
+    synchronized double estimateHashSeconds(long files) {
+        return files / mHashFilesPerSecond;
+    }
+
+    synchronized void save() {
+        if (!mIsDirty) {
+            return;
+        }
+
+        JSONObject model = new JSONObject();
+        CodePushUtils.setJSONValueForKey(model, APPLY_BYTES_PER_SECOND_KEY, mApplyBytesPerSecond);
+        CodePushUtils.setJSONValueForKey(model, DOWNLOAD_BYTES_PER_SECOND_KEY, mDownloadBytesPerSecond);
+        CodePushUtils.setJSONValueForKey(model, HASH_FILES_PER_SECOND_KEY, mHashFilesPerSecond);
+        try {
+            FileUtils.writeStringToFileAtomically(model.toString(), mFilePath);
+            mIsDirty = false;
+        } catch (IOException e) {
+            CodePushUtils.log("Unable to save update cost model: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "download " + Math.round(mDownloadBytesPerSecond) + " B/s, apply " + Math.round(mApplyBytesPerSecond)
+                + " B/s, hash " + Math.round(mHashFilesPerSecond) + " files/s";
+    }
+
+    private void load() {
+        if (!FileUtils.fileAtPathExists(mFilePath)) {
+            return;
+        }
+
+        try {
+            JSONObject model = CodePushUtils.getJsonObjectFromFile(mFilePath);
+            mApplyBytesPerSecond = positiveOrDefault(model.optDouble(APPLY_BYTES_PER_SECOND_KEY), DEFAULT_APPLY_BYTES_PER_SECOND);
+            mDownloadBytesPerSecond = positiveOrDefault(model.optDouble(DOWNLOAD_BYTES_PER_SECOND_KEY), DEFAULT_DOWNLOAD_BYTES_PER_SECOND);
+            mHashFilesPerSecond = positiveOrDefault(model.optDouble(HASH_FILES_PER_SECOND_KEY), DEFAULT_HASH_FILES_PER_SECOND);
+        } catch (IOException | CodePushMalformedDataException e) {
+            // Start over from the defaults, the model is only an estimate.
+            CodePushUtils.log("Unable to read update cost model: " + e.getMessage());
+        }
+    }
+
+    private double smooth(double current, double sample) {
+        mIsDirty = true;
+        return current + SMOOTHING_FACTOR * (sample - current);
+    }
+
+    private static double positiveOrDefault(double value, double defaultValue) {
+        return (Double.isNaN(value) || value <= 0) ? defaultValue : value;
+    }
+}
@@ -1,12 +1,14 @@
 package com.microsoft.codepush.react;
 
 import android.os.Build;
+import android.os.SystemClock;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -15,15 +17,102 @@ import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import javax.net.ssl.HttpsURLConnection;
 
 public class CodePushUpdateManager {
 
+    private static final String CHECKPOINT_CHAIN_ID_KEY = "chainId";
+    private static final String CHECKPOINT_LAST_APPLIED_INDEX_KEY = "lastAppliedIndex";
+    private static final String CHECKPOINT_PATCH_MODE_KEY = "patchMode";
+    private static final String CHECKPOINT_WORKING_FOLDER_KEY = "workingFolder";
+    private static final String MULTI_PATCH_BASE_FOLDER_NAME = "working";
+    private static final String MULTI_PATCH_BUNDLE_MANIFEST_FILE_NAME = "manifest.json";
+    private static final String MULTI_PATCH_DOWNLOADS_FOLDER_NAME = "downloads";
+    private static final String PATCH_MODE_BUNDLE = "bundle";
+    private static final String PATCH_MODE_INDIVIDUAL = "individual";
+    // Package folders are named after the package hash, a SHA-256 hex digest.
+    private static final Pattern PACKAGE_FOLDER_NAME_PATTERN = Pattern.compile("[0-9a-fA-F]{64}");
+
     private String mDocumentsDirectory;
+    private CodePushBinaryAssetSource mBinaryAssetSource;
+    private CodePushUpdateCostModel mCostModel;
+    private boolean mIsReverseDeltaRollbackEnabled = false;
+    // Package folders that are no longer referenced by the status file and are deleted in the background.
+    private final Set<String> mStalePackageHashes = new HashSet<>();
+    // Packages downloaded by this process, which may still be installed although the status file does not refer to them yet.
+    private final Set<String> mDownloadedPackageHashes = new HashSet<>();
+    private CodePushScheduler mScheduler;
+    private final PackageStateStore mPackageStateStore = new PackageStateStore();
+    private final CodePushMetrics mMetrics = new CodePushMetrics();
+    private final Object mDownloadLock = new Object();
+    private final Object mCompactionLock = new Object();
+    private final Object mStalePackagesLock = new Object();
+    private final Object mBootRecordLock = new Object();
+    private volatile CodePushBootRecord mBootRecordSnapshot;
 
     public CodePushUpdateManager(String documentsDirectory) {
+        this(documentsDirectory, null);
+    }
+
+    CodePushUpdateManager(String documentsDirectory, CodePushBinaryAssetSource binaryAssetSource) {
         mDocumentsDirectory = documentsDirectory;
+        mBinaryAssetSource = binaryAssetSource;
+    }
+
+    // When enabled, the previous package is kept as reverse patches against the current one once the
+    // current package has been confirmed, see compactPreviousPackage.
+    public void setReverseDeltaRollbackEnabled(boolean isReverseDeltaRollbackEnabled) {
+        mIsReverseDeltaRollbackEnabled = isReverseDeltaRollbackEnabled;
+    }
+
+    void setScheduler(CodePushScheduler scheduler) {
+        mScheduler = scheduler;
+    }
+
+    private synchronized CodePushScheduler getScheduler() {
+        if (mScheduler == null) {
+            mScheduler = new CodePushScheduler(CodePushScheduler.DEFAULT_IO_THREAD_COUNT);
+        }
+
+        return mScheduler;
+    }
+
+    private synchronized CodePushUpdateCostModel getCostModel() {
+        if (mCostModel == null) {
+            mCostModel = new CodePushUpdateCostModel(
+                    CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.UPDATE_COST_MODEL_FILE_NAME));
+        }
+
+        return mCostModel;
+    }
+
+    CodePushMetrics getMetrics() {
+        return mMetrics;
+    }
+
+    private void recordDownload(long bytes, long durationMs) {
+        getCostModel().recordDownload(bytes, durationMs);
+        mMetrics.recordDownload(bytes, durationMs);
+    }
+
+    private void unzipFile(File zipFile, String destination) throws IOException {
+        long unzipStartTime = SystemClock.elapsedRealtime();
+        long traceStart = CodePushTrace.begin();
+        try {
+            FileUtils.unzipFile(zipFile, destination);
+        } finally {
+            CodePushTrace.end("FileUtils.unzipFile", traceStart, "file", zipFile);
+        }
+        mMetrics.recordUnzip(SystemClock.elapsedRealtime() - unzipStartTime);
     }
 
     private String getDownloadFilePath() {
@@ -47,36 +136,82 @@ public class CodePushUpdateManager {
         return codePushPath;
     }
 
+    private CodePushBlobStore getBlobStore() {
+        return new CodePushBlobStore(CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.BLOBS_FOLDER_NAME));
+    }
+
     private String getStatusFilePath() {
         return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.STATUS_FILE);
     }
 
     public JSONObject getCurrentPackageInfo() {
-        String statusFilePath = getStatusFilePath();
-        if (!FileUtils.fileAtPathExists(statusFilePath)) {
-            return new JSONObject();
-        }
-
         try {
-            return CodePushUtils.getJsonObjectFromFile(statusFilePath);
+            JSONObject info = mPackageStateStore.read(getStatusFilePath());
+            return info == null ? new JSONObject() : info;
         } catch (IOException e) {
             // Should not happen.
             throw new CodePushUnknownException("Error getting current package info", e);
         }
     }
 
+    // The status file is the boot record naming the current and previous package folders. It is replaced
+    // atomically, so installing or rolling back a package is a single rename regardless of package size.
     public void updateCurrentPackageInfo(JSONObject packageInfo) {
         try {
-            CodePushUtils.writeJsonToFile(packageInfo, getStatusFilePath());
+            deleteBootRecord();
+            mPackageStateStore.writeStatus(getStatusFilePath(), packageInfo);
         } catch (IOException e) {
             // Should not happen.
             throw new CodePushUnknownException("Error updating current package info", e);
         }
     }
 
+    private String getBootRecordPath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.BOOT_RECORD_FILE_NAME);
+    }
+
+    // Returns null if there is no usable boot record.
+    CodePushBootRecord readBootRecord() {
+        synchronized (mBootRecordLock) {
+            mBootRecordSnapshot = CodePushBootRecord.read(getBootRecordPath());
+            return mBootRecordSnapshot;
+        }
+    }
+
+    /**
+     * Returns the boot record as it was last read, written or deleted, without touching the disk.
+     */
+    CodePushBootRecord getBootRecordSnapshot() {
+        return mBootRecordSnapshot;
+    }
+
+    void writeBootRecord(CodePushBootRecord bootRecord) {
+        if (!FileUtils.fileAtPathExists(getCodePushPath())) {
+            return;
+        }
+
+        synchronized (mBootRecordLock) {
+            try {
+                bootRecord.write(getBootRecordPath());
+                mBootRecordSnapshot = bootRecord;
+            } catch (IOException e) {
+                // The boot record is only a shortcut, startup falls back to the status file without it.
+                CodePushUtils.log("Unable to write boot record: " + e.getMessage());
+                deleteBootRecord();
+            }
+        }
+    }
+
+    // Removed before the status file changes, so that it can never point to a package that is no longer current.
+    void deleteBootRecord() {
+        synchronized (mBootRecordLock) {
+            mBootRecordSnapshot = null;
+            new File(getBootRecordPath()).delete();
+        }
+    }
+
     public String getCurrentPackageFolderPath() {
-        JSONObject info = getCurrentPackageInfo();
-        String packageHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
+        String packageHash = getCurrentPackageHash();
         if (packageHash == null) {
             return null;
         }
@@ -85,16 +220,17 @@ public class CodePushUpdateManager {
     }
 
     public String getCurrentPackageBundlePath(String bundleFileName) {
-        String packageFolder = getCurrentPackageFolderPath();
-        if (packageFolder == null) {
+        String packageHash = getCurrentPackageHash();
+        if (packageHash == null) {
             return null;
         }
 
-        JSONObject currentPackage = getCurrentPackage();
+        JSONObject currentPackage = getPackage(packageHash);
         if (currentPackage == null) {
             return null;
         }
 
+        String packageFolder = getPackageFolderPath(packageHash);
         String relativeBundlePath = currentPackage.optString(CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, null);
         if (relativeBundlePath == null) {
             return CodePushUtils.appendPathComponent(packageFolder, bundleFileName);
@@ -112,6 +248,15 @@ public class CodePushUpdateManager {
         return info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
     }
 
+    /**
+     * Returns the current package hash from the cached status file without touching the disk, or
+     * null if the status file has not been read yet. An empty string means there is no current package.
+     */
+    String peekCurrentPackageHash() {
+        JSONObject info = mPackageStateStore.peek(getStatusFilePath());
+        return info == null ? null : info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, "");
+    }
+
     public String getPreviousPackageHash() {
         JSONObject info = getCurrentPackageInfo();
         return info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
@@ -135,19 +280,110 @@ public class CodePushUpdateManager {
         return getPackage(packageHash);
     }
 
+    // Changes whenever the status file or the metadata of any package changes.
+    long getPackageStateVersion() {
+        return mPackageStateStore.getVersion();
+    }
+
     public JSONObject getPackage(String packageHash) {
-        String folderPath = getPackageFolderPath(packageHash);
-        String packageFilePath = CodePushUtils.appendPathComponent(folderPath, CodePushConstants.PACKAGE_FILE_NAME);
         try {
-            return CodePushUtils.getJsonObjectFromFile(packageFilePath);
+            return mPackageStateStore.read(getPackageMetadataPath(packageHash));
         } catch (IOException e) {
             return null;
         }
     }
 
+    // Replaces the metadata of the current package, e.g. to change its label.
+    public void updateCurrentPackage(JSONObject packageMetadata) {
+        String packageHash = getCurrentPackageHash();
+        if (packageHash == null) {
+            return;
+        }
+
+        try {
+            mPackageStateStore.write(getPackageMetadataPath(packageHash), packageMetadata);
+        } catch (IOException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Error updating current package", e);
+        }
+    }
+
+    private String getPackageMetadataPath(String packageHash) {
+        return CodePushUtils.appendPathComponent(getPackageFolderPath(packageHash), CodePushConstants.PACKAGE_FILE_NAME);
+    }
+
+    /**
+     * Downloads, applies and verifies the package. Cancelling downloadTask stops the download at the
+     * next chunk, patch or patched file and removes everything staged for it except the checkpoint of
+     * a patch chain, leaving the installed packages untouched.
+     */
     public void downloadPackage(JSONObject updatePackage, String expectedBundleFileName,
-                                DownloadProgressCallback progressCallback,
-                                String stringPublicKey) throws IOException {
+                                DownloadProgress progress, String stringPublicKey,
+                                CodePushDownloadTask downloadTask) throws IOException {
+        // Downloads share the staging files, so they run one at a time.
+        synchronized (mDownloadLock) {
+            long traceMark = CodePushTrace.mark();
+            long traceStart = CodePushTrace.begin();
+            try {
+                downloadTask.throwIfCancelled();
+                downloadPackageContents(updatePackage, expectedBundleFileName, progress, stringPublicKey, downloadTask);
+                synchronized (this) {
+                    mDownloadedPackageHashes.add(downloadTask.getPackageHash());
+                }
+            } catch (CodePushDownloadCancelledException e) {
+                removeStagedDownload(downloadTask.getPackageHash());
+                throw e;
+            } finally {
+                CodePushTrace.end("downloadPackage", traceStart, "packageHash", downloadTask.getPackageHash());
+                if (traceStart != 0) {
+                    writeTrace(traceMark, downloadTask.getPackageHash());
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the trace of a download next to the traces of the previous ones, keeping the most recent.
+     */
+    private void writeTrace(long traceMark, String packageHash) {
+        String tracesFolderPath = CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.TRACES_FOLDER_NAME);
+        File tracesFolder = new File(tracesFolderPath);
+        tracesFolder.mkdirs();
+        CodePushTrace.write(traceMark, CodePushUtils.appendPathComponent(tracesFolderPath, packageHash + ".json"));
+
+        File[] traceFiles = tracesFolder.listFiles();
+        if (traceFiles == null || traceFiles.length <= CodePushConstants.MAX_TRACE_FILES) {
+            return;
+        }
+
+        Arrays.sort(traceFiles, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(second.lastModified(), first.lastModified());
+            }
+        });
+        for (int i = CodePushConstants.MAX_TRACE_FILES; i < traceFiles.length; i++) {
+            FileUtils.deleteFileOrFolderSilently(traceFiles[i]);
+        }
+    }
+
+    private synchronized void removeStagedDownload(String packageHash) {
+        if (packageHash.equals(getCurrentPackageHash()) || packageHash.equals(getPreviousPackageHash())) {
+            // Never remove a package the status file refers to.
+            return;
+        }
+
+        FileUtils.deleteFileAtPathSilently(getDownloadFilePath());
+        FileUtils.deleteFileAtPathSilently(getUnzippedFolderPath());
+        String packageFolderPath = getPackageFolderPath(packageHash);
+        FileUtils.deleteFileAtPathSilently(packageFolderPath);
+        mPackageStateStore.invalidate(packageFolderPath);
+        CodePushUtils.log("Removed the staged files of the cancelled download of " + packageHash + ".");
+    }
+
+    private void downloadPackageContents(JSONObject updatePackage, String expectedBundleFileName,
+                                         DownloadProgress progress, String stringPublicKey,
+                                         CodePushDownloadTask downloadTask) throws IOException {
         String newUpdateHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
         String newUpdateFolderPath = getPackageFolderPath(newUpdateHash);
         String newUpdateMetadataPath = CodePushUtils.appendPathComponent(newUpdateFolderPath, CodePushConstants.PACKAGE_FILE_NAME);
@@ -156,18 +392,44 @@ public class CodePushUpdateManager {
             // uncleared due to a crash or error during the download or install process.
             FileUtils.deleteDirectoryAtPath(newUpdateFolderPath);
         }
+        mPackageStateStore.invalidate(newUpdateFolderPath);
+
+        synchronized (this) {
+            // The folder is about to be reused, so a pending cleanup must not delete it.
+            mStalePackageHashes.remove(newUpdateHash);
+        }
 
         // Check for multi-patch update
-        CodePushUtils.log("=== PATCH DEBUG ===");
-        CodePushUtils.log("UpdatePackage keys: " + updatePackage.keys());
         JSONArray patches = updatePackage.optJSONArray("patches");
-        CodePushUtils.log("Patches field: " + (patches != null ? patches.toString() : "NULL"));
-        
         if (patches != null && patches.length() > 0) {
             CodePushUtils.log("Multi-patch update detected: " + patches.length() + " patches");
-            downloadAndApplyMultiplePatches(patches, newUpdateFolderPath, newUpdateMetadataPath, 
-                expectedBundleFileName, progressCallback, stringPublicKey, updatePackage);
-            return;
+            boolean isPatchChainApplied = false;
+            if (shouldApplyPatchChain(updatePackage, patches)) {
+                long traceStart = CodePushTrace.begin();
+                try {
+                    downloadAndApplyMultiplePatches(patches, newUpdateFolderPath, newUpdateMetadataPath,
+                        expectedBundleFileName, progress, stringPublicKey, updatePackage, downloadTask);
+                    isPatchChainApplied = true;
+                } catch (CodePushBinaryFileMismatchException e) {
+                    // The binary can't be the base of the chain on this device, which says nothing about
+                    // the update, so the full package is downloaded instead.
+                    if (updatePackage.optString(CodePushConstants.DOWNLOAD_URL_KEY, null) == null) {
+                        throw e;
+                    }
+
+                    CodePushUtils.log("Unable to apply the patch chain to the binary's files, downloading the full package instead.");
+                } finally {
+                    CodePushTrace.end("downloadAndApplyMultiplePatches", traceStart);
+                }
+
+                if (isPatchChainApplied) {
+                    return;
+                }
+            } else {
+                // The full package wins, so a checkpoint of this chain will never be resumed.
+                CodePushUtils.log("Full package is cheaper than the patch chain, downloading the full package instead.");
+                FileUtils.deleteDirectoryAtPath(getMultiPatchTempPath());
+            }
         }
 
         // Single patch update (existing logic)
@@ -200,6 +462,7 @@ public class CodePushUpdateManager {
 
             long totalBytes = connection.getContentLength();
             long receivedBytes = 0;
+            long downloadStartTime = SystemClock.elapsedRealtime();
 
             File downloadFolder = new File(getCodePushPath());
             downloadFolder.mkdirs();
@@ -211,6 +474,7 @@ public class CodePushUpdateManager {
 
             int numBytesRead = 0;
             while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
+                downloadTask.throwIfCancelled();
                 if (receivedBytes < 4) {
                     for (int i = 0; i < numBytesRead; i++) {
                         int headerOffset = (int) (receivedBytes) + i;
@@ -224,13 +488,14 @@ public class CodePushUpdateManager {
 
                 receivedBytes += numBytesRead;
                 bout.write(data, 0, numBytesRead);
-                progressCallback.call(new DownloadProgress(totalBytes, receivedBytes));
+                progress.reportDownload(totalBytes, receivedBytes);
             }
 
             if (totalBytes !=-1 && totalBytes != receivedBytes) {
                 throw new CodePushUnknownException("Received " + receivedBytes + " bytes, expected " + totalBytes);
             }
 
+            recordDownload(receivedBytes, SystemClock.elapsedRealtime() - downloadStartTime);
             isZip = ByteBuffer.wrap(header).getInt() == 0x504b0304;
         } catch (MalformedURLException e) {
             throw new CodePushMalformedDataException(downloadUrlString, e);
@@ -246,24 +511,30 @@ public class CodePushUpdateManager {
         }
 
         if (isZip) {
+            progress.reportStage(DownloadProgress.STAGE_APPLY, 0, 1);
             // Unzip the downloaded file and then delete the zip
             String unzippedFolderPath = getUnzippedFolderPath();
-            FileUtils.unzipFile(downloadFile, unzippedFolderPath);
+            unzipFile(downloadFile, unzippedFolderPath);
             FileUtils.deleteFileOrFolderSilently(downloadFile);
 
             // Merge contents with current update based on the manifest
             String diffManifestFilePath = CodePushUtils.appendPathComponent(unzippedFolderPath,
                     CodePushConstants.DIFF_MANIFEST_FILE_NAME);
             boolean isDiffUpdate = FileUtils.fileAtPathExists(diffManifestFilePath);
+            // The hashes of the files copied from the binary, which were checked while they were copied.
+            Map<String, String> knownFileHashes = new HashMap<>();
             if (isDiffUpdate) {
                 String currentPackageFolderPath = getCurrentPackageFolderPath();
-                CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath, newUpdateFolderPath, unzippedFolderPath);
+                CodePushBinaryAssetSource binaryAssetSource = getBinaryAssetSourceForBase(currentPackageFolderPath);
+                CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath,
+                        newUpdateFolderPath, unzippedFolderPath, binaryAssetSource, downloadTask, knownFileHashes);
                 File diffManifestFile = new File(diffManifestFilePath);
                 diffManifestFile.delete();
             }
 
             FileUtils.copyDirectoryContents(unzippedFolderPath, newUpdateFolderPath);
             FileUtils.deleteFileAtPathSilently(unzippedFolderPath);
+            progress.reportStage(DownloadProgress.STAGE_APPLY, 1, 1);
 
             // For zip updates, we need to find the relative path to the jsBundle and save it in the
             // metadata so that we can find and run it easily the next time.
@@ -283,6 +554,7 @@ public class CodePushUpdateManager {
                     CodePushUtils.log("Applying full update.");
                 }
 
+                progress.reportStage(DownloadProgress.STAGE_VERIFY, 0, 1);
                 boolean isSignatureVerificationEnabled = (stringPublicKey != null);
 
                 String signaturePath = CodePushUpdateUtils.getSignatureFilePath(newUpdateFolderPath);
@@ -290,7 +562,7 @@ public class CodePushUpdateManager {
 
                 if (isSignatureVerificationEnabled) {
                     if (isSignatureAppearedInBundle) {
-                        CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        verifyFolderHash(newUpdateFolderPath, newUpdateHash, knownFileHashes);
                         CodePushUpdateUtils.verifyUpdateSignature(newUpdateFolderPath, newUpdateHash, stringPublicKey);
                     } else {
                         throw new CodePushInvalidUpdateException(
@@ -306,14 +578,15 @@ public class CodePushUpdateManager {
                                 "Warning! JWT signature exists in codepush update but code integrity check couldn't be performed because there is no public key configured. " +
                                 "Please ensure that public key is properly configured within your application."
                         );
-                        CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                        verifyFolderHash(newUpdateFolderPath, newUpdateHash, knownFileHashes);
                     } else {
                         if (isDiffUpdate) {
-                            CodePushUpdateUtils.verifyFolderHash(newUpdateFolderPath, newUpdateHash);
+                            verifyFolderHash(newUpdateFolderPath, newUpdateHash, knownFileHashes);
                         }
                     }
                 }
 
+                progress.reportStage(DownloadProgress.STAGE_VERIFY, 1, 1);
                 CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, relativeBundlePath);
             }
         } else {
@@ -321,58 +594,145 @@ public class CodePushUpdateManager {
             FileUtils.moveFile(downloadFile, newUpdateFolderPath, expectedBundleFileName);
         }
 
+        getBlobStore().addPackage(newUpdateFolderPath);
+
         // Save metadata to the folder.
-        CodePushUtils.writeJsonToFile(updatePackage, newUpdateMetadataPath);
+        mPackageStateStore.write(newUpdateMetadataPath, updatePackage);
+        getCostModel().save();
+    }
+
+    private void verifyFolderHash(String folderPath, String expectedHash, Map<String, String> knownFileHashes) {
+        long verifyStartTime = SystemClock.elapsedRealtime();
+        long traceStart = CodePushTrace.begin();
+        int hashedFileCount;
+        try {
+            hashedFileCount = CodePushUpdateUtils.verifyFolderHash(folderPath, expectedHash, knownFileHashes);
+        } finally {
+            CodePushTrace.end("verifyFolderHash", traceStart, "folder", folderPath);
+        }
+        long verifyDurationMs = SystemClock.elapsedRealtime() - verifyStartTime;
+        getCostModel().recordHash(hashedFileCount, verifyDurationMs);
+        mMetrics.recordVerify(verifyDurationMs);
+    }
+
+    /**
+     * Scores the candidate plans for reaching the target package - applying the remaining patch
+     * chain or downloading the full package - with the throughput measured on this device, and
+     * returns whether the patch chain is the cheaper one.
+     */
+    private boolean shouldApplyPatchChain(JSONObject updatePackage, JSONArray patches) throws IOException {
+        String downloadUrl = updatePackage.optString(CodePushConstants.DOWNLOAD_URL_KEY, null);
+        long packageSize = updatePackage.optLong(CodePushConstants.PACKAGE_SIZE_KEY, 0);
+        if (downloadUrl == null || packageSize <= 0) {
+            // The full package is not a candidate, so the chain is the only plan.
+            return true;
+        }
+
+        // Every patch rebuilds the whole working tree, so the tree size drives the apply cost.
+        long treeBytes = packageSize;
+        long treeFileCount = 1;
+        String currentPackageFolderPath = getCurrentPackageFolderPath();
+        CodePushBinaryAssetSource binaryAssetSource = getBinaryAssetSourceForBase(currentPackageFolderPath);
+        if (binaryAssetSource != null && !binaryAssetSource.isUsableAsBase()) {
+            CodePushUtils.log("The binary's files do not match their hashes, so the patch chain can't be applied to them.");
+            return false;
+        }
+
+        if (currentPackageFolderPath != null && FileUtils.fileAtPathExists(currentPackageFolderPath)) {
+            treeBytes = Math.max(treeBytes, FileUtils.getFolderSize(currentPackageFolderPath));
+            treeFileCount = Math.max(treeFileCount, FileUtils.getFileCount(currentPackageFolderPath));
+        }
+
+        // Patches already applied by an interrupted attempt of this chain cost nothing.
+        int firstPendingPatch = 0;
+        JSONObject checkpoint = readMultiPatchCheckpoint(getMultiPatchTempPath(),
+                computePatchChainId(patches, getCurrentPackageHash(), updatePackage));
+        if (checkpoint != null && PATCH_MODE_INDIVIDUAL.equals(checkpoint.optString(CHECKPOINT_PATCH_MODE_KEY, null))) {
+            firstPendingPatch = checkpoint.optInt(CHECKPOINT_LAST_APPLIED_INDEX_KEY, -1) + 1;
+        }
+
+        long chainBytes = 0;
+        int pendingPatchCount = 0;
+        for (int i = firstPendingPatch; i < patches.length(); i++) {
+            JSONObject patch = patches.optJSONObject(i);
+            chainBytes += patch != null ? patch.optLong("size", 0) : 0;
+            pendingPatchCount++;
+        }
+
+        CodePushUpdateCostModel costModel = getCostModel();
+        double chainCost = costModel.estimateDownloadSeconds(chainBytes, pendingPatchCount)
+                + pendingPatchCount * costModel.estimateApplySeconds(treeBytes);
+        double fullCost = costModel.estimateDownloadSeconds(packageSize, 1)
+                + costModel.estimateApplySeconds(treeBytes)
+                + costModel.estimateHashSeconds(treeFileCount);
+
+        CodePushUtils.log("Update plan costs (" + costModel + ") - patch chain: " + chainCost + "s for "
+                + pendingPatchCount + " patches, full package: " + fullCost + "s");
+        return chainCost <= fullCost;
     }
 
 
     private void downloadAndApplyMultiplePatches(JSONArray patches, String finalUpdateFolderPath,
                                                   String finalUpdateMetadataPath, String expectedBundleFileName,
-                                                  DownloadProgressCallback progressCallback,
-                                                  String stringPublicKey, JSONObject updatePackage) throws IOException {
-        // Create temporary working directory
-        String tempWorkingPath = CodePushUtils.appendPathComponent(getCodePushPath(), "temp_multi_patch");
-        if (FileUtils.fileAtPathExists(tempWorkingPath)) {
+                                                  DownloadProgress progress,
+                                                  String stringPublicKey, JSONObject updatePackage,
+                                                  CodePushDownloadTask downloadTask) throws IOException {
+        // The temporary working directory is kept across failed attempts. A checkpoint is written after
+        // every applied patch so that a retry of the same chain resumes from the next patch instead of
+        // downloading and applying the whole chain again.
+        String tempWorkingPath = getMultiPatchTempPath();
+        String currentPackageFolderPath = getCurrentPackageFolderPath();
+        // Without a current package, the base is the binary's embedded files, which are copied into the
+        // base folder so that the installed package also contains the files the chain never touches.
+        CodePushBinaryAssetSource binaryAssetSource = getBinaryAssetSourceForBase(currentPackageFolderPath);
+        String chainId = computePatchChainId(patches, getCurrentPackageHash(), updatePackage);
+        JSONObject checkpoint = readMultiPatchCheckpoint(tempWorkingPath, chainId);
+        if (checkpoint == null && FileUtils.fileAtPathExists(tempWorkingPath)) {
+            // Leftovers from another chain (or from a crash before the first checkpoint) can't be reused.
             FileUtils.deleteDirectoryAtPath(tempWorkingPath);
         }
         new File(tempWorkingPath).mkdirs();
 
+        String downloadsFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, MULTI_PATCH_DOWNLOADS_FOLDER_NAME);
+        new File(downloadsFolderPath).mkdirs();
+
+        // The hashes of the binary's files in the working tree that no patch has changed yet, which are not
+        // hashed again by the final verification. Unknown for a resumed chain.
+        Map<String, String> knownFileHashes = null;
+        boolean discardCheckpoint = false;
         try {
-            // Start with current package as base
-            String currentPackageFolderPath = getCurrentPackageFolderPath();
-            String workingFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, "working");
-            new File(workingFolderPath).mkdirs();
-
-            // DEBUG: Check current package
-            CodePushUtils.log("=== BASE PACKAGE DEBUG ===");
-            // CodePushUtils.log("currentPackageFolderPath: " + currentPackageFolderPath);
-            if (currentPackageFolderPath != null && FileUtils.fileAtPathExists(currentPackageFolderPath)) {
-                File currentDir = new File(currentPackageFolderPath);
-                File[] currentFiles = currentDir.listFiles();
-                CodePushUtils.log("Current package files: " + 
-                    (currentFiles != null ? currentFiles.length : 0) + " items");
+            int lastAppliedIndex = -1;
+            String patchMode = null;
+            String workingFolderName;
+            if (checkpoint != null) {
+                lastAppliedIndex = checkpoint.optInt(CHECKPOINT_LAST_APPLIED_INDEX_KEY, -1);
+                patchMode = checkpoint.optString(CHECKPOINT_PATCH_MODE_KEY, null);
+                workingFolderName = checkpoint.getString(CHECKPOINT_WORKING_FOLDER_KEY);
+                removeStaleMultiPatchEntries(tempWorkingPath, workingFolderName);
+                CodePushUtils.log("Resuming multi-patch chain " + chainId + " after patch " + (lastAppliedIndex + 1));
             } else {
-                CodePushUtils.log("Current package: NOT FOUND");
-            }
-            
-            if (currentPackageFolderPath != null && FileUtils.fileAtPathExists(currentPackageFolderPath)) {
-                CodePushUtils.log("Copying current package as base for multi-patch update");
-                FileUtils.copyDirectoryContents(currentPackageFolderPath, workingFolderPath);
+                // Start with current package as base
+                workingFolderName = MULTI_PATCH_BASE_FOLDER_NAME;
+                String workingFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, workingFolderName);
+                new File(workingFolderPath).mkdirs();
+
+                if (currentPackageFolderPath != null && FileUtils.fileAtPathExists(currentPackageFolderPath)) {
+                    CodePushUtils.log("Copying current package as base for multi-patch update");
+                    CodePushBlobStore.linkDirectoryContents(currentPackageFolderPath, workingFolderPath);
+                } else {
+                    CodePushUtils.log("No current package, applying multi-patch update against the binary's embedded files.");
+                    if (binaryAssetSource != null) {
+                        knownFileHashes = binaryAssetSource.copyMissingFiles(workingFolderPath, Collections.<String>emptySet());
+                    }
+                }
 
-            // DEBUG: Verify working folder after base copy
-            File workingDirAfterCopy = new File(workingFolderPath);
-            if (workingDirAfterCopy.exists()) {
-                File[] workingFilesAfterCopy = workingDirAfterCopy.listFiles();
-                CodePushUtils.log("=== AFTER BASE COPY ===");
-                CodePushUtils.log("Working folder files: " + 
-                    (workingFilesAfterCopy != null ? workingFilesAfterCopy.length : 0) + " items");
-            }
+                writeMultiPatchCheckpoint(tempWorkingPath, chainId, null, lastAppliedIndex, workingFolderName);
             }
+            String workingFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, workingFolderName);
 
             // Apply each patch sequentially
             int totalPatches = patches.length();
             long totalBytesExpected = 0;
-            long totalBytesReceived = 0;
 
             // Calculate total size for progress reporting
             for (int i = 0; i < totalPatches; i++) {
@@ -381,60 +741,54 @@ public class CodePushUpdateManager {
             }
 
             // Check if first patch is a patches.zip bundle (contains manifest.json)
-            JSONObject firstPatch = patches.getJSONObject(0);
-            String firstPatchUrl = firstPatch.optString("url", null);
-            String firstPatchHash = firstPatch.optString("hash", null);
-            long firstPatchSize = firstPatch.optLong("size", 0);
-
-            // Download first patch
-            CodePushUtils.log("[" + new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()) + "] Start download - totalBytesExpected: " + totalBytesExpected + " bytes");
-            File firstPatchFile = downloadSinglePatch(firstPatchUrl, 0, progressCallback, 0, totalBytesExpected);
-            CodePushUtils.log("[" + new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()) + "] Finished download");
-            totalBytesReceived += firstPatchSize;
-
-            // Verify first patch hash
-            if (firstPatchHash != null) {
-                String actualHash = CodePushUpdateUtils.computeHash(new FileInputStream(firstPatchFile));
-                if (!firstPatchHash.equals(actualHash)) {
-                    throw new CodePushInvalidUpdateException(
-                        "Patch file hash mismatch. Expected: " + firstPatchHash + ", Actual: " + actualHash
-                    );
-                }
+            long totalBytesReceived = 0;
+            File firstPatchFile = null;
+            if (patchMode == null) {
+                CodePushUtils.log("Start download - totalBytesExpected: " + totalBytesExpected + " bytes");
+                long firstPatchStartTime = SystemClock.elapsedRealtime();
+                firstPatchFile = obtainPatchFile(patches.getJSONObject(0), 0, downloadsFolderPath, progress, 0, totalBytesExpected, downloadTask);
+                CodePushUtils.log("Finished download in " + (SystemClock.elapsedRealtime() - firstPatchStartTime) + "ms");
+                totalBytesReceived += patches.getJSONObject(0).optLong("size", 0);
+
+                patchMode = FileUtils.zipContainsEntry(firstPatchFile, MULTI_PATCH_BUNDLE_MANIFEST_FILE_NAME)
+                        ? PATCH_MODE_BUNDLE : PATCH_MODE_INDIVIDUAL;
+                writeMultiPatchCheckpoint(tempWorkingPath, chainId, patchMode, lastAppliedIndex, workingFolderName);
             }
 
-            // Unzip first patch
-            String firstPatchUnzipPath = CodePushUtils.appendPathComponent(tempWorkingPath, "patch_0");
-            FileUtils.unzipFile(firstPatchFile, firstPatchUnzipPath);
-            firstPatchFile.delete();
-
-            // Check for manifest.json (patches.zip bundle mode)
-            String manifestPath = CodePushUtils.appendPathComponent(firstPatchUnzipPath, "manifest.json");
-            boolean isPatchesBundle = FileUtils.fileAtPathExists(manifestPath);
-
-            if (isPatchesBundle) {
+            if (PATCH_MODE_BUNDLE.equals(patchMode)) {
                 // === PATCHES.ZIP BUNDLE MODE ===
                 CodePushUtils.log("Patches bundle detected (manifest.json found). Processing bundled patches...");
-                
+                if (firstPatchFile == null) {
+                    firstPatchFile = obtainPatchFile(patches.getJSONObject(0), 0, downloadsFolderPath, progress, 0, totalBytesExpected, downloadTask);
+                    totalBytesReceived += patches.getJSONObject(0).optLong("size", 0);
+                }
+
+                String firstPatchUnzipPath = CodePushUtils.appendPathComponent(tempWorkingPath, "patch_0");
+                unzipFile(firstPatchFile, firstPatchUnzipPath);
+
                 // Read manifest.json
+                String manifestPath = CodePushUtils.appendPathComponent(firstPatchUnzipPath, MULTI_PATCH_BUNDLE_MANIFEST_FILE_NAME);
                 String manifestContent = FileUtils.readFileToString(manifestPath);
                 JSONObject manifest = new JSONObject(manifestContent);
                 JSONArray bundledPatches = manifest.getJSONArray("patches");
                 int bundledPatchCount = bundledPatches.length();
-                
+
                 CodePushUtils.log("Bundle contains " + bundledPatchCount + " patches");
+                progress.reportStage(DownloadProgress.STAGE_APPLY, lastAppliedIndex + 1, bundledPatchCount);
 
-                // Apply each patch from the bundle
-                for (int i = 0; i < bundledPatchCount; i++) {
+                // Apply each patch from the bundle that has not been checkpointed yet
+                for (int i = lastAppliedIndex + 1; i < bundledPatchCount; i++) {
+                    downloadTask.throwIfCancelled();
                     JSONObject bundledPatch = bundledPatches.getJSONObject(i);
                     String filename = bundledPatch.getString("filename");
                     String patchHash = bundledPatch.optString("hash", null);
-                    
+
                     CodePushUtils.log("Applying bundled patch " + (i + 1) + "/" + bundledPatchCount + ": " + filename);
 
                     // Get the diff file from the extracted bundle
                     String diffFilePath = CodePushUtils.appendPathComponent(firstPatchUnzipPath, filename);
                     File diffFile = new File(diffFilePath);
-                    
+
                     if (!diffFile.exists()) {
                         throw new CodePushInvalidUpdateException("Patch file not found in bundle: " + filename);
                     }
@@ -451,11 +805,12 @@ public class CodePushUpdateManager {
 
                     // Unzip the individual diff
                     String patchUnzipPath = CodePushUtils.appendPathComponent(tempWorkingPath, "bundled_patch_" + i);
-                    FileUtils.unzipFile(diffFile, patchUnzipPath);
+                    unzipFile(diffFile, patchUnzipPath);
+
+                    // Apply this patch and checkpoint the resulting tree
+                    workingFolderName = applyPatchAndCheckpoint(patchUnzipPath, tempWorkingPath, workingFolderName, i, chainId, patchMode, binaryAssetSource, downloadTask, knownFileHashes);
+                    progress.reportStage(DownloadProgress.STAGE_APPLY, i + 1, bundledPatchCount);
 
-                    // Apply this patch using existing logic
-                    applyPatchToWorkingFolder(patchUnzipPath, workingFolderPath, tempWorkingPath, i);
-                    
                     FileUtils.deleteDirectoryAtPath(patchUnzipPath);
                 }
 
@@ -463,87 +818,72 @@ public class CodePushUpdateManager {
                 FileUtils.deleteDirectoryAtPath(firstPatchUnzipPath);
 
             } else {
-                // === INDIVIDUAL PATCHES MODE (existing logic) ===
+                // === INDIVIDUAL PATCHES MODE ===
                 CodePushUtils.log("Individual patches mode (no manifest.json). Processing " + totalPatches + " patches...");
 
-                // Apply first patch (already downloaded and unzipped)
-                applyPatchToWorkingFolder(firstPatchUnzipPath, workingFolderPath, tempWorkingPath, 0);
-                FileUtils.deleteDirectoryAtPath(firstPatchUnzipPath);
+                for (int i = 0; i <= lastAppliedIndex && i < totalPatches; i++) {
+                    // Already applied by a previous attempt.
+                    totalBytesReceived += patches.getJSONObject(i).optLong("size", 0);
+                }
 
-                // Process remaining patches
-                for (int i = 1; i < totalPatches; i++) {
+                for (int i = lastAppliedIndex + 1; i < totalPatches; i++) {
+                    downloadTask.throwIfCancelled();
                     JSONObject patch = patches.getJSONObject(i);
-                    String patchUrl = patch.optString("url", null);
                     String fromLabel = patch.optString("from_label", "");
                     String toLabel = patch.optString("to_label", "");
-                    String patchHash = patch.optString("hash", null);
-                    long patchSize = patch.optLong("size", 0);
 
                     CodePushUtils.log("Applying patch " + (i + 1) + "/" + totalPatches + ": " + fromLabel + " -> " + toLabel);
 
-                    // Download patch
-                    File patchFile = downloadSinglePatch(patchUrl, i, progressCallback, totalBytesReceived, totalBytesExpected);
-                    totalBytesReceived += patchSize;
-                    
-                    // Verify patch file hash
-                    if (patchHash != null) {
-                        String actualPatchHash = CodePushUpdateUtils.computeHash(new FileInputStream(patchFile));
-                        if (!patchHash.equals(actualPatchHash)) {
-                            throw new CodePushInvalidUpdateException(
-                                "Patch file hash mismatch. Expected: " + patchHash + ", Actual: " + actualPatchHash
-                            );
-                        }
+                    // Download patch, or reuse the copy left behind by an interrupted attempt.
+                    // The first patch may already have been fetched above to detect the patch mode.
+                    File patchFile = (i == 0 && firstPatchFile != null)
+                            ? firstPatchFile
+                            : obtainPatchFile(patch, i, downloadsFolderPath, progress, totalBytesReceived, totalBytesExpected, downloadTask);
+                    if (i != 0 || firstPatchFile == null) {
+                        totalBytesReceived += patch.optLong("size", 0);
                     }
 
                     // Unzip patch to temporary folder
                     String patchUnzipPath = CodePushUtils.appendPathComponent(tempWorkingPath, "patch_" + i);
-                    FileUtils.unzipFile(patchFile, patchUnzipPath);
-                    patchFile.delete();
+                    unzipFile(patchFile, patchUnzipPath);
 
-                    // Apply this patch
-                    applyPatchToWorkingFolder(patchUnzipPath, workingFolderPath, tempWorkingPath, i);
+                    // Apply this patch and checkpoint the resulting tree
+                    progress.reportStage(DownloadProgress.STAGE_APPLY, i, totalPatches);
+                    workingFolderName = applyPatchAndCheckpoint(patchUnzipPath, tempWorkingPath, workingFolderName, i, chainId, patchMode, binaryAssetSource, downloadTask, knownFileHashes);
+                    progress.reportStage(DownloadProgress.STAGE_APPLY, i + 1, totalPatches);
                     FileUtils.deleteDirectoryAtPath(patchUnzipPath);
+                    patchFile.delete();
                 }
             }
+            workingFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, workingFolderName);
 
-            // Move final result to target location
-            // CodePushUtils.log("Moving final multi-patch result to: " + finalUpdateFolderPath);
-            new File(finalUpdateFolderPath).mkdirs();
-            FileUtils.copyDirectoryContents(workingFolderPath, finalUpdateFolderPath);
+            // Move final result to target location. The working tree is not needed once the chain is
+            // complete, and a checkpoint pointing to it is discarded on the next attempt if it is gone.
+            if (!new File(workingFolderPath).renameTo(new File(finalUpdateFolderPath))) {
+                CodePushBlobStore.linkDirectoryContents(workingFolderPath, finalUpdateFolderPath);
+            }
 
             // Find JS bundle and verify
-
-            // DEBUG: Verify final folder before hash check
-            File finalDir = new File(finalUpdateFolderPath);
-            if (finalDir.exists()) {
-                File[] finalFiles = finalDir.listFiles();
-                CodePushUtils.log("=== Final folder files: " + 
-                    (finalFiles != null ? finalFiles.length : 0) + " items");
-                if (finalFiles != null) {
-                    for (File f : finalFiles) {
-                        CodePushUtils.log("  - " + f.getName() + 
-                            (f.isDirectory() ? " (dir)" : " (" + f.length() + " bytes)"));
-                    }
-                }
-            }
             String relativeBundlePath = CodePushUpdateUtils.findJSBundleInUpdateContents(finalUpdateFolderPath, expectedBundleFileName);
             if (relativeBundlePath == null) {
                 throw new CodePushInvalidUpdateException("Update is invalid - A JS bundle file named \"" + expectedBundleFileName + "\" could not be found within the downloaded contents.");
             }
 
-            // Multi-patch: skip final hash verification (already verified each patch)
+            // Multi-patch: skip final hash verification (already verified each patch), unless the chain
+            // was applied to the binary's files, which are only covered by the full package hash.
             // Single-patch: verify hash and signature below
-            boolean isMultiPatch = updatePackage.has("patches");
+            boolean isVerifiedPerPatch = updatePackage.has("patches") && binaryAssetSource == null;
             String newUpdateHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
             boolean isSignatureVerificationEnabled = (stringPublicKey != null);
             String signaturePath = CodePushUpdateUtils.getSignatureFilePath(finalUpdateFolderPath);
             boolean isSignaturePresent = FileUtils.fileAtPathExists(signaturePath);
 
-            if (!isMultiPatch) {
+            progress.reportStage(DownloadProgress.STAGE_VERIFY, 0, 1);
+            if (!isVerifiedPerPatch) {
                 // Single-patch: verify full package hash
                 if (isSignatureVerificationEnabled) {
                     if (isSignaturePresent) {
-                        CodePushUpdateUtils.verifyFolderHash(finalUpdateFolderPath, newUpdateHash);
+                        verifyFolderHash(finalUpdateFolderPath, newUpdateHash, knownFileHashes);
                         CodePushUpdateUtils.verifyUpdateSignature(finalUpdateFolderPath, newUpdateHash, stringPublicKey);
                     } else {
                         throw new CodePushInvalidUpdateException("Error! Public key was provided but there is no JWT signature within app bundle to verify.");
@@ -552,71 +892,228 @@ public class CodePushUpdateManager {
                     if (isSignaturePresent) {
                         CodePushUtils.log("Warning! JWT signature exists but no public key configured.");
                     }
-                    CodePushUpdateUtils.verifyFolderHash(finalUpdateFolderPath, newUpdateHash);
+                    verifyFolderHash(finalUpdateFolderPath, newUpdateHash, knownFileHashes);
                 }
             } else {
                 CodePushUtils.log("Multi-patch update: skipping final hash verification (patches already verified)");
             }
+            progress.reportStage(DownloadProgress.STAGE_VERIFY, 1, 1);
 
             // Save metadata
             CodePushUtils.setJSONValueForKey(updatePackage, CodePushConstants.RELATIVE_BUNDLE_PATH_KEY, relativeBundlePath);
 
-            // DEBUG: Log update completion
-            CodePushUtils.log("=== UPDATE COMPLETION DEBUG ===");
-            CodePushUtils.log("finalUpdateFolderPath: " + finalUpdateFolderPath);
-            CodePushUtils.log("finalUpdateMetadataPath: " + finalUpdateMetadataPath);
-            CodePushUtils.log("updatePackage label: " + updatePackage.optString("label", "unknown"));
-            CodePushUtils.log("Metadata saved successfully");
-            CodePushUtils.writeJsonToFile(updatePackage, finalUpdateMetadataPath);
+            getBlobStore().addPackage(finalUpdateFolderPath);
+            mPackageStateStore.write(finalUpdateMetadataPath, updatePackage);
 
-            CodePushUtils.log("[" + new java.text.SimpleDateFormat("HH:mm:ss.SSS").format(new java.util.Date()) + "] Patch finished - downloaded: " + totalBytesReceived + " bytes");
+            CodePushUtils.log("Patch finished - downloaded: " + totalBytesReceived + " bytes");
+            // Patches reused from an interrupted attempt are counted too, since the full package
+            // would have had to be downloaded in one go.
+            mMetrics.recordPatchBytesSaved(updatePackage.optLong(CodePushConstants.PACKAGE_SIZE_KEY, 0) - totalBytesReceived);
             CodePushUtils.log("Multi-patch update completed successfully!");
 
+            // The chain is complete, so the checkpoint is no longer needed.
+            discardCheckpoint = true;
         } catch (Exception e) {
             // Clean up on error
             if (FileUtils.fileAtPathExists(finalUpdateFolderPath)) {
                 FileUtils.deleteDirectoryAtPath(finalUpdateFolderPath);
+                mPackageStateStore.invalidate(finalUpdateFolderPath);
+            }
+
+            if (e instanceof CodePushDownloadCancelledException) {
+                // The patches applied so far are still valid, so a later download of the same chain
+                // resumes from the checkpoint. A different chain discards it through its chain id.
+                throw (CodePushDownloadCancelledException) e;
             }
+
+            if (e instanceof CodePushBinaryFileMismatchException) {
+                // A tree built on the binary's files can't be resumed either.
+                discardCheckpoint = true;
+                throw (CodePushBinaryFileMismatchException) e;
+            }
+
+            // An invalid chain will fail the same way on retry, so only keep the checkpoint for
+            // transient failures such as network errors.
+            discardCheckpoint = e instanceof CodePushInvalidUpdateException;
             throw new IOException("Multi-patch update failed: " + e.getMessage(), e);
         } finally {
-            // Clean up temporary directory
-            if (FileUtils.fileAtPathExists(tempWorkingPath)) {
+            if (discardCheckpoint && FileUtils.fileAtPathExists(tempWorkingPath)) {
                 FileUtils.deleteDirectoryAtPath(tempWorkingPath);
             }
+            getCostModel().save();
+        }
+    }
+
+    /**
+     * Returns the binary's embedded files when they are the base a diff has to be applied to, i.e.
+     * when no update has been installed yet.
+     */
+    private CodePushBinaryAssetSource getBinaryAssetSourceForBase(String currentPackageFolderPath) {
+        if (currentPackageFolderPath != null && FileUtils.fileAtPathExists(currentPackageFolderPath)) {
+            return null;
+        }
+
+        return mBinaryAssetSource;
+    }
+
+    private String getMultiPatchTempPath() {
+        return CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.MULTI_PATCH_FOLDER_NAME);
+    }
+
+    /**
+     * Identifies a patch chain by its base package, its target package and the patches it consists of,
+     * so that a checkpoint is only ever resumed by the exact same chain. Download URLs are left out on
+     * purpose since they may be signed and change between attempts. A chain based on the binary's files
+     * is identified by the binary's build time, so that a checkpoint left by an older APK is not resumed.
+     */
+    private String computePatchChainId(JSONArray patches, String basePackageHash, JSONObject updatePackage) throws IOException {
+        StringBuilder chainDescription = new StringBuilder();
+        if (basePackageHash != null) {
+            chainDescription.append(basePackageHash);
+        } else {
+            chainDescription.append("binary:").append(updatePackage.optString(CodePushConstants.BINARY_MODIFIED_TIME_KEY, ""));
+        }
+        chainDescription.append('|');
+        chainDescription.append(updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null));
+        for (int i = 0; i < patches.length(); i++) {
+            JSONObject patch = patches.optJSONObject(i);
+            if (patch == null) {
+                continue;
+            }
+
+            String patchHash = patch.optString("hash", null);
+            if (patchHash == null) {
+                String patchUrl = patch.optString("url", "");
+                int queryIndex = patchUrl.indexOf('?');
+                patchHash = queryIndex >= 0 ? patchUrl.substring(0, queryIndex) : patchUrl;
+            }
+            chainDescription.append('|').append(patchHash);
+        }
+
+        return CodePushUpdateUtils.computeHash(new ByteArrayInputStream(chainDescription.toString().getBytes("UTF-8")));
+    }
+
+    private JSONObject readMultiPatchCheckpoint(String tempWorkingPath, String chainId) {
+        String checkpointPath = CodePushUtils.appendPathComponent(tempWorkingPath, CodePushConstants.MULTI_PATCH_CHECKPOINT_FILE_NAME);
+        if (!FileUtils.fileAtPathExists(checkpointPath)) {
+            return null;
+        }
+
+        try {
+            JSONObject checkpoint = CodePushUtils.getJsonObjectFromFile(checkpointPath);
+            String workingFolderName = checkpoint.optString(CHECKPOINT_WORKING_FOLDER_KEY, null);
+            if (!chainId.equals(checkpoint.optString(CHECKPOINT_CHAIN_ID_KEY, null)) || workingFolderName == null
+                    || !FileUtils.fileAtPathExists(CodePushUtils.appendPathComponent(tempWorkingPath, workingFolderName))) {
+                CodePushUtils.log("Discarding multi-patch checkpoint that does not match the current chain.");
+                return null;
+            }
+
+            return checkpoint;
+        } catch (IOException | CodePushMalformedDataException e) {
+            CodePushUtils.log("Unable to read multi-patch checkpoint: " + e.getMessage());
+            return null;
         }
     }
 
+    private void writeMultiPatchCheckpoint(String tempWorkingPath, String chainId, String patchMode,
+                                           int lastAppliedIndex, String workingFolderName) throws IOException {
+        JSONObject checkpoint = new JSONObject();
+        CodePushUtils.setJSONValueForKey(checkpoint, CHECKPOINT_CHAIN_ID_KEY, chainId);
+        CodePushUtils.setJSONValueForKey(checkpoint, CHECKPOINT_PATCH_MODE_KEY, patchMode);
+        CodePushUtils.setJSONValueForKey(checkpoint, CHECKPOINT_LAST_APPLIED_INDEX_KEY, lastAppliedIndex);
+        CodePushUtils.setJSONValueForKey(checkpoint, CHECKPOINT_WORKING_FOLDER_KEY, workingFolderName);
+        FileUtils.writeStringToFileAtomically(checkpoint.toString(),
+                CodePushUtils.appendPathComponent(tempWorkingPath, CodePushConstants.MULTI_PATCH_CHECKPOINT_FILE_NAME));
+    }
+
     /**
-     * Apply a single patch (diff) to the working folder.
+     * Removes everything an interrupted attempt may have left half-written, keeping only the
+     * checkpoint, the downloaded patches and the checkpointed working tree.
+     */
+    private void removeStaleMultiPatchEntries(String tempWorkingPath, String workingFolderName) {
+        File[] entries = new File(tempWorkingPath).listFiles();
+        if (entries == null) {
+            return;
+        }
+
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (!name.equals(CodePushConstants.MULTI_PATCH_CHECKPOINT_FILE_NAME)
+                    && !name.equals(MULTI_PATCH_DOWNLOADS_FOLDER_NAME)
+                    && !name.equals(workingFolderName)) {
+                FileUtils.deleteFileOrFolderSilently(entry);
+            }
+        }
+    }
+
+    /**
+     * Applies a patch on top of the current working tree into a fresh folder, records a checkpoint
+     * pointing at that folder and only then removes the previous tree. The checkpoint therefore
+     * always references a complete tree, even if the process dies in the middle of this method.
+     */
+    private String applyPatchAndCheckpoint(String patchUnzipPath, String tempWorkingPath, String workingFolderName,
+                                           int patchIndex, String chainId, String patchMode,
+                                           CodePushBinaryAssetSource binaryAssetSource,
+                                           CodePushDownloadTask downloadTask,
+                                           Map<String, String> knownFileHashes) throws IOException {
+        String workingFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, workingFolderName);
+        String resultFolderName = MULTI_PATCH_BASE_FOLDER_NAME + "_" + patchIndex;
+        String resultFolderPath = CodePushUtils.appendPathComponent(tempWorkingPath, resultFolderName);
+        if (FileUtils.fileAtPathExists(resultFolderPath)) {
+            FileUtils.deleteDirectoryAtPath(resultFolderPath);
+        }
+
+        long applyStartTime = SystemClock.elapsedRealtime();
+        long traceStart = CodePushTrace.begin();
+        try {
+            applyPatchToWorkingFolder(patchUnzipPath, workingFolderPath, resultFolderPath, binaryAssetSource, downloadTask, knownFileHashes);
+        } finally {
+            CodePushTrace.end("applyPatchToWorkingFolder", traceStart, "patchIndex", patchIndex);
+        }
+        long applyDurationMs = SystemClock.elapsedRealtime() - applyStartTime;
+        getCostModel().recordApply(FileUtils.getFolderSize(resultFolderPath), applyDurationMs);
+        mMetrics.recordApply(applyDurationMs);
+        writeMultiPatchCheckpoint(tempWorkingPath, chainId, patchMode, patchIndex, resultFolderName);
+        FileUtils.deleteDirectoryAtPath(workingFolderPath);
+        return resultFolderName;
+    }
+
+    /**
+     * Apply a single patch (diff) on top of the working folder, writing the patched tree to resultFolderPath.
+     * The working folder itself is left untouched, and the paths the patch changes are dropped from
+     * knownFileHashes, if given.
      * Extracted as helper method to be reused by both individual and bundled patch modes.
      */
-    private void applyPatchToWorkingFolder(String patchUnzipPath, String workingFolderPath, 
-                                           String tempWorkingPath, int patchIndex) throws IOException {
-        // Apply diff to a temporary result folder
-        String tempResultPath = CodePushUtils.appendPathComponent(tempWorkingPath, "result_" + patchIndex);
-        new File(tempResultPath).mkdirs();
-        
+    private void applyPatchToWorkingFolder(String patchUnzipPath, String workingFolderPath,
+                                           String resultFolderPath,
+                                           CodePushBinaryAssetSource binaryAssetSource,
+                                           CodePushDownloadTask downloadTask,
+                                           Map<String, String> knownFileHashes) throws IOException {
+        new File(resultFolderPath).mkdirs();
+
         String diffManifestPath = CodePushUtils.appendPathComponent(patchUnzipPath, CodePushConstants.DIFF_MANIFEST_FILE_NAME);
-        
+
         if (FileUtils.fileAtPathExists(diffManifestPath)) {
-            // Copy working folder to temp result, apply diff
-            CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestPath, workingFolderPath, tempResultPath, patchUnzipPath);
-            
+            // Copy working folder to result, apply diff
+            CodePushUpdateUtils.copyNecessaryFilesFromCurrentPackage(diffManifestPath, workingFolderPath, resultFolderPath, patchUnzipPath, binaryAssetSource, downloadTask, knownFileHashes);
+
             // Copy new/modified files from patch (excluding .patch files and manifest)
             File patchDir = new File(patchUnzipPath);
             File[] patchDirFiles = patchDir.listFiles();
             if (patchDirFiles != null) {
                 for (File patchDirFile : patchDirFiles) {
+                    downloadTask.throwIfCancelled();
                     String fileName = patchDirFile.getName();
                     // Skip .patch files and hotcodepush.json (already processed)
-                    if (!fileName.endsWith(".patch") && 
+                    if (!fileName.endsWith(".patch") &&
                         !fileName.equals(CodePushConstants.DIFF_MANIFEST_FILE_NAME)) {
-                        File dest = new File(tempResultPath, fileName);
+                        File dest = new File(resultFolderPath, fileName);
                         if (patchDirFile.isDirectory()) {
                             FileUtils.copyDirectoryContents(patchDirFile.getAbsolutePath(), dest.getAbsolutePath());
                         } else {
                             // Copy single file
                             dest.getParentFile().mkdirs();
+                            dest.delete();
                             FileInputStream fis = new FileInputStream(patchDirFile);
                             FileOutputStream fos = new FileOutputStream(dest);
                             byte[] buffer = new byte[8192];
@@ -630,25 +1127,30 @@ public class CodePushUpdateManager {
                     }
                 }
             }
-            
+
             new File(diffManifestPath).delete();
         } else {
             // No diff manifest, just copy working folder
-            FileUtils.copyDirectoryContents(workingFolderPath, tempResultPath);
-            
+            CodePushBlobStore.linkDirectoryContents(workingFolderPath, resultFolderPath);
+
             // Merge patch contents
-            FileUtils.copyDirectoryContents(patchUnzipPath, tempResultPath);
+            if (knownFileHashes != null) {
+                Set<String> patchFilePaths = new HashSet<>();
+                CodePushUpdateUtils.addRelativeFilePaths(new File(patchUnzipPath), "", patchFilePaths);
+                knownFileHashes.keySet().removeAll(patchFilePaths);
+            }
+            FileUtils.copyDirectoryContents(patchUnzipPath, resultFolderPath);
         }
-        
+
         // Clean up temporary files (.patch, .json, etc)
-        File tempResultDir = new File(tempResultPath);
-        if (tempResultDir.exists()) {
-            File[] files = tempResultDir.listFiles();
+        File resultDir = new File(resultFolderPath);
+        if (resultDir.exists()) {
+            File[] files = resultDir.listFiles();
             if (files != null) {
                 for (File file : files) {
                     String fileName = file.getName();
                     // Delete .patch files and hotcodepush.json
-                    if (fileName.endsWith(".patch") || 
+                    if (fileName.endsWith(".patch") ||
                         fileName.equals("hotcodepush.json") ||
                         fileName.equals(CodePushConstants.DIFF_MANIFEST_FILE_NAME)) {
                         file.delete();
@@ -656,32 +1158,67 @@ public class CodePushUpdateManager {
                 }
             }
         }
-        
-        // Replace working folder with result
-        FileUtils.deleteDirectoryAtPath(workingFolderPath);
-        new File(workingFolderPath).mkdirs();
-        FileUtils.copyDirectoryContents(tempResultPath, workingFolderPath);
-        FileUtils.deleteDirectoryAtPath(tempResultPath);
     }
 
-    private File downloadSinglePatch(String patchUrl, int patchIndex,
-                                     DownloadProgressCallback progressCallback,
-                                     long bytesReceivedSoFar, long totalBytesExpected) throws IOException {
+    /**
+     * Returns the verified zip for the given patch, reusing a complete download left behind by an
+     * interrupted attempt when its hash still matches.
+     */
+    private File obtainPatchFile(JSONObject patch, int patchIndex, String downloadsFolderPath,
+                                 DownloadProgress progress,
+                                 long bytesReceivedSoFar, long totalBytesExpected,
+                                 CodePushDownloadTask downloadTask) throws IOException {
+        String patchUrl = patch.optString("url", null);
+        String patchHash = patch.optString("hash", null);
+        File patchFile = new File(downloadsFolderPath, "patch_" + patchIndex + ".zip");
+
+        if (patchFile.exists()) {
+            if (patchHash == null || patchHash.equals(CodePushUpdateUtils.computeHash(new FileInputStream(patchFile)))) {
+                CodePushUtils.log("Reusing previously downloaded patch " + (patchIndex + 1));
+                return patchFile;
+            }
+
+            patchFile.delete();
+        }
+
+        downloadSinglePatch(patchUrl, patchFile, progress, bytesReceivedSoFar, totalBytesExpected, downloadTask);
+
+        // Verify patch file hash
+        if (patchHash != null) {
+            String actualPatchHash = CodePushUpdateUtils.computeHash(new FileInputStream(patchFile));
+            if (!patchHash.equals(actualPatchHash)) {
+                patchFile.delete();
+                throw new CodePushInvalidUpdateException(
+                    "Patch file hash mismatch. Expected: " + patchHash + ", Actual: " + actualPatchHash
+                );
+            }
+        }
+
+        return patchFile;
+    }
+
+    private void downloadSinglePatch(String patchUrl, File destinationFile,
+                                     DownloadProgress progress,
+                                     long bytesReceivedSoFar, long totalBytesExpected,
+                                     CodePushDownloadTask downloadTask) throws IOException {
         HttpURLConnection connection = null;
         BufferedInputStream bin = null;
         FileOutputStream fos = null;
         BufferedOutputStream bout = null;
 
+        // Download to a side file and only give it its final name once it is complete, so that a
+        // file found under the final name on a later attempt can always be reused.
+        File partialFile = new File(destinationFile.getAbsolutePath() + ".part");
+
         try {
             URL downloadUrl = new URL(patchUrl);
             connection = (HttpURLConnection) downloadUrl.openConnection();
-            
+
             // Set timeouts for large file downloads
             connection.setConnectTimeout(30000);  // 30초 연결 타임아웃
             connection.setReadTimeout(300000);    // 5분 읽기 타임아웃 (대용량 파일용)
 
             if (android.os.Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP &&
-                downloadUrl.toString().startsWith("https")) {
                 downloadUrl.toString().startsWith("https")) {
                 try {
                     ((HttpsURLConnection)connection).setSSLSocketFactory(new TLSSocketFactory());
@@ -695,42 +1232,37 @@ public class CodePushUpdateManager {
 
             long patchBytes = connection.getContentLength();
             long receivedBytes = 0;
+            long downloadStartTime = SystemClock.elapsedRealtime();
 
-            // DEBUG: Download info
-            CodePushUtils.log("=== DOWNLOAD DEBUG ===");
-            CodePushUtils.log("URL: " + patchUrl);
-            CodePushUtils.log("Expected size: " + patchBytes + " bytes");
-            CodePushUtils.log("HTTP Status: " + connection.getResponseCode());
+            CodePushLog.debug("Downloading {} ({} bytes)", destinationFile, patchBytes);
 
-            File downloadFolder = new File(getCodePushPath());
-            File downloadFile = new File(downloadFolder, "patch_" + patchIndex + ".zip");
-            fos = new FileOutputStream(downloadFile);
+            destinationFile.getParentFile().mkdirs();
+            fos = new FileOutputStream(partialFile);
             bout = new BufferedOutputStream(fos, CodePushConstants.DOWNLOAD_BUFFER_SIZE);
 
             byte[] data = new byte[CodePushConstants.DOWNLOAD_BUFFER_SIZE];
             int numBytesRead;
 
             while ((numBytesRead = bin.read(data, 0, CodePushConstants.DOWNLOAD_BUFFER_SIZE)) >= 0) {
+                downloadTask.throwIfCancelled();
                 receivedBytes += numBytesRead;
                 bout.write(data, 0, numBytesRead);
-                
-                if (progressCallback != null && totalBytesExpected > 0) {
-                    long totalReceived = bytesReceivedSoFar + receivedBytes;
-                    progressCallback.call(new DownloadProgress(totalBytesExpected, totalReceived));
+
+                if (totalBytesExpected > 0) {
+                    progress.reportDownload(totalBytesExpected, bytesReceivedSoFar + receivedBytes);
                 }
             }
 
             // Flush before checking
             bout.flush();
-            
-            CodePushUtils.log("Download complete - received: " + receivedBytes + " bytes, expected: " + patchBytes + " bytes");
-            
+
+            CodePushLog.debug("Download complete - received: {} bytes, expected: {} bytes", receivedBytes, patchBytes);
+
             if (patchBytes != -1 && patchBytes != receivedBytes) {
                 throw new CodePushUnknownException("Received " + receivedBytes + " bytes, expected " + patchBytes);
             }
 
-            return downloadFile;
-
+            recordDownload(receivedBytes, SystemClock.elapsedRealtime() - downloadStartTime);
         } catch (MalformedURLException e) {
             throw new CodePushMalformedDataException(patchUrl, e);
         } finally {
@@ -743,9 +1275,14 @@ public class CodePushUpdateManager {
                 throw new CodePushUnknownException("Error closing IO resources.", e);
             }
         }
+
+        if (!partialFile.renameTo(destinationFile)) {
+            throw new CodePushUnknownException("Unable to move downloaded patch to " + destinationFile.getAbsolutePath() + ".");
+        }
     }
 
-    public void installPackage(JSONObject updatePackage, boolean removePendingUpdate) {
+    public synchronized void installPackage(JSONObject updatePackage, boolean removePendingUpdate) {
+        long installStartTime = SystemClock.elapsedRealtime();
         String packageHash = updatePackage.optString(CodePushConstants.PACKAGE_HASH_KEY, null);
         JSONObject info = getCurrentPackageInfo();
 
@@ -755,31 +1292,201 @@ public class CodePushUpdateManager {
             return;
         }
 
+        String stalePackageHash;
         if (removePendingUpdate) {
-            String currentPackageFolderPath = getCurrentPackageFolderPath();
-            if (currentPackageFolderPath != null) {
-                FileUtils.deleteDirectoryAtPath(currentPackageFolderPath);
+            stalePackageHash = currentPackageHash;
+            if (currentPackageHash != null && !restorePreviousPackageIfCompacted()) {
+                CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
             }
         } else {
-            String previousPackageHash = getPreviousPackageHash();
-            if (previousPackageHash != null && !previousPackageHash.equals(packageHash)) {
-                FileUtils.deleteDirectoryAtPath(getPackageFolderPath(previousPackageHash));
-            }
-
-            CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null));
+            stalePackageHash = info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
+            CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, currentPackageHash);
         }
 
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.CURRENT_PACKAGE_KEY, packageHash);
         updateCurrentPackageInfo(info);
+        scheduleStalePackageRemoval(stalePackageHash);
+        mMetrics.recordInstall(SystemClock.elapsedRealtime() - installStartTime);
     }
 
-    public void rollbackPackage() {
+    public synchronized void rollbackPackage() {
+        boolean isPreviousPackageRestored = restorePreviousPackageIfCompacted();
         JSONObject info = getCurrentPackageInfo();
-        String currentPackageFolderPath = getCurrentPackageFolderPath();
-        FileUtils.deleteDirectoryAtPath(currentPackageFolderPath);
-        CodePushUtils.setJSONValueForKey(info, CodePushConstants.CURRENT_PACKAGE_KEY, info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null));
+        String stalePackageHash = info.optString(CodePushConstants.CURRENT_PACKAGE_KEY, null);
+        CodePushUtils.setJSONValueForKey(info, CodePushConstants.CURRENT_PACKAGE_KEY,
+                isPreviousPackageRestored ? info.optString(CodePushConstants.PREVIOUS_PACKAGE_KEY, null) : null);
         CodePushUtils.setJSONValueForKey(info, CodePushConstants.PREVIOUS_PACKAGE_KEY, null);
         updateCurrentPackageInfo(info);
+        scheduleStalePackageRemoval(stalePackageHash);
+    }
+
+    private synchronized void scheduleStalePackageRemoval(String packageHash) {
+        if (packageHash == null) {
+            return;
+        }
+
+        mStalePackageHashes.add(packageHash);
+        getScheduler().execute(CodePushScheduler.Lane.IO, new Runnable() {
+            @Override
+            public void run() {
+                removeStalePackages();
+            }
+        });
+    }
+
+    private void removeStalePackages() {
+        synchronized (this) {
+            if (mStalePackageHashes.isEmpty()) {
+                return;
+            }
+
+            // A package may have been installed again since it was scheduled for removal.
+            String currentPackageHash = getCurrentPackageHash();
+            String previousPackageHash = getPreviousPackageHash();
+            for (String packageHash : mStalePackageHashes) {
+                if (!packageHash.equals(currentPackageHash) && !packageHash.equals(previousPackageHash)) {
+                    moveToStalePackagesFolder(packageHash);
+                }
+            }
+
+            mStalePackageHashes.clear();
+        }
+
+        deleteStalePackages();
+    }
+
+    /**
+     * Removes the package folders that the status file does not refer to, e.g. the ones an install or
+     * rollback left behind when the process died before they were deleted. Packages downloaded by this
+     * process are kept, since they may still be installed.
+     */
+    void removeUnreferencedPackages() {
+        // A download in progress writes to a folder the status file does not refer to yet.
+        synchronized (mDownloadLock) {
+            synchronized (this) {
+                String currentPackageHash = getCurrentPackageHash();
+                String previousPackageHash = getPreviousPackageHash();
+                File[] entries = new File(getCodePushPath()).listFiles();
+                if (entries != null) {
+                    for (File entry : entries) {
+                        String packageHash = entry.getName();
+                        if (entry.isDirectory() && PACKAGE_FOLDER_NAME_PATTERN.matcher(packageHash).matches()
+                                && !packageHash.equals(currentPackageHash) && !packageHash.equals(previousPackageHash)
+                                && !mDownloadedPackageHashes.contains(packageHash)) {
+                            CodePushUtils.log("Removing package " + packageHash + ", which is not referenced by the status file.");
+                            moveToStalePackagesFolder(packageHash);
+                        }
+                    }
+                }
+            }
+        }
+
+        deleteStalePackages();
+    }
+
+    // Moves a package folder out of the way while the manager's lock is held, so that it can be deleted
+    // without the lock and without deleting a package with the same hash that is downloaded in the meantime.
+    private void moveToStalePackagesFolder(String packageHash) {
+        String packageFolderPath = getPackageFolderPath(packageHash);
+        mPackageStateStore.invalidate(packageFolderPath);
+        File packageFolder = new File(packageFolderPath);
+        if (!packageFolder.exists()) {
+            return;
+        }
+
+        File stalePackagesFolder = new File(getCodePushPath(), CodePushConstants.STALE_PACKAGES_FOLDER_NAME);
+        stalePackagesFolder.mkdirs();
+        if (!packageFolder.renameTo(new File(stalePackagesFolder, packageHash + "_" + System.nanoTime()))) {
+            FileUtils.deleteDirectoryAtPath(packageFolderPath);
+        }
+    }
+
+    // Deletes the moved package folders, including the ones left behind by a process that died while
+    // deleting them, and then the blobs that only they referred to.
+    private void deleteStalePackages() {
+        synchronized (mStalePackagesLock) {
+            File[] stalePackageFolders = new File(getCodePushPath(), CodePushConstants.STALE_PACKAGES_FOLDER_NAME).listFiles();
+            if (stalePackageFolders == null || stalePackageFolders.length == 0) {
+                return;
+            }
+
+            for (File stalePackageFolder : stalePackageFolders) {
+                FileUtils.deleteFileOrFolderSilently(stalePackageFolder);
+            }
+
+            getBlobStore().collectGarbage();
+        }
+    }
+
+    /**
+     * Replaces the previous package with reverse patches against the current package, so that it
+     * only takes the space of what changed between them. Only runs once the current package has
+     * been confirmed, since a rollback would need to restore it first.
+     *
+     * The patches are created without holding the manager's lock, which is only taken to check that
+     * both packages are still the current and previous ones and to swap the patches in.
+     */
+    public void compactPreviousPackage() {
+        synchronized (mCompactionLock) {
+            String previousPackageHash;
+            String currentPackageHash;
+            synchronized (this) {
+                previousPackageHash = getPreviousPackageHash();
+                currentPackageHash = getCurrentPackageHash();
+                if (!mIsReverseDeltaRollbackEnabled || previousPackageHash == null || currentPackageHash == null) {
+                    return;
+                }
+            }
+
+            String previousPackageFolderPath = getPackageFolderPath(previousPackageHash);
+            if (!FileUtils.fileAtPathExists(previousPackageFolderPath) || CodePushReverseDelta.isCompacted(previousPackageFolderPath)) {
+                return;
+            }
+
+            String deltaFolderPath = CodePushUtils.appendPathComponent(getCodePushPath(), CodePushConstants.REVERSE_DELTA_FOLDER_NAME);
+            try {
+                CodePushReverseDelta.createDelta(previousPackageFolderPath, getPackageFolderPath(currentPackageHash), currentPackageHash, deltaFolderPath);
+                synchronized (this) {
+                    // An install or a rollback may have replaced either package in the meantime.
+                    if (!previousPackageHash.equals(getPreviousPackageHash()) || !currentPackageHash.equals(getCurrentPackageHash())) {
+                        CodePushUtils.log("The packages changed while the previous package was compacted, discarding its reverse delta.");
+                        return;
+                    }
+
+                    CodePushReverseDelta.applyDelta(previousPackageFolderPath, deltaFolderPath);
+                    getBlobStore().collectGarbage();
+                }
+            } catch (IOException e) {
+                // The previous package stays complete, the next attempt starts over.
+                CodePushUtils.log("Unable to compact the previous package: " + e.getMessage());
+            } finally {
+                FileUtils.deleteDirectoryAtPath(deltaFolderPath);
+            }
+        }
+    }
+
+    // Returns false if the previous package is gone or could not be restored, in which case the
+    // only known good state left is the binary.
+    private boolean restorePreviousPackageIfCompacted() {
+        String previousPackageHash = getPreviousPackageHash();
+        if (previousPackageHash == null) {
+            return false;
+        }
+
+        String previousPackageFolderPath = getPackageFolderPath(previousPackageHash);
+        if (!CodePushReverseDelta.isCompacted(previousPackageFolderPath)) {
+            return true;
+        }
+
+        try {
+            CodePushReverseDelta.restore(previousPackageFolderPath, getCurrentPackageFolderPath());
+            return true;
+        } catch (IOException | CodePushUnknownException | CodePushMalformedDataException e) {
+            CodePushUtils.log("Unable to restore the previous package, falling back to the binary: " + e.getMessage());
+            FileUtils.deleteDirectoryAtPath(previousPackageFolderPath);
+            mPackageStateStore.invalidate(previousPackageFolderPath);
+            return false;
+        }
     }
 
     public void downloadAndReplaceCurrentBundle(String remoteBundleUrl, String bundleFileName) throws IOException {
@@ -815,7 +1522,11 @@ public class CodePushUpdateManager {
         }
     }
 
-    public void clearUpdates() {
+    public synchronized void clearUpdates() {
+        deleteBootRecord();
+        mStalePackageHashes.clear();
+        mDownloadedPackageHashes.clear();
         FileUtils.deleteDirectoryAtPath(getCodePushPath());
+        mPackageStateStore.clear();
     }
 }
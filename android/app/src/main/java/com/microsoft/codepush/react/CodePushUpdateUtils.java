@@ -1,13 +1,6 @@
 package com.microsoft.codepush.react;
 
 import android.content.Context;
-import android.util.Base64;
-
-import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.RSASSAVerifier;
-import com.nimbusds.jwt.SignedJWT;
-
-import java.security.interfaces.*;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -20,18 +13,22 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.DigestInputStream;
-import java.security.KeyFactory;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.PublicKey;
-import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 
 public class CodePushUpdateUtils {
 
     public static final String NEW_LINE = System.getProperty("line.separator");
+    // A diff that misses patches usually misses many, so the warning is limited to a few per second.
+    private static final CodePushLog.RateLimiter sMissingPatchLogLimiter = new CodePushLog.RateLimiter(5, 1000);
 
     // Note: The hashing logic here must mirror the hashing logic in other native SDK's, as well as in the
     // CLI. Ensure that any changes here are propagated to these other locations.
@@ -47,7 +44,9 @@ public class CodePushUpdateUtils {
                 || relativeFilePath.endsWith("/" + CODEPUSH_METADATA);
     }
 
-    private static void addContentsOfFolderToManifest(String folderPath, String pathPrefix, ArrayList<String> manifest) {
+    // Files with an entry in knownFileHashes, if given, are not hashed again. Returns the number of files that were hashed.
+    private static int addContentsOfFolderToManifest(String folderPath, String pathPrefix, ArrayList<String> manifest, Map<String, String> knownFileHashes) {
+        int hashedFileCount = 0;
         File folder = new File(folderPath);
         File[] folderFiles = folder.listFiles();
         for (File file : folderFiles) {
@@ -60,16 +59,23 @@ public class CodePushUpdateUtils {
             }
 
             if (file.isDirectory()) {
-                addContentsOfFolderToManifest(fullFilePath, relativePath, manifest);
+                hashedFileCount += addContentsOfFolderToManifest(fullFilePath, relativePath, manifest, knownFileHashes);
             } else {
-                try {
-                    manifest.add(relativePath + ":" + computeHash(new FileInputStream(file)));
-                } catch (FileNotFoundException e) {
-                    // Should not happen.
-                    throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+                String fileHash = knownFileHashes != null ? knownFileHashes.get(relativePath) : null;
+                if (fileHash == null) {
+                    try {
+                        fileHash = computeHash(new FileInputStream(file));
+                    } catch (FileNotFoundException e) {
+                        // Should not happen.
+                        throw new CodePushUnknownException("Unable to compute hash of update contents.", e);
+                    }
+                    hashedFileCount++;
                 }
+                manifest.add(relativePath + ":" + fileHash);
             }
         }
+
+        return hashedFileCount;
     }
 
     public static String computeHash(InputStream dataStream) {
@@ -100,26 +106,83 @@ public class CodePushUpdateUtils {
         return String.format("%064x", new java.math.BigInteger(1, hash));
     }
 
-    public static void copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath, String patchFolderPath) throws IOException {
-        if (currentPackageFolderPath == null || !new File(currentPackageFolderPath).exists()) {
+    static Map<String, String> getFolderFileHashes(String folderPath) {
+        ArrayList<String> manifest = new ArrayList<>();
+        addContentsOfFolderToManifest(folderPath, "", manifest, null);
+        Map<String, String> fileHashes = new HashMap<>();
+        for (String manifestEntry : manifest) {
+            int separatorIndex = manifestEntry.lastIndexOf(':');
+            fileHashes.put(manifestEntry.substring(0, separatorIndex), manifestEntry.substring(separatorIndex + 1));
+        }
+
+        return fileHashes;
+    }
+
+    public static Set<String> copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath, String patchFolderPath) throws IOException {
+        return copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath, newPackageFolderPath, patchFolderPath, null);
+    }
+
+    // When binaryAssetSource is given, files that the diff modifies but that are not present locally are
+    // patched from the copies embedded in the binary. This allows the first update after installing the
+    // binary to be a diff, in which case the binary's remaining files are copied into the new package.
+    // Besides "deletedFiles" and "modifiedFiles", the diff manifest may list "copiedFiles" and "renamedFiles",
+    // entries of the form {"to": <path>, "from": <path>} or {"to": <path>, "hash": <sha256>}. Their contents
+    // already exist in the base package and are copied locally instead of being downloaded.
+    // Returns the paths of base package files that are not part of the new package.
+    public static Set<String> copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath, String patchFolderPath, CodePushBinaryAssetSource binaryAssetSource) throws IOException {
+        return copyNecessaryFilesFromCurrentPackage(diffManifestFilePath, currentPackageFolderPath, newPackageFolderPath, patchFolderPath, binaryAssetSource, null, null);
+    }
+
+    // downloadTask, if given, is checked before every file that is patched. knownFileHashes, if given, holds the
+    // hashes of base package files that are known not to have changed since they were verified. The binary's
+    // files copied into the new package are added to it, and every path the diff writes or removes is dropped.
+    static Set<String> copyNecessaryFilesFromCurrentPackage(String diffManifestFilePath, String currentPackageFolderPath, String newPackageFolderPath, String patchFolderPath, CodePushBinaryAssetSource binaryAssetSource, CodePushDownloadTask downloadTask, Map<String, String> knownFileHashes) throws IOException {
+        Set<String> removedFilePaths = new HashSet<>();
+        boolean hasCurrentPackage = currentPackageFolderPath != null && new File(currentPackageFolderPath).exists();
+        if (!hasCurrentPackage && binaryAssetSource == null) {
             CodePushUtils.log("Unable to copy files from current package during diff update, because currentPackageFolderPath is invalid.");
-            return;
+            return removedFilePaths;
+        }
+
+        if (hasCurrentPackage) {
+            // Link all files from current package
+            CodePushBlobStore.linkDirectoryContents(currentPackageFolderPath, newPackageFolderPath);
+        } else {
+            CodePushUtils.log("No current package, applying diff update against the binary's embedded files.");
+            new File(newPackageFolderPath).mkdirs();
         }
-        
-        // Copy all files from current package
-        FileUtils.copyDirectoryContents(currentPackageFolderPath, newPackageFolderPath);
         
         // Read manifest
         JSONObject diffManifest = CodePushUtils.getJsonObjectFromFile(diffManifestFilePath);
+
+        // Paths written or removed by the diff, including the files of the patch folder that the caller
+        // merges into the new package afterwards.
+        Set<String> changedFilePaths = new HashSet<>();
+        addRelativeFilePaths(new File(patchFolderPath), "", changedFilePaths);
         
         try {
+            // Handle copied and renamed files. Their sources are read from the base package rather than
+            // from the new folder, so entries that swap paths do not overwrite each other.
+            CodePushContentIndex contentIndex = new CodePushContentIndex(hasCurrentPackage ? currentPackageFolderPath : null, binaryAssetSource);
+            Set<String> reusedFilePaths = new HashSet<>();
+            copyReusedFiles(diffManifest.optJSONArray("copiedFiles"), contentIndex, newPackageFolderPath, reusedFilePaths);
+            Set<String> renamedFromPaths = copyReusedFiles(diffManifest.optJSONArray("renamedFiles"), contentIndex, newPackageFolderPath, reusedFilePaths);
+            changedFilePaths.addAll(reusedFilePaths);
+            for (String renamedFromPath : renamedFromPaths) {
+                if (!reusedFilePaths.contains(renamedFromPath)) {
+                    new File(newPackageFolderPath, renamedFromPath).delete();
+                    removedFilePaths.add(renamedFromPath);
+                }
+            }
+
             // Handle deleted files
             JSONArray deletedFiles = diffManifest.getJSONArray("deletedFiles");
             for (int i = 0; i < deletedFiles.length(); i++) {
                 String fileNameToDelete = deletedFiles.getString(i);
+                removedFilePaths.add(fileNameToDelete);
                 File fileToDelete = new File(newPackageFolderPath, fileNameToDelete);
                 if (fileToDelete.exists()) {
-                    CodePushUtils.log("Deleting file: " + fileNameToDelete);
+                    CodePushLog.debug("Deleting file: {}", fileNameToDelete);
                     fileToDelete.delete();
                 }
             }
@@ -127,31 +190,113 @@ public class CodePushUpdateUtils {
             // Handle modified files (apply .patch files)
             JSONArray modifiedFiles = diffManifest.getJSONArray("modifiedFiles");
             for (int i = 0; i < modifiedFiles.length(); i++) {
+                if (downloadTask != null) {
+                    downloadTask.throwIfCancelled();
+                }
+
                 String modifiedFile = modifiedFiles.getString(i);
+                changedFilePaths.add(modifiedFile);
                 String patchFileName = modifiedFile + ".patch";
                 
                 File oldFile = new File(newPackageFolderPath, modifiedFile);
                 File patchFile = new File(patchFolderPath, patchFileName);
+                File tempFile = new File(newPackageFolderPath, modifiedFile + ".tmp");
                 
                 if (patchFile.exists() && oldFile.exists()) {
                     // Apply bspatch
-                    File tempFile = new File(newPackageFolderPath, modifiedFile + ".tmp");
-                    
-                    CodePushUtils.log("Applying patch: " + patchFileName + " to " + modifiedFile);
+                    CodePushLog.debug("Applying patch: {} to {}", patchFileName, modifiedFile);
                     BsPatch.patch(oldFile, patchFile, tempFile);
                     
                     // Replace old file with patched file
                     oldFile.delete();
                     tempFile.renameTo(oldFile);
-                    
-                    CodePushUtils.log("Patch applied successfully: " + modifiedFile);
+                } else if (patchFile.exists() && binaryAssetSource != null) {
+                    byte[] binaryFileBytes;
+                    try {
+                        binaryFileBytes = binaryAssetSource.readFile(modifiedFile);
+                    } catch (FileNotFoundException e) {
+                        throw new CodePushInvalidUpdateException("Diff update targets " + modifiedFile + ", which is neither in the current package nor in the binary.");
+                    }
+
+                    CodePushLog.debug("Applying patch: {} to binary file {}", patchFileName, modifiedFile);
+                    tempFile.getParentFile().mkdirs();
+                    BsPatch.patch(binaryFileBytes, patchFile, tempFile);
+                    tempFile.renameTo(oldFile);
                 } else {
-                    CodePushUtils.log("Patch file or target not found: " + patchFileName);
+                    sMissingPatchLogLimiter.log(CodePushLog.WARN, "Patch file or target not found: " + patchFileName);
                 }
             }
         } catch (JSONException e) {
             throw new CodePushUnknownException("Unable to process diff manifest", e);
         }
+
+        changedFilePaths.addAll(removedFilePaths);
+        if (knownFileHashes != null) {
+            knownFileHashes.keySet().removeAll(changedFilePaths);
+        }
+
+        if (!hasCurrentPackage) {
+            // The files of the binary that the diff leaves untouched are part of the new package too.
+            Map<String, String> copiedFileHashes = binaryAssetSource.copyMissingFiles(newPackageFolderPath, changedFilePaths);
+            if (knownFileHashes != null) {
+                knownFileHashes.putAll(copiedFileHashes);
+            }
+        }
+
+        return removedFilePaths;
+    }
+
+    static void addRelativeFilePaths(File folder, String pathPrefix, Set<String> relativeFilePaths) {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            String relativePath = (pathPrefix.isEmpty() ? "" : (pathPrefix + "/")) + file.getName();
+            if (file.isDirectory()) {
+                addRelativeFilePaths(file, relativePath, relativeFilePaths);
+            } else {
+                relativeFilePaths.add(relativePath);
+            }
+        }
+    }
+
+    // Copies the base package files referenced by reusedFileEntries to their new paths, and returns the paths they were copied from.
+    private static Set<String> copyReusedFiles(JSONArray reusedFileEntries, CodePushContentIndex contentIndex, String newPackageFolderPath, Set<String> reusedFilePaths) throws IOException {
+        Set<String> sourceFilePaths = new HashSet<>();
+        if (reusedFileEntries == null) {
+            return sourceFilePaths;
+        }
+
+        for (int i = 0; i < reusedFileEntries.length(); i++) {
+            JSONObject reusedFileEntry = reusedFileEntries.optJSONObject(i);
+            String targetFilePath = reusedFileEntry != null ? reusedFileEntry.optString("to", null) : null;
+            if (targetFilePath == null) {
+                throw new CodePushInvalidUpdateException("Diff manifest contains a reused file entry without a target path.");
+            }
+
+            String sourceFilePath = reusedFileEntry.optString("from", null);
+            if (sourceFilePath == null) {
+                String contentHash = reusedFileEntry.optString("hash", null);
+                sourceFilePath = contentHash != null ? contentIndex.getPathForHash(contentHash) : null;
+                if (sourceFilePath == null) {
+                    throw new CodePushInvalidUpdateException("Diff update reuses content for " + targetFilePath + " that is not in the base package.");
+                }
+            }
+
+            try {
+                FileUtils.copyStreamToFile(contentIndex.open(sourceFilePath), new File(newPackageFolderPath, targetFilePath));
+            } catch (FileNotFoundException e) {
+                throw new CodePushInvalidUpdateException("Diff update reuses " + sourceFilePath + ", which is not in the base package.");
+            }
+
+            CodePushLog.debug("Reused {} as {}", sourceFilePath, targetFilePath);
+            sourceFilePaths.add(sourceFilePath);
+            reusedFilePaths.add(targetFilePath);
+        }
+
+        return sourceFilePaths;
     }
 
     public static String findJSBundleInUpdateContents(String folderPath, String expectedFileName) {
@@ -192,48 +337,63 @@ public class CodePushUpdateUtils {
         }
     }
 
+    // Parses the per-file hash manifest generated at build time by "generateBundledResourcesHash.js",
+    // one "<relativeFilePath>:<sha256FileHash>" entry per line.
+    public static Map<String, String> parseHashManifest(String manifestContent) {
+        Map<String, String> fileHashes = new TreeMap<>();
+        for (String line : manifestContent.split("\n")) {
+            String entry = line.trim();
+            int separatorIndex = entry.lastIndexOf(':');
+            if (separatorIndex <= 0 || separatorIndex == entry.length() - 1) {
+                continue;
+            }
+
+            fileHashes.put(entry.substring(0, separatorIndex), entry.substring(separatorIndex + 1));
+        }
+
+        return fileHashes;
+    }
+
+    // The JSON serialization of the sorted manifest entries is what gets hashed, see verifyFolderHash.
+    public static String getManifestString(List<String> sortedManifestEntries) {
+        JSONArray updateContentsJSONArray = new JSONArray();
+        for (String manifestEntry : sortedManifestEntries) {
+            updateContentsJSONArray.put(manifestEntry);
+        }
+
+        // The JSON serialization turns path separators into "\/", e.g. "CodePush\/assets\/image.png"
+        return updateContentsJSONArray.toString().replace("\\/", "/");
+    }
+
     // Hashing algorithm:
     // 1. Recursively generate a sorted array of format <relativeFilePath>: <sha256FileHash>
     // 2. JSON stringify the array
     // 3. SHA256-hash the result
-    public static void verifyFolderHash(String folderPath, String expectedHash) {
+    // Returns the number of files that were hashed.
+    public static int verifyFolderHash(String folderPath, String expectedHash) {
+        return verifyFolderHash(folderPath, expectedHash, null);
+    }
+
+    // Files with an entry in knownFileHashes, e.g. the ones copied from the binary after they were checked
+    // against its hash manifest, are not hashed again.
+    static int verifyFolderHash(String folderPath, String expectedHash, Map<String, String> knownFileHashes) {
         CodePushUtils.log("Verifying hash for folder path: " + folderPath);
         ArrayList<String> updateContentsManifest = new ArrayList<>();
-        addContentsOfFolderToManifest(folderPath, "", updateContentsManifest);
+        int hashedFileCount = addContentsOfFolderToManifest(folderPath, "", updateContentsManifest, knownFileHashes);
         //sort manifest strings to make sure, that they are completely equal with manifest strings has been generated in cli!
         Collections.sort(updateContentsManifest);
         
-        // DEBUG: Log first 5 entries
-        CodePushUtils.log("=== MANIFEST DEBUG (first 5) ===");
-        for (int i = 0; i < Math.min(5, updateContentsManifest.size()); i++) {
-            CodePushUtils.log("  [" + i + "] " + updateContentsManifest.get(i));
-        }
-        CodePushUtils.log("Total entries: " + updateContentsManifest.size());
-        
-        JSONArray updateContentsJSONArray = new JSONArray();
-        for (String manifestEntry : updateContentsManifest) {
-            updateContentsJSONArray.put(manifestEntry);
-        }
-
-        // The JSON serialization turns path separators into "\/", e.g. "CodePush\/assets\/image.png"
-        String updateContentsManifestString = updateContentsJSONArray.toString().replace("\\/", "/");
-        
-        CodePushUtils.log("=== MANIFEST COMPARISON DEBUG ===");
-        CodePushUtils.log("Manifest string length: " + updateContentsManifestString.length());
-        CodePushUtils.log("Manifest entries count: " + updateContentsManifest.size());
-        CodePushUtils.log("First 500 chars: " + updateContentsManifestString.substring(0, Math.min(500, updateContentsManifestString.length())));
-        
-        // Write full manifest to file for debugging
-        try {
-            java.io.File manifestDebugFile = new java.io.File(folderPath + "_manifest_debug.txt");
-            java.io.FileWriter writer = new java.io.FileWriter(manifestDebugFile);
-            writer.write(updateContentsManifestString);
-            writer.close();
-            CodePushUtils.log("Full manifest written to: " + manifestDebugFile.getAbsolutePath());
-        } catch (Exception e) {
-            CodePushUtils.log("Failed to write manifest debug file: " + e.getMessage());
+        String updateContentsManifestString = getManifestString(updateContentsManifest);
+        if (CodePushLog.isLoggable(CodePushLog.VERBOSE)) {
+            // The manifest is only dumped for debugging, it can be compared with the one the CLI hashed.
+            String manifestDebugFilePath = folderPath + "_manifest_debug.txt";
+            try {
+                FileUtils.writeStringToFileAtomically(updateContentsManifestString, manifestDebugFilePath);
+                CodePushLog.log(CodePushLog.VERBOSE, "Manifest of " + updateContentsManifest.size() + " entries written to: " + manifestDebugFilePath);
+            } catch (IOException e) {
+                CodePushLog.log(CodePushLog.VERBOSE, "Failed to write manifest debug file: " + e.getMessage());
+            }
         }
-        CodePushUtils.log("Manifest string: " + updateContentsManifestString);
 
         String updateContentsManifestHash;
         try {
@@ -243,51 +403,13 @@ public class CodePushUpdateUtils {
             throw new CodePushInvalidUpdateException("UTF-8 encoding not supported: " + e.getMessage());
         }
         
-        CodePushUtils.log("=== MANIFEST HASH CALCULATION ===");
-        CodePushUtils.log("Computed manifest hash: " + updateContentsManifestHash);
-
-        CodePushUtils.log("Expected hash: " + expectedHash + ", actual hash: " + updateContentsManifestHash);
+        CodePushLog.debug("Expected hash: {}, actual hash: {}", expectedHash, updateContentsManifestHash);
         if (!expectedHash.equals(updateContentsManifestHash)) {
             throw new CodePushInvalidUpdateException("The update contents failed the data integrity check.");
         }
 
         CodePushUtils.log("The update contents succeeded the data integrity check.");
-    }
-
-    public static Map<String, Object> verifyAndDecodeJWT(String jwt, PublicKey publicKey) {
-        try {
-            SignedJWT signedJWT = SignedJWT.parse(jwt);
-            JWSVerifier verifier = new RSASSAVerifier((RSAPublicKey) publicKey);
-            if (signedJWT.verify(verifier)) {
-                Map<String, Object> claims = signedJWT.getJWTClaimsSet().getClaims();
-                CodePushUtils.log("JWT verification succeeded, payload content: " + claims.toString());
-                return claims;
-            }
-            return null;
-        } catch (Exception ex) {
-            CodePushUtils.log(ex.getMessage());
-            CodePushUtils.log(ex.getStackTrace().toString());
-            return null;
-        }
-    }
-
-    public static PublicKey parsePublicKey(String stringPublicKey) {
-        try {
-            //remove unnecessary "begin/end public key" entries from string
-            stringPublicKey = stringPublicKey
-                    .replace("-----BEGIN PUBLIC KEY-----", "")
-                    .replace("-----END PUBLIC KEY-----", "")
-                    .replace(NEW_LINE, "");
-            byte[] byteKey = Base64.decode(stringPublicKey.getBytes(), Base64.DEFAULT);
-            X509EncodedKeySpec X509Key = new X509EncodedKeySpec(byteKey);
-            KeyFactory kf = KeyFactory.getInstance("RSA");
-
-            return kf.generatePublic(X509Key);
-        } catch (Exception e) {
-            CodePushUtils.log(e.getMessage());
-            CodePushUtils.log(e.getStackTrace().toString());
-            return null;
-        }
+        return hashedFileCount;
     }
 
     public static String getSignatureFilePath(String updateFolderPath) {
@@ -312,9 +434,12 @@ public class CodePushUpdateUtils {
     public static void verifyUpdateSignature(String folderPath, String packageHash, String stringPublicKey) throws CodePushInvalidUpdateException {
         CodePushUtils.log("Verifying signature for folder path: " + folderPath);
 
-        final PublicKey publicKey = parsePublicKey(stringPublicKey);
-        if (publicKey == null) {
-            throw new CodePushInvalidUpdateException("The update could not be verified because no public key was found.");
+        final CodePushSignatureVerifier verifier;
+        try {
+            verifier = CodePushSignatureVerifier.forPublicKey(stringPublicKey);
+        } catch (CodePushInvalidPublicKeyException e) {
+            CodePushUtils.log(e);
+            throw new CodePushInvalidUpdateException("The update could not be verified because no valid public key was found.");
         }
 
         final String signature = getSignature(folderPath);
@@ -322,7 +447,7 @@ public class CodePushUpdateUtils {
             throw new CodePushInvalidUpdateException("The update could not be verified because no signature was found.");
         }
 
-        final Map<String, Object> claims = verifyAndDecodeJWT(signature, publicKey);
+        final Map<String, Object> claims = verifier.verify(signature);
         if (claims == null) {
             throw new CodePushInvalidUpdateException("The update could not be verified because it was not signed by a trusted party.");
         }
@@ -204,7 +204,7 @@ public class CodePushUtils {
     }
 
     public static void log(String message) {
-        Log.d(CodePushConstants.REACT_NATIVE_LOG_TAG, "[CodePush] " + message);
+        CodePushLog.log(CodePushLog.INFO, message);
     }
 
     public static void log(Throwable tr) {
@@ -1,30 +1,114 @@
 package com.microsoft.codepush.react;
 
+import android.os.SystemClock;
+
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.bridge.WritableNativeMap;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress of a single update, shared by the thread downloading and applying it and the thread
+ * reporting it to JS. The worker thread only updates counters, and the same instance is passed to
+ * every callback. Within a stage the callback is invoked once both the minimum number of bytes and
+ * the minimum interval have passed since the last report; the start and the end of every stage are
+ * always reported.
+ *
+ * The download stage reports bytes. The apply and verify stages, which follow it, report the number
+ * of completed steps (patches for apply) while the byte counters stay at their final values.
+ */
 class DownloadProgress {
-    private long mTotalBytes;
-    private long mReceivedBytes;
+    static final String STAGE_DOWNLOAD = "download";
+    static final String STAGE_APPLY = "apply";
+    static final String STAGE_VERIFY = "verify";
+    static final long DEFAULT_MIN_BYTES = 64 * 1024;
+    static final long DEFAULT_MIN_INTERVAL_MS = 100;
+
+    private final AtomicLong mTotalBytes = new AtomicLong();
+    private final AtomicLong mReceivedBytes = new AtomicLong();
+    private final AtomicLong mStageTotal = new AtomicLong();
+    private final AtomicLong mStageCompleted = new AtomicLong();
+    private volatile String mStage = STAGE_DOWNLOAD;
+
+    private final DownloadProgressCallback mCallback;
+    private final long mMinBytes;
+    private final long mMinIntervalMs;
+    // Only used by the worker thread.
+    private long mLastReportedBytes = -1;
+    private long mLastReportTime;
+
+    DownloadProgress(DownloadProgressCallback callback, long minBytes, long minIntervalMs) {
+        mCallback = callback;
+        mMinBytes = minBytes;
+        mMinIntervalMs = minIntervalMs;
+    }
+
+    void reportDownload(long totalBytes, long receivedBytes) {
+        mTotalBytes.set(totalBytes);
+        mReceivedBytes.set(receivedBytes);
+        if (mCallback == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        boolean isBoundary = !STAGE_DOWNLOAD.equals(mStage) || mLastReportedBytes < 0 || receivedBytes == totalBytes;
+        if (!isBoundary && (receivedBytes - mLastReportedBytes < mMinBytes || now - mLastReportTime < mMinIntervalMs)) {
+            return;
+        }
 
-    public DownloadProgress (long totalBytes, long receivedBytes){
-        mTotalBytes = totalBytes;
-        mReceivedBytes = receivedBytes;
+        mStage = STAGE_DOWNLOAD;
+        mLastReportedBytes = receivedBytes;
+        mLastReportTime = now;
+        mCallback.call(this);
+    }
+
+    void reportStage(String stage, long completedSteps, long totalSteps) {
+        boolean isBoundary = !stage.equals(mStage) || completedSteps == 0 || completedSteps == totalSteps;
+        mStageTotal.set(totalSteps);
+        mStageCompleted.set(completedSteps);
+        mStage = stage;
+        if (mCallback == null) {
+            return;
+        }
+
+        long now = SystemClock.elapsedRealtime();
+        if (!isBoundary && now - mLastReportTime < mMinIntervalMs) {
+            return;
+        }
+
+        mLastReportTime = now;
+        mCallback.call(this);
     }
 
     public WritableMap createWritableMap() {
         WritableMap map = new WritableNativeMap();
-        if (mTotalBytes < Integer.MAX_VALUE) {
-            map.putInt("totalBytes", (int) mTotalBytes);
-            map.putInt("receivedBytes", (int) mReceivedBytes);
+        long totalBytes = mTotalBytes.get();
+        long receivedBytes = mReceivedBytes.get();
+        if (totalBytes < Integer.MAX_VALUE) {
+            map.putInt("totalBytes", (int) totalBytes);
+            map.putInt("receivedBytes", (int) receivedBytes);
         } else {
-            map.putDouble("totalBytes", mTotalBytes);
-            map.putDouble("receivedBytes", mReceivedBytes);
+            map.putDouble("totalBytes", totalBytes);
+            map.putDouble("receivedBytes", receivedBytes);
+        }
+
+        String stage = mStage;
+        map.putString("stage", stage);
+        if (!STAGE_DOWNLOAD.equals(stage)) {
+            map.putDouble("stageTotal", mStageTotal.get());
+            map.putDouble("stageCompleted", mStageCompleted.get());
         }
         return map;
     }
 
-    public boolean isCompleted() {
-        return mTotalBytes == mReceivedBytes;
+    /**
+     * Returns whether the current stage has finished, i.e. this is the last report of the stage.
+     */
+    public boolean isStageCompleted() {
+        if (STAGE_DOWNLOAD.equals(mStage)) {
+            return mTotalBytes.get() == mReceivedBytes.get();
+        }
+
+        return mStageCompleted.get() == mStageTotal.get();
     }
 }
@@ -6,9 +6,11 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 public class FileUtils {
@@ -29,6 +31,8 @@ public class FileUtils {
                         CodePushUtils.appendPathComponent(destinationDirectoryPath, sourceFile.getName()));
             } else {
                 File destFile = new File(destDir, sourceFile.getName());
+                // The destination may be a link shared with another package, so replace it instead of writing through it.
+                destFile.delete();
                 FileInputStream fromFileStream = null;
                 BufferedInputStream fromBufferedStream = null;
                 FileOutputStream destStream = null;
@@ -54,6 +58,31 @@ public class FileUtils {
         }
     }
 
+    public static void copyStreamToFile(InputStream inputStream, File destinationFile) throws IOException {
+        File parentFolder = destinationFile.getParentFile();
+        if (parentFolder != null && !parentFolder.exists()) {
+            parentFolder.mkdirs();
+        }
+
+        FileOutputStream destStream = null;
+        byte[] buffer = new byte[WRITE_BUFFER_SIZE];
+        try {
+            destinationFile.delete();
+            destStream = new FileOutputStream(destinationFile);
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) > 0) {
+                destStream.write(buffer, 0, bytesRead);
+            }
+        } finally {
+            try {
+                inputStream.close();
+                if (destStream != null) destStream.close();
+            } catch (IOException e) {
+                throw new CodePushUnknownException("Error closing IO resources.", e);
+            }
+        }
+    }
+
     public static void deleteDirectoryAtPath(String directoryPath) {
         if (directoryPath == null) {
             CodePushUtils.log("deleteDirectoryAtPath attempted with null directoryPath");
@@ -86,6 +115,30 @@ public class FileUtils {
         }
     }
 
+    public static long getFolderSize(String folderPath) {
+        File[] files = new File(folderPath).listFiles();
+        long size = 0;
+        if (files != null) {
+            for (File file : files) {
+                size += file.isDirectory() ? getFolderSize(file.getAbsolutePath()) : file.length();
+            }
+        }
+
+        return size;
+    }
+
+    public static int getFileCount(String folderPath) {
+        File[] files = new File(folderPath).listFiles();
+        int count = 0;
+        if (files != null) {
+            for (File file : files) {
+                count += file.isDirectory() ? getFileCount(file.getAbsolutePath()) : 1;
+            }
+        }
+
+        return count;
+    }
+
     public static boolean fileAtPathExists(String filePath) {
         return new File(filePath).exists();
     }
@@ -191,6 +244,37 @@ public class FileUtils {
         }
     }
 
+    public static boolean zipContainsEntry(File zipFile, String entryName) throws IOException {
+        ZipFile zip = null;
+        try {
+            zip = new ZipFile(zipFile);
+            return zip.getEntry(entryName) != null;
+        } finally {
+            if (zip != null) zip.close();
+        }
+    }
+
+    // Writes the content to a sibling temporary file, syncs it to disk and renames it over the target,
+    // so that readers only ever observe the previous or the new content.
+    public static void writeStringToFileAtomically(String content, String filePath) throws IOException {
+        File targetFile = new File(filePath);
+        File tempFile = new File(filePath + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tempFile);
+            out.write(content.getBytes("UTF-8"));
+            out.flush();
+            out.getFD().sync();
+        } finally {
+            if (out != null) out.close();
+        }
+
+        if (!tempFile.renameTo(targetFile)) {
+            tempFile.delete();
+            throw new IOException("Unable to move " + tempFile.getAbsolutePath() + " to " + filePath + ".");
+        }
+    }
+
     public static void writeStringToFile(String content, String filePath) throws IOException {
         PrintWriter out = null;
         try {
@@ -0,0 +1,143 @@
+package com.microsoft.codepush.react;
+
+import android.os.SystemClock;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory cache of the JSON state files - the status file and the metadata file of every package -
+ * so that repeated queries for the current package are served without reading and parsing them again.
+ *
+ * Callers always receive a copy of the cached snapshot and may modify it freely. Writes replace the
+ * file atomically and update the snapshot. Changes made to the files from outside the store are
+ * picked up through their modification time, which is checked at most once per
+ * {@link #MODIFIED_TIME_CHECK_INTERVAL_MS} for each file.
+ *
+ * Every change of a cached snapshot increments the store version, so that callers can keep values
+ * derived from the state and drop them only when the version moves on.
+ */
+class PackageStateStore {
+    static final long MODIFIED_TIME_CHECK_INTERVAL_MS = 1000;
+    // Incremented with every write of the status file, to tell the states it went through apart.
+    static final String STATE_VERSION_KEY = "stateVersion";
+
+    private static class Snapshot {
+        final JSONObject json;
+        final long modifiedTime;
+        long lastCheckTime;
+
+        Snapshot(JSONObject json, long modifiedTime) {
+            this.json = json;
+            this.modifiedTime = modifiedTime;
+            this.lastCheckTime = SystemClock.elapsedRealtime();
+        }
+    }
+
+    // Concurrent so that peek() does not wait for a read or write in progress.
+    private final Map<String, Snapshot> mSnapshots = new ConcurrentHashMap<>();
+    private long mVersion;
+
+    synchronized long getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * Returns a copy of the contents of the file, or null if it does not exist.
+     */
+    synchronized JSONObject read(String filePath) throws IOException {
+        Snapshot snapshot = mSnapshots.get(filePath);
+        long now = SystemClock.elapsedRealtime();
+        if (snapshot != null && now - snapshot.lastCheckTime >= MODIFIED_TIME_CHECK_INTERVAL_MS) {
+            if (new File(filePath).lastModified() != snapshot.modifiedTime) {
+                snapshot = null;
+                mVersion++;
+            } else {
+                snapshot.lastCheckTime = now;
+            }
+        }
+
+        if (snapshot == null) {
+            File file = new File(filePath);
+            long modifiedTime = file.lastModified();
+            JSONObject json = file.exists() ? CodePushUtils.getJsonObjectFromFile(filePath) : null;
+            snapshot = new Snapshot(json, modifiedTime);
+            mSnapshots.put(filePath, snapshot);
+        }
+
+        return snapshot.json == null ? null : copyOf(snapshot.json);
+    }
+
+    /**
+     * Returns a copy of the cached contents of the file, an empty object if it did not exist when it
+     * was read, or null if it has not been read yet. Does not check the file and never blocks.
+     */
+    JSONObject peek(String filePath) {
+        Snapshot snapshot = mSnapshots.get(filePath);
+        if (snapshot == null) {
+            return null;
+        }
+
+        return snapshot.json == null ? new JSONObject() : copyOf(snapshot.json);
+    }
+
+    synchronized void write(String filePath, JSONObject json) throws IOException {
+        JSONObject snapshotJson = copyOf(json);
+        FileUtils.writeStringToFileAtomically(snapshotJson.toString(), filePath);
+        mSnapshots.put(filePath, new Snapshot(snapshotJson, new File(filePath).lastModified()));
+        mVersion++;
+    }
+
+    /**
+     * Writes the status file, stamping it with the next state version.
+     */
+    synchronized void writeStatus(String filePath, JSONObject status) throws IOException {
+        JSONObject currentStatus = read(filePath);
+        long stateVersion = currentStatus == null ? 0 : currentStatus.optLong(STATE_VERSION_KEY, 0);
+        JSONObject stampedStatus = copyOf(status);
+        CodePushUtils.setJSONValueForKey(stampedStatus, STATE_VERSION_KEY, stateVersion + 1);
+        write(filePath, stampedStatus);
+    }
+
+    /**
+     * Drops the snapshots of all files under the path, e.g. when a package folder is deleted.
+     */
+    synchronized void invalidate(String path) {
+        mVersion++;
+        Iterator<String> filePaths = mSnapshots.keySet().iterator();
+        while (filePaths.hasNext()) {
+            String filePath = filePaths.next();
+            if (filePath.equals(path) || filePath.startsWith(path + "/")) {
+                filePaths.remove();
+            }
+        }
+    }
+
+    synchronized void clear() {
+        mSnapshots.clear();
+        mVersion++;
+    }
+
+    // Top-level copy, which is enough since callers only set top-level keys.
+    private static JSONObject copyOf(JSONObject json) {
+        JSONObject copy = new JSONObject();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            try {
+                copy.put(key, json.get(key));
+            } catch (JSONException e) {
+                // Should not happen.
+                throw new CodePushUnknownException("Unable to copy package state.", e);
+            }
+        }
+
+        return copy;
+    }
+}
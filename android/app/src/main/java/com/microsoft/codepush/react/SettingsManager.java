@@ -7,67 +7,108 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Settings are parsed from SharedPreferences once and then served from memory. The failed updates
+ * are indexed by package hash and capped, dropping the least recently recorded failures first. Their changes, like
+ * the latest rollback info, are persisted asynchronously with apply(). The pending update record is
+ * still committed synchronously, since it is what tells a crash during the first run of an update
+ * apart from a clean start.
+ *
+ * SharedPreferences are only opened on first use, and {@link #preload()} is run on the state thread
+ * so that {@link #hasPendingUpdate()} can be answered on the main thread without touching the disk.
+ */
 public class SettingsManager {
 
+    private static final int MAX_FAILED_UPDATES = 50;
+
+    private final Context mContext;
     private SharedPreferences mSettings;
+    // Ordered from the least to the most recently recorded failure, so the last one is the latest rollback.
+    private LinkedHashMap<String, JSONObject> mFailedUpdates;
+    private JSONObject mPendingUpdate;
+    private volatile boolean mIsPendingUpdateLoaded = false;
+    // Mirrors isPendingUpdate(null) once the pending update has been loaded.
+    private volatile boolean mHasPendingUpdate = false;
+    private String mClientUniqueId;
+    private JSONObject mLatestRollbackInfo;
+    private boolean mIsLatestRollbackInfoLoaded = false;
 
     public SettingsManager(Context applicationContext) {
-        mSettings = applicationContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+        mContext = applicationContext;
     }
 
-    public JSONArray getFailedUpdates() {
-        String failedUpdatesString = mSettings.getString(CodePushConstants.FAILED_UPDATES_KEY, null);
-        if (failedUpdatesString == null) {
-            return new JSONArray();
-        }
+    /**
+     * Loads everything the main thread may ask for into memory.
+     */
+    public synchronized void preload() {
+        getPendingUpdate();
+        getFailedUpdatesIndex();
+        getLatestRollbackInfo();
+        getClientUniqueId();
+    }
 
-        try {
-            return new JSONArray(failedUpdatesString);
-        } catch (JSONException e) {
-            // Unrecognized data format, clear and replace with expected format.
-            JSONArray emptyArray = new JSONArray();
-            mSettings.edit().putString(CodePushConstants.FAILED_UPDATES_KEY, emptyArray.toString()).commit();
-            return emptyArray;
+    public synchronized String getClientUniqueId() {
+        if (mClientUniqueId == null) {
+            mClientUniqueId = getSettings().getString(CodePushConstants.CLIENT_UNIQUE_ID_KEY, null);
+            if (mClientUniqueId == null) {
+                mClientUniqueId = UUID.randomUUID().toString();
+                getSettings().edit().putString(CodePushConstants.CLIENT_UNIQUE_ID_KEY, mClientUniqueId).apply();
+            }
         }
+
+        return mClientUniqueId;
     }
 
-    public JSONObject getPendingUpdate() {
-        String pendingUpdateString = mSettings.getString(CodePushConstants.PENDING_UPDATE_KEY, null);
-        if (pendingUpdateString == null) {
-            return null;
+    public synchronized JSONArray getFailedUpdates() {
+        JSONArray failedUpdates = new JSONArray();
+        for (JSONObject failedPackage : getFailedUpdatesIndex().values()) {
+            failedUpdates.put(failedPackage);
         }
 
-        try {
-            return new JSONObject(pendingUpdateString);
-        } catch (JSONException e) {
-            // Should not happen.
-            CodePushUtils.log("Unable to parse pending update metadata " + pendingUpdateString +
-                    " stored in SharedPreferences");
-            return null;
-        }
+        return failedUpdates;
     }
 
-
-    public boolean isFailedHash(String packageHash) {
-        JSONArray failedUpdates = getFailedUpdates();
-        if (packageHash != null) {
-            for (int i = 0; i < failedUpdates.length(); i++) {
+    // The returned object is shared, callers must not modify it.
+    public synchronized JSONObject getPendingUpdate() {
+        if (!mIsPendingUpdateLoaded) {
+            mPendingUpdate = null;
+            String pendingUpdateString = getSettings().getString(CodePushConstants.PENDING_UPDATE_KEY, null);
+            if (pendingUpdateString != null) {
                 try {
-                    JSONObject failedPackage = failedUpdates.getJSONObject(i);
-                    String failedPackageHash = failedPackage.getString(CodePushConstants.PACKAGE_HASH_KEY);
-                    if (packageHash.equals(failedPackageHash)) {
-                        return true;
-                    }
+                    mPendingUpdate = new JSONObject(pendingUpdateString);
                 } catch (JSONException e) {
-                    throw new CodePushUnknownException("Unable to read failedUpdates data stored in SharedPreferences.", e);
+                    // Should not happen.
+                    CodePushUtils.log("Unable to parse pending update metadata " + pendingUpdateString +
+                            " stored in SharedPreferences");
                 }
             }
+
+            setPendingUpdate(mPendingUpdate);
+        }
+
+        return mPendingUpdate;
+    }
+
+    public synchronized boolean isFailedHash(String packageHash) {
+        return packageHash != null && getFailedUpdatesIndex().containsKey(packageHash);
+    }
+
+    /**
+     * Same as isPendingUpdate(null), but does not block or read the disk once the settings are preloaded.
+     */
+    public boolean hasPendingUpdate() {
+        if (!mIsPendingUpdateLoaded) {
+            return isPendingUpdate(null);
         }
 
-        return false;
+        return mHasPendingUpdate;
     }
 
-    public boolean isPendingUpdate(String packageHash) {
+    public synchronized boolean isPendingUpdate(String packageHash) {
         JSONObject pendingUpdate = getPendingUpdate();
 
         try {
@@ -79,59 +120,54 @@ public class SettingsManager {
         }
     }
 
-    public void removeFailedUpdates() {
-        mSettings.edit().remove(CodePushConstants.FAILED_UPDATES_KEY).commit();
+    public synchronized void removeFailedUpdates() {
+        mFailedUpdates = createFailedUpdatesIndex();
+        getSettings().edit().remove(CodePushConstants.FAILED_UPDATES_KEY).apply();
     }
 
-    public void removePendingUpdate() {
-        mSettings.edit().remove(CodePushConstants.PENDING_UPDATE_KEY).commit();
+    public synchronized void removePendingUpdate() {
+        setPendingUpdate(null);
+        getSettings().edit().remove(CodePushConstants.PENDING_UPDATE_KEY).commit();
     }
 
-    public void saveFailedUpdate(JSONObject failedPackage) {
+    public synchronized void saveFailedUpdate(JSONObject failedPackage) {
+        String failedPackageHash;
         try {
-            if (isFailedHash(failedPackage.getString(CodePushConstants.PACKAGE_HASH_KEY))) {
-                // Do not need to add the package if it is already in the failedUpdates.
-                return;
-            }
+            failedPackageHash = failedPackage.getString(CodePushConstants.PACKAGE_HASH_KEY);
         } catch (JSONException e) {
             throw new CodePushUnknownException("Unable to read package hash from package.", e);
         }
 
-        String failedUpdatesString = mSettings.getString(CodePushConstants.FAILED_UPDATES_KEY, null);
-        JSONArray failedUpdates;
-        if (failedUpdatesString == null) {
-            failedUpdates = new JSONArray();
-        } else {
-            try {
-                failedUpdates = new JSONArray(failedUpdatesString);
-            } catch (JSONException e) {
-                // Should not happen.
-                throw new CodePushMalformedDataException("Unable to parse failed updates information " +
-                        failedUpdatesString + " stored in SharedPreferences", e);
-            }
-        }
+        // A failure that is recorded again moves to the end, keeping its first recorded package.
+        LinkedHashMap<String, JSONObject> failedUpdates = getFailedUpdatesIndex();
+        JSONObject previousFailedPackage = failedUpdates.remove(failedPackageHash);
+        failedUpdates.put(failedPackageHash, previousFailedPackage != null ? previousFailedPackage : failedPackage);
 
-        failedUpdates.put(failedPackage);
-        mSettings.edit().putString(CodePushConstants.FAILED_UPDATES_KEY, failedUpdates.toString()).commit();
+        // The order is persisted too, even if the package was already in the failedUpdates.
+        getSettings().edit().putString(CodePushConstants.FAILED_UPDATES_KEY, getFailedUpdates().toString()).apply();
     }
 
-    public JSONObject getLatestRollbackInfo() {
-        String latestRollbackInfoString = mSettings.getString(CodePushConstants.LATEST_ROLLBACK_INFO_KEY, null);
-        if (latestRollbackInfoString == null) {
-            return null;
-        }
+    public synchronized JSONObject getLatestRollbackInfo() {
+        if (!mIsLatestRollbackInfoLoaded) {
+            mLatestRollbackInfo = null;
+            String latestRollbackInfoString = getSettings().getString(CodePushConstants.LATEST_ROLLBACK_INFO_KEY, null);
+            if (latestRollbackInfoString != null) {
+                try {
+                    mLatestRollbackInfo = new JSONObject(latestRollbackInfoString);
+                } catch (JSONException e) {
+                    // Should not happen.
+                    CodePushUtils.log("Unable to parse latest rollback metadata " + latestRollbackInfoString +
+                            " stored in SharedPreferences");
+                }
+            }
 
-        try {
-            return new JSONObject(latestRollbackInfoString);
-        } catch (JSONException e) {
-            // Should not happen.
-            CodePushUtils.log("Unable to parse latest rollback metadata " + latestRollbackInfoString +
-                    " stored in SharedPreferences");
-            return null;
+            mIsLatestRollbackInfoLoaded = true;
         }
+
+        return mLatestRollbackInfo;
     }
 
-    public void setLatestRollbackInfo(String packageHash) {
+    public synchronized void setLatestRollbackInfo(String packageHash) {
         JSONObject latestRollbackInfo = getLatestRollbackInfo();
         int count = 0;
 
@@ -144,30 +180,124 @@ public class SettingsManager {
             } catch (JSONException e) {
                 CodePushUtils.log("Unable to parse latest rollback info.");
             }
-        } else {
-            latestRollbackInfo = new JSONObject();
         }
 
+        latestRollbackInfo = new JSONObject();
         try {
             latestRollbackInfo.put(CodePushConstants.LATEST_ROLLBACK_PACKAGE_HASH_KEY, packageHash);
             latestRollbackInfo.put(CodePushConstants.LATEST_ROLLBACK_TIME_KEY, System.currentTimeMillis());
             latestRollbackInfo.put(CodePushConstants.LATEST_ROLLBACK_COUNT_KEY, count + 1);
-            mSettings.edit().putString(CodePushConstants.LATEST_ROLLBACK_INFO_KEY, latestRollbackInfo.toString()).commit();
+            mLatestRollbackInfo = latestRollbackInfo;
+            getSettings().edit().putString(CodePushConstants.LATEST_ROLLBACK_INFO_KEY, latestRollbackInfo.toString()).apply();
         } catch (JSONException e) {
             throw new CodePushUnknownException("Unable to save latest rollback info.", e);
         }
     }
 
-    public void savePendingUpdate(String packageHash, boolean isLoading) {
+    public synchronized void savePendingUpdate(String packageHash, boolean isLoading) {
         JSONObject pendingUpdate = new JSONObject();
         try {
             pendingUpdate.put(CodePushConstants.PENDING_UPDATE_HASH_KEY, packageHash);
             pendingUpdate.put(CodePushConstants.PENDING_UPDATE_IS_LOADING_KEY, isLoading);
-            mSettings.edit().putString(CodePushConstants.PENDING_UPDATE_KEY, pendingUpdate.toString()).commit();
+            setPendingUpdate(pendingUpdate);
+            getSettings().edit().putString(CodePushConstants.PENDING_UPDATE_KEY, pendingUpdate.toString()).commit();
         } catch (JSONException e) {
             // Should not happen.
             throw new CodePushUnknownException("Unable to save pending update.", e);
         }
     }
 
+    /**
+     * Saves the pipeline metrics of the update that was just installed. The process that runs the
+     * update and reports its status starts with empty metrics when the update is installed on the next restart.
+     */
+    public synchronized void savePendingUpdateMetrics(String packageHash, JSONObject summary) {
+        JSONObject pendingUpdateMetrics = new JSONObject();
+        try {
+            pendingUpdateMetrics.put(CodePushConstants.PENDING_UPDATE_HASH_KEY, packageHash);
+            pendingUpdateMetrics.put(CodePushConstants.PENDING_UPDATE_METRICS_SUMMARY_KEY, summary);
+            getSettings().edit().putString(CodePushConstants.PENDING_UPDATE_METRICS_KEY, pendingUpdateMetrics.toString()).apply();
+        } catch (JSONException e) {
+            // Should not happen.
+            throw new CodePushUnknownException("Unable to save pending update metrics.", e);
+        }
+    }
+
+    /**
+     * Returns the metrics saved when the package was installed and removes them, or null if they
+     * were saved for another package.
+     */
+    public synchronized JSONObject takePendingUpdateMetrics(String packageHash) {
+        String pendingUpdateMetricsString = getSettings().getString(CodePushConstants.PENDING_UPDATE_METRICS_KEY, null);
+        if (pendingUpdateMetricsString == null || packageHash == null) {
+            return null;
+        }
+
+        try {
+            JSONObject pendingUpdateMetrics = new JSONObject(pendingUpdateMetricsString);
+            if (!packageHash.equals(pendingUpdateMetrics.optString(CodePushConstants.PENDING_UPDATE_HASH_KEY, null))) {
+                return null;
+            }
+
+            getSettings().edit().remove(CodePushConstants.PENDING_UPDATE_METRICS_KEY).apply();
+            return pendingUpdateMetrics.getJSONObject(CodePushConstants.PENDING_UPDATE_METRICS_SUMMARY_KEY);
+        } catch (JSONException e) {
+            CodePushUtils.log("Unable to parse pending update metrics " + pendingUpdateMetricsString +
+                    " stored in SharedPreferences");
+            getSettings().edit().remove(CodePushConstants.PENDING_UPDATE_METRICS_KEY).apply();
+            return null;
+        }
+    }
+
+    private void setPendingUpdate(JSONObject pendingUpdate) {
+        mPendingUpdate = pendingUpdate;
+        mHasPendingUpdate = pendingUpdate != null
+                && !pendingUpdate.optBoolean(CodePushConstants.PENDING_UPDATE_IS_LOADING_KEY, true);
+        mIsPendingUpdateLoaded = true;
+    }
+
+    private SharedPreferences getSettings() {
+        if (mSettings == null) {
+            mSettings = mContext.getSharedPreferences(CodePushConstants.CODE_PUSH_PREFERENCES, 0);
+        }
+
+        return mSettings;
+    }
+
+    private LinkedHashMap<String, JSONObject> getFailedUpdatesIndex() {
+        if (mFailedUpdates != null) {
+            return mFailedUpdates;
+        }
+
+        mFailedUpdates = createFailedUpdatesIndex();
+        String failedUpdatesString = getSettings().getString(CodePushConstants.FAILED_UPDATES_KEY, null);
+        if (failedUpdatesString == null) {
+            return mFailedUpdates;
+        }
+
+        try {
+            JSONArray failedUpdates = new JSONArray(failedUpdatesString);
+            for (int i = 0; i < failedUpdates.length(); i++) {
+                JSONObject failedPackage = failedUpdates.getJSONObject(i);
+                mFailedUpdates.put(failedPackage.getString(CodePushConstants.PACKAGE_HASH_KEY), failedPackage);
+            }
+        } catch (JSONException e) {
+            // Unrecognized data format, clear and replace with expected format.
+            mFailedUpdates.clear();
+            getSettings().edit().putString(CodePushConstants.FAILED_UPDATES_KEY, new JSONArray().toString()).apply();
+        }
+
+        return mFailedUpdates;
+    }
+
+    // Insertion-ordered, so that lookups don't reorder it and the oldest failures are dropped once
+    // there are too many.
+    private static LinkedHashMap<String, JSONObject> createFailedUpdatesIndex() {
+        return new LinkedHashMap<String, JSONObject>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, JSONObject> eldest) {
+                return size() > MAX_FAILED_UPDATES;
+            }
+        };
+    }
 }
@@ -0,0 +1,108 @@
+package com.microsoft.codepush.react;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the paths of the binary's per-file hashes are mapped to the asset or the resource
+ * they were compiled into, and that the files read from them are verified against those hashes,
+ * using the fixture bundle in "src/test/resources/bundled".
+ */
+public class CodePushBinaryAssetSourceTest {
+    private static final String ASSETS_PATH = "bundled/assets";
+    private static final String RESOURCES_PATH = "bundled/res";
+    private static final String GENERATED_HASHES_PATH = "bundled-hashes";
+
+    @Test
+    public void resolvesBundledDrawableToResource() {
+        CodePushBinaryAssetSource.ResourceEntry resourceEntry =
+                CodePushBinaryAssetSource.getResourceEntry("CodePush/drawable-mdpi/assets_logo.svg");
+
+        assertEquals("drawable", resourceEntry.type);
+        assertEquals("assets_logo", resourceEntry.name);
+        assertEquals(160, resourceEntry.densityDpi);
+    }
+
+    @Test
+    public void resolvesBundleToAsset() {
+        assertNull(CodePushBinaryAssetSource.getResourceEntry("CodePush/index.android.bundle"));
+        assertEquals("index.android.bundle", CodePushBinaryAssetSource.getAssetPath("CodePush/index.android.bundle"));
+        assertNull(CodePushBinaryAssetSource.getResourceEntry("CodePush/assets/fonts/icons.ttf"));
+    }
+
+    @Test
+    public void parsesResourceFolderQualifiers() {
+        CodePushBinaryAssetSource.ResourceEntry drawable =
+                CodePushBinaryAssetSource.getResourceEntry("CodePush/drawable-ldrtl-xxhdpi-v4/icon.9.png");
+        assertEquals("drawable", drawable.type);
+        assertEquals("icon", drawable.name);
+        assertEquals(480, drawable.densityDpi);
+
+        CodePushBinaryAssetSource.ResourceEntry raw = CodePushBinaryAssetSource.getResourceEntry("CodePush/raw/app_config.json");
+        assertEquals("raw", raw.type);
+        assertEquals("app_config", raw.name);
+        assertEquals(0, raw.densityDpi);
+
+        assertEquals(0, CodePushBinaryAssetSource.getResourceEntry("CodePush/drawable-nodpi/splash.png").densityDpi);
+    }
+
+    @Test
+    public void everyBundledFileResolvesToAFixtureFile() throws Exception {
+        Map<String, String> fileHashes = readGeneratedFileHashes();
+        for (String relativeFilePath : fileHashes.keySet()) {
+            String assetPath = CodePushBinaryAssetSource.getAssetPath(relativeFilePath);
+            File bundledFile = CodePushBinaryAssetSource.getResourceEntry(relativeFilePath) == null
+                    ? new File(getResource(ASSETS_PATH), assetPath)
+                    : new File(getResource(RESOURCES_PATH), assetPath);
+            assertTrue(relativeFilePath, bundledFile.isFile());
+        }
+    }
+
+    @Test
+    public void rejectsBundledFileThatDoesNotMatchItsHash() throws Exception {
+        Map<String, String> fileHashes = readGeneratedFileHashes();
+        String relativeFilePath = "CodePush/index.android.bundle";
+        File bundleFile = new File(getResource(ASSETS_PATH), CodePushBinaryAssetSource.getAssetPath(relativeFilePath));
+
+        readFully(new CodePushBinaryAssetSource.VerifyingInputStream(new FileInputStream(bundleFile),
+                relativeFilePath, fileHashes.get(relativeFilePath)));
+
+        // E.g. a drawable of another density, or one that aapt2 crunched.
+        String otherHash = fileHashes.get(relativeFilePath).replace('0', '1').replace('a', 'b');
+        try {
+            readFully(new CodePushBinaryAssetSource.VerifyingInputStream(new FileInputStream(bundleFile), relativeFilePath, otherHash));
+            fail("A file that does not match its hash was read without an error");
+        } catch (CodePushBinaryFileMismatchException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(relativeFilePath));
+        }
+    }
+
+    private static void readFully(InputStream inputStream) throws Exception {
+        try {
+            byte[] buffer = new byte[16];
+            while (inputStream.read(buffer) != -1) ;
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static Map<String, String> readGeneratedFileHashes() throws Exception {
+        return CodePushUpdateUtils.parseHashManifest(new String(Files.readAllBytes(
+                new File(getResource(GENERATED_HASHES_PATH), CodePushConstants.CODE_PUSH_HASH_MANIFEST_FILE_NAME).toPath()), StandardCharsets.UTF_8));
+    }
+
+    private static File getResource(String path) throws Exception {
+        return new File(CodePushBinaryAssetSourceTest.class.getClassLoader().getResource(path).toURI());
+    }
+}
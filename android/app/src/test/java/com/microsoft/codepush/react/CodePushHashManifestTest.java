@@ -0,0 +1,104 @@
+package com.microsoft.codepush.react;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the runtime parser against the assets written by "scripts/generateBundledResourcesHash.js"
+ * for the fixture bundle in "src/test/resources/bundled". The build runs the script before the tests
+ * and puts its output in the "bundled-hashes" resource folder.
+ */
+public class CodePushHashManifestTest {
+    private static final String ASSETS_PATH = "bundled/assets";
+    private static final String RESOURCES_PATH = "bundled/res";
+    private static final String GENERATED_HASHES_PATH = "bundled-hashes";
+
+    @Test
+    public void parsesEveryBundledFile() throws Exception {
+        Map<String, String> fileHashes = readGeneratedFileHashes();
+
+        assertEquals(2, fileHashes.size());
+        assertEquals(hashOf(new File(getResource(ASSETS_PATH), "index.android.bundle")),
+                fileHashes.get("CodePush/index.android.bundle"));
+        assertEquals(hashOf(new File(getResource(RESOURCES_PATH), "drawable-mdpi/assets_logo.svg")),
+                fileHashes.get("CodePush/drawable-mdpi/assets_logo.svg"));
+    }
+
+    @Test
+    public void parsedEntriesReproduceAggregateHash() throws Exception {
+        List<String> manifest = new ArrayList<>();
+        for (Map.Entry<String, String> fileHash : readGeneratedFileHashes().entrySet()) {
+            manifest.add(fileHash.getKey() + ":" + fileHash.getValue());
+        }
+
+        String aggregateHash = readGeneratedFile(CodePushConstants.CODE_PUSH_HASH_FILE_NAME).trim();
+        String manifestString = CodePushUpdateUtils.getManifestString(manifest);
+        assertEquals(aggregateHash, CodePushUpdateUtils.computeHash(
+                new ByteArrayInputStream(manifestString.getBytes(StandardCharsets.UTF_8))));
+    }
+
+    @Test
+    public void verificationReusesManifestHashes() throws Exception {
+        // A package made of the binary's files, as copied by a diff update against the binary.
+        File packageFolder = Files.createTempDirectory("CodePushHashManifestTest").toFile();
+        try {
+            Map<String, String> fileHashes = readGeneratedFileHashes();
+            for (String relativeFilePath : fileHashes.keySet()) {
+                String folderPath = CodePushBinaryAssetSource.getResourceEntry(relativeFilePath) == null ? ASSETS_PATH : RESOURCES_PATH;
+                FileUtils.copyStreamToFile(new FileInputStream(new File(getResource(folderPath),
+                        CodePushBinaryAssetSource.getAssetPath(relativeFilePath))), new File(packageFolder, relativeFilePath));
+            }
+
+            String aggregateHash = readGeneratedFile(CodePushConstants.CODE_PUSH_HASH_FILE_NAME).trim();
+            assertEquals(0, CodePushUpdateUtils.verifyFolderHash(packageFolder.getAbsolutePath(), aggregateHash, fileHashes));
+            assertEquals(fileHashes.size(), CodePushUpdateUtils.verifyFolderHash(packageFolder.getAbsolutePath(), aggregateHash));
+        } finally {
+            FileUtils.deleteDirectoryAtPath(packageFolder.getAbsolutePath());
+        }
+    }
+
+    @Test
+    public void skipsBlankAndMalformedLines() {
+        Map<String, String> fileHashes = CodePushUpdateUtils.parseHashManifest(
+                "CodePush/a.png:aa\r\n\nno-separator\nCodePush/b.png:\n:cc\nCodePush/c:d.png:dd\n");
+
+        assertEquals(2, fileHashes.size());
+        assertEquals("aa", fileHashes.get("CodePush/a.png"));
+        assertEquals("dd", fileHashes.get("CodePush/c:d.png"));
+        assertTrue(CodePushUpdateUtils.parseHashManifest("").isEmpty());
+    }
+
+    private static Map<String, String> readGeneratedFileHashes() throws Exception {
+        return CodePushUpdateUtils.parseHashManifest(readGeneratedFile(CodePushConstants.CODE_PUSH_HASH_MANIFEST_FILE_NAME));
+    }
+
+    private static String readGeneratedFile(String fileName) throws Exception {
+        return new String(Files.readAllBytes(new File(getResource(GENERATED_HASHES_PATH), fileName).toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static String hashOf(File file) throws IOException {
+        FileInputStream inputStream = new FileInputStream(file);
+        try {
+            return CodePushUpdateUtils.computeHash(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static File getResource(String path) throws URISyntaxException {
+        return new File(CodePushHashManifestTest.class.getClassLoader().getResource(path).toURI());
+    }
+}
@@ -0,0 +1,143 @@
+package com.microsoft.codepush.react;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CodePushRestartCoordinatorTest {
+    /**
+     * Records every restart, and only reloads if the restart is unconditional or an update is pending,
+     * and there is something to reload.
+     */
+    private static class RecordingRestartHandler implements CodePushRestartCoordinator.RestartHandler {
+        final List<Boolean> restarts = new ArrayList<>();
+        boolean hasPendingUpdate;
+        boolean canReload = true;
+        CodePushRestartCoordinator coordinator;
+        Boolean nestedRequest;
+
+        @Override
+        public boolean restart(boolean onlyIfUpdateIsPending) {
+            restarts.add(onlyIfUpdateIsPending);
+            if (nestedRequest != null) {
+                boolean request = nestedRequest;
+                nestedRequest = null;
+                coordinator.requestRestart(request);
+            }
+
+            return canReload && (!onlyIfUpdateIsPending || hasPendingUpdate);
+        }
+    }
+
+    @Test
+    public void collapsesRequestsWhileDisallowed() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+
+        coordinator.disallow();
+        coordinator.requestRestart(true);
+        coordinator.requestRestart(false);
+        coordinator.requestRestart(true);
+        assertEquals(CodePushRestartCoordinator.State.PENDING, coordinator.getState());
+        assertEquals(0, handler.restarts.size());
+
+        coordinator.allow();
+        assertEquals(Arrays.asList(false), handler.restarts);
+        assertEquals(CodePushRestartCoordinator.State.IN_PROGRESS, coordinator.getState());
+    }
+
+    @Test
+    public void dropsRequestsAfterReload() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+
+        coordinator.requestRestart(false);
+        coordinator.requestRestart(false);
+        coordinator.allow();
+        assertEquals(Arrays.asList(false), handler.restarts);
+    }
+
+    @Test
+    public void runsRequestMadeWhileRestartWasSkipped() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+        handler.coordinator = coordinator;
+        handler.nestedRequest = false;
+
+        coordinator.requestRestart(true);
+        assertEquals(Arrays.asList(true, false), handler.restarts);
+        assertEquals(CodePushRestartCoordinator.State.IN_PROGRESS, coordinator.getState());
+    }
+
+    @Test
+    public void returnsToAllowedWhenNoUpdateIsPending() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+
+        coordinator.requestRestart(true);
+        assertEquals(CodePushRestartCoordinator.State.ALLOWED, coordinator.getState());
+
+        coordinator.disallow();
+        coordinator.requestRestart(true);
+        coordinator.clearPendingRequest();
+        assertEquals(CodePushRestartCoordinator.State.DISALLOWED, coordinator.getState());
+
+        coordinator.allow();
+        assertEquals(Arrays.asList(true), handler.restarts);
+    }
+
+    @Test
+    public void returnsToAllowedWhenRestartDoesNotReload() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+        handler.canReload = false;
+
+        coordinator.requestRestart(false);
+        assertEquals(CodePushRestartCoordinator.State.ALLOWED, coordinator.getState());
+
+        handler.canReload = true;
+        coordinator.requestRestart(false);
+        assertEquals(Arrays.asList(false, false), handler.restarts);
+        assertEquals(CodePushRestartCoordinator.State.IN_PROGRESS, coordinator.getState());
+    }
+
+    @Test
+    public void returnsToAllowedWhenReloadFails() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+
+        coordinator.requestRestart(false);
+        coordinator.requestRestart(true);
+        assertEquals(CodePushRestartCoordinator.State.IN_PROGRESS, coordinator.getState());
+
+        // The request coalesced with the failed reload runs, but finds nothing to reload either.
+        handler.canReload = false;
+        coordinator.onReloadFailed();
+        assertEquals(Arrays.asList(false, true), handler.restarts);
+        assertEquals(CodePushRestartCoordinator.State.ALLOWED, coordinator.getState());
+    }
+
+    @Test
+    public void returnsToAllowedWhenReloadKeepsTheModule() {
+        RecordingRestartHandler handler = new RecordingRestartHandler();
+        CodePushRestartCoordinator coordinator = new CodePushRestartCoordinator(handler);
+
+        coordinator.requestRestart(false);
+        coordinator.requestRestart(false);
+        coordinator.onReloadCompleted();
+        assertEquals(CodePushRestartCoordinator.State.ALLOWED, coordinator.getState());
+        assertEquals(Arrays.asList(false), handler.restarts);
+
+        coordinator.requestRestart(false);
+        coordinator.disallow();
+        coordinator.onReloadCompleted();
+        assertEquals(CodePushRestartCoordinator.State.DISALLOWED, coordinator.getState());
+
+        coordinator.allow();
+        assertEquals(Arrays.asList(false, false), handler.restarts);
+    }
+}
@@ -53,6 +53,14 @@ module.exports = (NativeCodePush) => {
         }
       },
 
+      async cancelDownload() {
+        if (!NativeCodePush.cancelDownload) {
+          return false;
+        }
+
+        return await NativeCodePush.cancelDownload(this.packageHash);
+      },
+
       isPending: false // A remote package could never be in a pending state
     };
   };
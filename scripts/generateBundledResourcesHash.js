@@ -9,6 +9,8 @@
  * out which files were generated by the "react-native bundle" command. It then computes
  * the hash for each file to generate a manifest, and then computes a hash over the entire
  * manifest to generate the final hash, which is saved to the APK's assets directory.
+ * The per-file manifest is saved next to it, one "path:hash" entry per line, so that the
+ * runtime can verify diff updates against the binary without rehashing unchanged files.
  */
 
 var crypto = require("crypto");
@@ -19,6 +21,7 @@ var getFilesInFolder = require("./getFilesInFolder");
 
 var CODE_PUSH_FOLDER_PREFIX = "CodePush";
 var CODE_PUSH_HASH_FILE_NAME = "CodePushHash";
+var CODE_PUSH_HASH_MANIFEST_FILE_NAME = "CodePushHashManifest";
 var CODE_PUSH_HASH_OLD_FILE_NAME = "CodePushHash.json";
 var HASH_ALGORITHM = "sha256";
 
@@ -80,6 +83,9 @@ function addJsBundleAndMetaToManifest() {
             var savedResourcesManifestPath = assetsDir + "/" + CODE_PUSH_HASH_FILE_NAME;
             fs.writeFileSync(savedResourcesManifestPath, finalHash);
 
+            var savedFileHashesManifestPath = assetsDir + "/" + CODE_PUSH_HASH_MANIFEST_FILE_NAME;
+            fs.writeFileSync(savedFileHashesManifestPath, manifest.join("\n"));
+
             // "CodePushHash.json" file name breaks flow type checking.
             // To fix the issue we need to delete "CodePushHash.json" file and
             // use "CodePushHash" file name instead to store the hash value.
@@ -10,6 +10,70 @@ export interface CodePushOptions extends SyncOptions {
     checkFrequency: CodePush.CheckFrequency;
 }
 
+export interface AllUpdateMetadata {
+    /**
+     * The update that is currently running, or null if the app is running the binary's bundle.
+     */
+    running: LocalPackage|null;
+
+    /**
+     * The update that has been installed but not applied yet, or null if there is none.
+     */
+    pending: LocalPackage|null;
+
+    /**
+     * The most recently installed update, whether it is running or pending.
+     */
+    latest: LocalPackage|null;
+}
+
+export interface MetricsHistogram {
+    /**
+     * The number of recorded values, and their sum.
+     */
+    count: number;
+    sum: number;
+
+    /**
+     * The inclusive upper bounds of the buckets. bucketCounts has one more entry, counting the values above the last bound.
+     */
+    bounds: number[];
+    bucketCounts: number[];
+}
+
+export interface QueueWaitMetrics {
+    taskCount: number;
+    totalWaitMs: number;
+    maxWaitMs: number;
+}
+
+export interface UpdateMetrics {
+    downloadCount: number;
+    bytesDownloaded: number;
+
+    /**
+     * The bytes patch chains saved compared to downloading the full packages.
+     */
+    patchBytesSaved: number;
+    installCount: number;
+    downloadMs: MetricsHistogram;
+    downloadThroughputKBps: MetricsHistogram;
+    unzipMs: MetricsHistogram;
+    applyMs: MetricsHistogram;
+    verifyMs: MetricsHistogram;
+    installMs: MetricsHistogram;
+
+    /**
+     * How long work waited for a CodePush thread, for each of the "metadata" and "io" lanes.
+     */
+    queueWaits: { [lane: string]: QueueWaitMetrics };
+
+    /**
+     * The phase durations of the last restart that reached notifyAppReady, if there was one in this process.
+     */
+    reloadMs?: { [phase: string]: number };
+}
+
 export interface DownloadProgress {
     /**
      * The total number of bytes expected to be received for this update.
@@ -20,6 +84,22 @@ export interface DownloadProgress {
      * The number of bytes downloaded thus far.
      */
     receivedBytes: number;
+
+    /**
+     * The step of the update being reported (Android only). Once the download is complete, the update
+     * is applied and then verified while the byte counts stay at their final values.
+     */
+    stage?: "download" | "apply" | "verify";
+
+    /**
+     * The number of steps of the "apply" or "verify" stage, e.g. the number of patches to apply (Android only).
+     */
+    stageTotal?: number;
+
+    /**
+     * The number of steps of the "apply" or "verify" stage completed thus far (Android only).
+     */
+    stageCompleted?: number;
 }
 
 export interface LocalPackage extends Package {
@@ -94,6 +174,12 @@ export interface RemotePackage extends Package {
      */
     download(downloadProgressCallback?: DownloadProgressCallback): Promise<LocalPackage>;
 
+    /**
+     * Cancels a download of this update that is in progress, which then rejects. Resolves with whether
+     * there was a download to cancel. Always resolves with false on platforms other than Android.
+     */
+    cancelDownload(): Promise<boolean>;
+
     /**
      * The URL at which the package is available for download.
      */
@@ -230,6 +316,11 @@ export interface StatusReport {
      * The label (v#) of the package that was upgraded from.
      */
     previousLabelOrAppVersion?: string;
+
+    /**
+     * Totals of the update metrics at the time the reported update was installed (or of the report, for a binary update), if enabled with CodePushStatusReportMetrics on Android.
+     */
+    metrics?: { [name: string]: number };
 }
 
 /**
@@ -269,6 +360,17 @@ declare namespace CodePush {
      */
     function getUpdateMetadata(updateState?: UpdateState) : Promise<LocalPackage|null>;
 
+    /**
+     * Retrieves the metadata of the running, pending and latest updates with a single call, from one consistent
+     * snapshot of the update state. Each value is the same as what getUpdateMetadata returns for that state.
+     */
+    function getAllUpdateMetadata() : Promise<AllUpdateMetadata>;
+
+    /**
+     * Retrieves the metrics of the update pipeline recorded in this process, or null if the platform does not record them.
+     */
+    function getMetrics() : Promise<UpdateMetrics|null>;
+
     /**
      * Notifies the CodePush runtime that an installed update is considered successful.
      */